@@ -0,0 +1,129 @@
+package com.naiveroboticist.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.naiveroboticist.sensor.InvalidPacketError;
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.utils.ByteMethods;
+import com.naiveroboticist.utils.ByteScan;
+
+/**
+ * Checksum and start byte scanning over a single frame and over a 4KB
+ * chunk of capture. The scalar* benchmarks are the original byte-at-a-time
+ * loops, kept as the baseline for ByteScan; run with
+ * -jvmArgs -Dnaiveroboticist.bytescan=scalar to time the fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({ "7,19,20,33", "7,8,9,10,11,12,13,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,33,35,39,40,41,42" })
+    public String sensors;
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private byte[] mFrame;
+    private Packet mPacket;
+    private byte[] mChunk;
+    private ByteBuffer mChunkView;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticStream stream = new SyntheticStream(sensors, 1, 0, 100);
+        mFrame = stream.bytes();
+        mPacket = new Packet(512);
+        mPacket.put(mFrame, 0, mFrame.length);
+        // Frames with their START bytes masked out, so a scan runs to the end
+        SyntheticStream capture = new SyntheticStream(sensors, CHUNK_SIZE / mFrame.length + 1, 0, 100);
+        mChunk = Arrays.copyOf(capture.bytes(), CHUNK_SIZE);
+        for (int i=0; i<mChunk.length; i++) {
+            if (mChunk[i] == 0x13) {
+                mChunk[i] = 0x12;
+            }
+        }
+        mChunkView = ByteBuffer.wrap(mChunk).order(ByteOrder.nativeOrder());
+    }
+
+    @Benchmark
+    public boolean validChecksum() throws InvalidPacketError {
+        return mPacket.validChecksum();
+    }
+
+    @Benchmark
+    public byte calculateChecksum() {
+        return Packet.calculateChecksum(mFrame, 0, mFrame.length - 1);
+    }
+
+    @Benchmark
+    public int seekMissing() {
+        // Worst case: scans the whole frame
+        return ByteMethods.seek(mFrame, mFrame.length, (byte) 0x7f);
+    }
+
+    @Benchmark
+    public int scalarChecksum() {
+        byte sum = 0;
+        for (int i=0; i<mFrame.length; i++) {
+            sum += mFrame[i];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int scalarSeekMissing() {
+        for (int i=0; i<mFrame.length; i++) {
+            if (mFrame[i] == (byte) 0x7f) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int chunkSum() {
+        return ByteScan.sum(mChunkView, 0, CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public int chunkScan() {
+        return ByteScan.indexOf(mChunkView, 0, CHUNK_SIZE, (byte) 0x13);
+    }
+
+    @Benchmark
+    public int scalarChunkSum() {
+        byte sum = 0;
+        for (int i=0; i<CHUNK_SIZE; i++) {
+            sum += mChunk[i];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int scalarChunkScan() {
+        for (int i=0; i<CHUNK_SIZE; i++) {
+            if (mChunk[i] == 0x13) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+package com.naiveroboticist.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.naiveroboticist.interfaces.ISensorValueVisitor;
+import com.naiveroboticist.sensor.InvalidPacketError;
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.sensor.SensorPacketReader;
+import com.naiveroboticist.sensor.StreamLayout;
+import com.naiveroboticist.utils.ByteMethods;
+
+/**
+ * Decoding every sensor value from a single frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({ "7,19,20,33", "7,8,9,10,11,12,13,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,33,35,39,40,41,42" })
+    public String sensors;
+
+    private byte[] mSensorIds;
+    private byte[] mFrame;
+    private Packet mPacket;
+    private SensorPacketReader mSensorPacketReader;
+    private StreamLayout mLayout;
+    private int[] mValues;
+    private int[] mAllValues;
+    private ISensorValueVisitor mVisitor;
+    private Blackhole mBlackhole;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPacketError {
+        mSensorIds = SyntheticStream.parseSensors(sensors);
+        SyntheticStream stream = new SyntheticStream(sensors, 1, 0, 100);
+        mFrame = stream.bytes();
+        mPacket = new Packet(512);
+        mPacket.put(mFrame, 0, mFrame.length);
+        mSensorPacketReader = new SensorPacketReader();
+        mSensorPacketReader.readPacket(mFrame, mFrame.length);
+        mLayout = new StreamLayout(mSensorIds);
+        mValues = new int[mSensorIds.length];
+        mAllValues = new int[SensorPacketReader.MAX_VALUES];
+        mVisitor = new ISensorValueVisitor() {
+            @Override
+            public void sensorValue(byte sensor, int value) {
+                mBlackhole.consume(value);
+            }
+        };
+    }
+
+    @Benchmark
+    public void packetGetSensorValue(Blackhole bh) throws InvalidPacketError {
+        for (int i=0; i<mSensorIds.length; i++) {
+            bh.consume(mPacket.getSensorValue(mSensorIds[i]));
+        }
+    }
+
+    @Benchmark
+    public int packetLayoutDecode() {
+        return mPacket.getSensorValues(mLayout, mValues);
+    }
+
+    @Benchmark
+    public List<Integer> sensorPacketReaderGetPacketValues() throws InvalidPacketError {
+        return mSensorPacketReader.getPacketValues();
+    }
+
+    @Benchmark
+    public int sensorPacketReaderIntArray() throws InvalidPacketError {
+        return mSensorPacketReader.getPacketValues(mAllValues);
+    }
+
+    @Benchmark
+    public int sensorPacketReaderVisitor(final Blackhole bh) throws InvalidPacketError {
+        mBlackhole = bh;
+        return mSensorPacketReader.visitPacketValues(mVisitor);
+    }
+
+    @Benchmark
+    public int sensorPacketReaderLayoutDecode() throws InvalidPacketError {
+        return mSensorPacketReader.getPacketValues(mLayout, mValues);
+    }
+
+    @Benchmark
+    public int bytesToWord() {
+        int sum = 0;
+        for (int i=0; i + 1<mFrame.length; i+=2) {
+            sum += ByteMethods.bytesToWord(mFrame[i], mFrame[i + 1]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,114 @@
+package com.naiveroboticist.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.naiveroboticist.sensor.InvalidPacketError;
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.sensor.PacketFramer;
+import com.naiveroboticist.sensor.PacketFramer.FrameStatus;
+import com.naiveroboticist.sensor.PacketReader;
+import com.naiveroboticist.sensor.SensorPacketReader;
+
+/**
+ * Frames one pass over a synthetic capture of FRAMES packets. Divide the
+ * score by FRAMES for per-packet cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+    public static final int FRAMES = 1000;
+
+    @Param({ "7,19,20,33" })
+    public String sensors;
+
+    @Param({ "0", "5" })
+    public int noisePercent;
+
+    @Param({ "1", "16", "100" })
+    public int readSize;
+
+    private SyntheticStream mStream;
+    private byte[] mReadBuffer;
+    private PacketFramer mFramer;
+    private Packet mPacket;
+    private PacketReader mPacketReader;
+    private SensorPacketReader mSensorPacketReader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mStream = new SyntheticStream(sensors, FRAMES, noisePercent, readSize);
+        mReadBuffer = new byte[100];
+        mFramer = new PacketFramer(mStream.payloadLength());
+        mPacket = new Packet(512);
+        mPacketReader = new PacketReader(mStream, mStream.payloadLength());
+        mSensorPacketReader = new SensorPacketReader();
+    }
+
+    @Benchmark
+    public int packetFramer() {
+        mStream.rewind();
+        int numFrames = 0;
+        while (! mStream.exhausted()) {
+            int numBytes = mStream.read(mReadBuffer, 0);
+            mFramer.consume(mReadBuffer, 0, numBytes);
+            FrameStatus status;
+            while ((status = mFramer.nextFrame(mPacket)) != FrameStatus.NeedMore) {
+                if (status == FrameStatus.Frame) {
+                    numFrames++;
+                }
+            }
+        }
+        return numFrames;
+    }
+
+    @Benchmark
+    public int packetReader() throws Exception {
+        mStream.rewind();
+        int numFrames = 0;
+        while (! mStream.exhausted()) {
+            numFrames += mPacketReader.readAndQueuePackets();
+            while (mPacketReader.numPackets() > 0) {
+                mPacketReader.releasePacket(mPacketReader.removePacket());
+            }
+        }
+        mPacketReader.clearLog();
+        return numFrames;
+    }
+
+    @Benchmark
+    public int sensorPacketReader() {
+        mStream.rewind();
+        int numFrames = 0;
+        while (! mStream.exhausted()) {
+            int numBytes = mStream.read(mReadBuffer, 0);
+            try {
+                if (mSensorPacketReader.readPacket(mReadBuffer, numBytes)) {
+                    numFrames++;
+                    while (mSensorPacketReader.readPacket(mReadBuffer, 0)) {
+                        numFrames++;
+                    }
+                }
+            } catch (InvalidPacketError e) {
+                // Noise; keep going
+            }
+        }
+        return numFrames;
+    }
+}
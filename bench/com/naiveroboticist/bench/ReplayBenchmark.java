@@ -0,0 +1,90 @@
+package com.naiveroboticist.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.naiveroboticist.capture.CaptureReplayReader;
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.sensor.PacketFramer;
+import com.naiveroboticist.sensor.PacketFramer.FrameStatus;
+
+/**
+ * Replays a memory-mapped capture of FRAMES packets through the framer as
+ * fast as possible. Capture size divided by the score gives MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+    public static final int FRAMES = 100000;
+
+    @Param({ "16", "256", "4096" })
+    public int chunkSize;
+
+    private File mCapture;
+    private CaptureReplayReader mReplay;
+    private PacketFramer mFramer;
+    private Packet mPacket;
+    private byte[] mReadBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticStream stream = new SyntheticStream("7,19,20,33", FRAMES, 1, 100);
+        mCapture = File.createTempFile("replay", ".raw");
+        FileOutputStream out = new FileOutputStream(mCapture);
+        try {
+            out.write(stream.bytes());
+        } finally {
+            out.close();
+        }
+        mReplay = new CaptureReplayReader(mCapture, chunkSize);
+        mFramer = new PacketFramer(stream.payloadLength());
+        mPacket = new Packet(512);
+        mReadBuffer = new byte[chunkSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mReplay.close();
+        mCapture.delete();
+    }
+
+    @Benchmark
+    public int replay() throws IOException {
+        mReplay.rewind();
+        int numFrames = 0;
+        while (! mReplay.isFinished()) {
+            int numBytes = mReplay.read(mReadBuffer, 0);
+            int offset = 0;
+            while (offset < numBytes) {
+                offset += mFramer.consume(mReadBuffer, offset, numBytes - offset);
+                FrameStatus status;
+                while ((status = mFramer.nextFrame(mPacket)) != FrameStatus.NeedMore) {
+                    if (status == FrameStatus.Frame) {
+                        numFrames++;
+                    }
+                }
+            }
+        }
+        return numFrames;
+    }
+}
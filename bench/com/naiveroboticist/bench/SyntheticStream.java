@@ -0,0 +1,128 @@
+package com.naiveroboticist.bench;
+
+import java.util.Random;
+
+import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.sensor.Packet;
+
+/**
+ * Builds a serial capture of Create STREAM packets for the benchmarks, with
+ * optional line noise, and replays it in fixed-size reads.
+ */
+public class SyntheticStream implements IRobotReader {
+    // Value bytes per sensor id, ids 0..42
+    private static final int[] PAYLOAD_SIZES = {
+        0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        2, 2, 1, 2, 2, 1, 2, 2, 2, 2, 2, 2, 2,
+        1, 2, 1, 1, 1, 1, 1, 2, 2, 2, 2
+    };
+
+    private final byte[] mBytes;
+    private final int mNumFrames;
+    private final int mPayloadLength;
+    private final int mReadSize;
+    private int mPosition;
+
+    /**
+     * @param sensors sensor ids in the stream, e.g. "7,19,20,33"
+     * @param numFrames number of frames to generate
+     * @param noisePercent chance per frame of a run of garbage bytes before
+     *        it or a corrupted byte inside it
+     * @param readSize bytes handed out per read()
+     */
+    public SyntheticStream(String sensors, int numFrames, int noisePercent, int readSize) {
+        byte[] ids = parseSensors(sensors);
+        Random random = new Random(42);
+        int payloadLength = 0;
+        for (byte id : ids) {
+            payloadLength += 1 + PAYLOAD_SIZES[id];
+        }
+        int frameLength = payloadLength + 3;
+
+        // Leave room for up to 8 garbage bytes per frame
+        byte[] bytes = new byte[numFrames * (frameLength + 8)];
+        int pos = 0;
+        for (int f=0; f<numFrames; f++) {
+            boolean noisy = random.nextInt(100) < noisePercent;
+            if (noisy && random.nextBoolean()) {
+                int garbage = 1 + random.nextInt(8);
+                for (int g=0; g<garbage; g++) {
+                    bytes[pos++] = (byte) random.nextInt(256);
+                }
+                noisy = false;
+            }
+            int start = pos;
+            bytes[pos++] = 0x13;
+            bytes[pos++] = (byte) payloadLength;
+            for (byte id : ids) {
+                bytes[pos++] = id;
+                for (int b=0; b<PAYLOAD_SIZES[id]; b++) {
+                    bytes[pos++] = (byte) random.nextInt(256);
+                }
+            }
+            bytes[pos] = Packet.calculateChecksum(bytes, start, pos - start);
+            pos++;
+            if (noisy) {
+                bytes[start + 2 + random.nextInt(payloadLength)] ^= 0x5a;
+            }
+        }
+
+        mBytes = new byte[pos];
+        System.arraycopy(bytes, 0, mBytes, 0, pos);
+        mNumFrames = numFrames;
+        mPayloadLength = payloadLength;
+        mReadSize = readSize;
+        mPosition = 0;
+    }
+
+    public static byte[] parseSensors(String sensors) {
+        String[] parts = sensors.split(",");
+        byte[] ids = new byte[parts.length];
+        for (int i=0; i<parts.length; i++) {
+            ids[i] = (byte) Integer.parseInt(parts[i].trim());
+        }
+        return ids;
+    }
+
+    public byte[] bytes() {
+        return mBytes;
+    }
+
+    public int numFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * The LENGTH byte of every frame in the stream.
+     */
+    public int payloadLength() {
+        return mPayloadLength;
+    }
+
+    public int readSize() {
+        return mReadSize;
+    }
+
+    public void rewind() {
+        mPosition = 0;
+    }
+
+    /**
+     * True once a full pass over the capture has been read.
+     */
+    public boolean exhausted() {
+        return mPosition >= mBytes.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int timeoutMillis) {
+        if (mPosition >= mBytes.length) {
+            mPosition = 0;
+        }
+        int numBytes = Math.min(Math.min(mReadSize, buffer.length), mBytes.length - mPosition);
+        System.arraycopy(mBytes, mPosition, buffer, 0, numBytes);
+        mPosition += numBytes;
+        return numBytes;
+    }
+}
@@ -0,0 +1,166 @@
+package com.naiveroboticist.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import com.naiveroboticist.interfaces.IBoundedRobotReader;
+
+/**
+ * Replays a raw capture of the robot's serial stream from a file as if it
+ * were the live robot. The file is memory mapped and handed out in chunks of
+ * at most chunkSize bytes to mimic serial fragmentation, either as fast as
+ * possible or paced at the serial line rate (optionally sped up).
+ */
+public class CaptureReplayReader implements IBoundedRobotReader, Closeable {
+    public enum ReplayMode {
+        AsFastAsPossible, OriginalTiming, Scaled
+    }
+
+    private static final int DEFAULT_BAUD_RATE = 57600;
+    // 8N1: start bit, 8 data bits, stop bit
+    private static final int BITS_PER_BYTE = 10;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer[] mSegments;
+    private final long mLength;
+    private final int mChunkSize;
+    private final ReplayMode mMode;
+    private final double mSpeed;
+    private double mNanosPerByte;
+    private long mPosition;
+    // Set by the first paced read, which starts the replay clock
+    private boolean mStarted;
+    private long mStartNanos;
+
+    /**
+     * Replays the capture as fast as possible.
+     */
+    public CaptureReplayReader(File capture, int chunkSize) throws IOException {
+        this(capture, chunkSize, ReplayMode.AsFastAsPossible, 1.0);
+    }
+
+    /**
+     * @param speed multiplier of the original timing; only used in Scaled
+     *        mode
+     */
+    public CaptureReplayReader(File capture, int chunkSize, ReplayMode mode, double speed) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        if (mode == ReplayMode.Scaled && speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        mFile = new RandomAccessFile(capture, "r");
+        FileChannel channel = mFile.getChannel();
+        mLength = channel.size();
+        int numSegments = (int) ((mLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        mSegments = new MappedByteBuffer[numSegments];
+        for (int i=0; i<numSegments; i++) {
+            long offset = i * SEGMENT_SIZE;
+            mSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, mLength - offset));
+        }
+        mChunkSize = chunkSize;
+        mMode = mode;
+        mSpeed = mode == ReplayMode.Scaled ? speed : 1.0;
+        setBaudRate(DEFAULT_BAUD_RATE);
+        mPosition = 0;
+        mStarted = false;
+        mStartNanos = 0;
+    }
+
+    /**
+     * The line rate used to reconstruct the original timing of the capture.
+     */
+    public void setBaudRate(int baudRate) {
+        mNanosPerByte = (double) TimeUnit.SECONDS.toNanos(1) * BITS_PER_BYTE / baudRate;
+    }
+
+    public long length() {
+        return mLength;
+    }
+
+    public long position() {
+        return mPosition;
+    }
+
+    public boolean isFinished() {
+        return mPosition >= mLength;
+    }
+
+    /**
+     * Starts the replay over from the beginning of the capture.
+     */
+    public void rewind() {
+        mPosition = 0;
+        mStarted = false;
+    }
+
+    @Override
+    public int read(byte[] buffer, int timeoutMillis) throws IOException {
+        return read(buffer, 0, buffer.length, timeoutMillis);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException {
+        int count = (int) Math.min(Math.min(mChunkSize, length), mLength - mPosition);
+        if (count <= 0) {
+            return 0;
+        }
+
+        if (mMode != ReplayMode.AsFastAsPossible) {
+            count = (int) Math.min(count, awaitBytes(count, timeoutMillis));
+            if (count <= 0) {
+                return 0;
+            }
+        }
+
+        int copied = 0;
+        while (copied < count) {
+            MappedByteBuffer segment = mSegments[(int) (mPosition / SEGMENT_SIZE)];
+            int segmentPos = (int) (mPosition % SEGMENT_SIZE);
+            int part = Math.min(count - copied, segment.limit() - segmentPos);
+            segment.position(segmentPos);
+            segment.get(buffer, offset + copied, part);
+            copied += part;
+            mPosition += part;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    // General private methods
+
+    // Like a serial driver: wait until a full chunk has "arrived" or the
+    // timeout expires, then return how many bytes are available.
+    private long awaitBytes(int count, int timeoutMillis) throws IOException {
+        long now = System.nanoTime();
+        if (! mStarted) {
+            mStarted = true;
+            mStartNanos = now;
+        }
+        long dueAt = mStartNanos + (long) ((mPosition + count) * mNanosPerByte / mSpeed);
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long wakeAt = Math.min(dueAt, deadline);
+        if (wakeAt > now) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wakeAt - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying capture", e);
+            }
+            now = System.nanoTime();
+        }
+        long arrived = (long) ((now - mStartNanos) * mSpeed / mNanosPerByte);
+        return arrived - mPosition;
+    }
+}
@@ -0,0 +1,199 @@
+package com.naiveroboticist.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.naiveroboticist.interfaces.IPacketListener;
+import com.naiveroboticist.sensor.Packet;
+
+/**
+ * Flight recorder for the sensor stream. Attached to a PacketReader it
+ * appends every validated packet, with its receive timestamp, to a
+ * preallocated memory-mapped segment file. When a segment fills up the
+ * recorder rolls over to the next one, which is created and mapped ahead
+ * of time on a helper thread, and the full one is flushed to disk on
+ * another, so the reader thread only copies bytes. If the next segment
+ * isn't ready yet when one fills up, packets are dropped (and counted)
+ * until it is rather than waiting for it.
+ *
+ * Segment layout: MAGIC, VERSION, then records of
+ * { int frame length, long timestamp nanos, frame bytes } ending at the
+ * first zero length. Use RecordingReader to read segments back.
+ */
+public class PacketRecorder implements IPacketListener, Closeable {
+    static final int MAGIC = 0x53505254; // "SPRT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 12;
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int MAX_FRAME_LENGTH = 258;
+
+    private final File mDirectory;
+    private final String mPrefix;
+    private final int mSegmentSize;
+    private final ExecutorService mAllocator;
+    private final ExecutorService mFlusher;
+    private Future<MappedByteBuffer> mNextSegment;
+    private MappedByteBuffer mSegment;
+    private int mSegmentNumber;
+    private long mRecorded;
+    private long mDropped;
+
+    public PacketRecorder(File directory, String prefix, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        mDirectory = directory;
+        mPrefix = prefix;
+        mSegmentSize = segmentSize;
+        mAllocator = Executors.newSingleThreadExecutor(helperThreads("PacketRecorder-" + mPrefix));
+        // Separate, so a slow flush never holds up the next segment
+        mFlusher = Executors.newSingleThreadExecutor(helperThreads("PacketRecorder-" + mPrefix + "-flush"));
+        mSegmentNumber = 0;
+        mSegment = createSegment(mSegmentNumber);
+        mNextSegment = allocateSegment(mSegmentNumber + 1);
+        mRecorded = 0;
+        mDropped = 0;
+    }
+
+    @Override
+    public void packetReceived(Packet packet) {
+        int frameLength = packet.position();
+        if (mSegment.remaining() < RECORD_HEADER_SIZE + frameLength + 4) {
+            if (! rollover()) {
+                mDropped++;
+                return;
+            }
+        }
+        int start = mSegment.position();
+        mSegment.position(start + 4);
+        mSegment.putLong(packet.timestamp());
+        packet.writeTo(mSegment);
+        // Length goes in last so a reader never sees a partial record
+        mSegment.putInt(start, frameLength);
+        mRecorded++;
+    }
+
+    public long recorded() {
+        return mRecorded;
+    }
+
+    /**
+     * Packets that couldn't be recorded because the next segment wasn't
+     * ready yet or couldn't be created.
+     */
+    public long dropped() {
+        return mDropped;
+    }
+
+    public int segmentNumber() {
+        return mSegmentNumber;
+    }
+
+    /**
+     * True once the segment to roll over to has been created.
+     */
+    boolean isNextSegmentReady() {
+        return mNextSegment.isDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSegment.force();
+        // Let a pending allocation and flushes finish, then remove the
+        // unused spare
+        mAllocator.shutdown();
+        mFlusher.shutdown();
+        try {
+            mAllocator.awaitTermination(1, TimeUnit.SECONDS);
+            mFlusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segmentFile(mDirectory, mPrefix, mSegmentNumber + 1).delete();
+    }
+
+    static File segmentFile(File directory, String prefix, int segmentNumber) {
+        return new File(directory, String.format("%s-%06d%s", prefix, segmentNumber, SEGMENT_SUFFIX));
+    }
+
+    // General private methods
+
+    private boolean rollover() {
+        if (! mNextSegment.isDone()) {
+            return false;
+        }
+        MappedByteBuffer next;
+        try {
+            // Done, so this doesn't wait
+            next = mNextSegment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // Try again on the next packet
+            mNextSegment = allocateSegment(mSegmentNumber + 1);
+            return false;
+        }
+        final MappedByteBuffer full = mSegment;
+        mFlusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.force();
+            }
+        });
+        mSegment = next;
+        mSegmentNumber++;
+        mNextSegment = allocateSegment(mSegmentNumber + 1);
+        return true;
+    }
+
+    private static ThreadFactory helperThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private Future<MappedByteBuffer> allocateSegment(final int segmentNumber) {
+        return mAllocator.submit(new Callable<MappedByteBuffer>() {
+            @Override
+            public MappedByteBuffer call() throws IOException {
+                return createSegment(segmentNumber);
+            }
+        });
+    }
+
+    private MappedByteBuffer createSegment(int segmentNumber) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(mDirectory, mPrefix, segmentNumber), "rw");
+        try {
+            file.setLength(0);
+            file.setLength(mSegmentSize);
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+            segment.order(ByteOrder.BIG_ENDIAN);
+            segment.putInt(MAGIC);
+            segment.putInt(VERSION);
+            return segment;
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.naiveroboticist.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.naiveroboticist.sensor.InvalidPacketError;
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.sensor.StreamLayout;
+
+/**
+ * Iterates the packets written by a PacketRecorder, segment by segment:
+ *
+ *   while (reader.next()) {
+ *       reader.getSensorValues(values);
+ *   }
+ *
+ * The packet and decoded values are overwritten by every call to next().
+ */
+public class RecordingReader implements Closeable {
+    private final File mDirectory;
+    private final String mPrefix;
+    private final Packet mPacket;
+    private MappedByteBuffer mSegment;
+    private int mSegmentNumber;
+    private long mTimestamp;
+    private StreamLayout mLayout;
+
+    public RecordingReader(File directory, String prefix) throws IOException {
+        mDirectory = directory;
+        mPrefix = prefix;
+        mPacket = new Packet(512);
+        mSegmentNumber = -1;
+        mSegment = null;
+        openNextSegment();
+    }
+
+    /**
+     * Advances to the next recorded packet. Returns false once all segments
+     * have been read.
+     */
+    public boolean next() throws IOException {
+        while (mSegment != null) {
+            if (mSegment.remaining() >= PacketRecorder.RECORD_HEADER_SIZE) {
+                int frameLength = mSegment.getInt();
+                if (frameLength > 0) {
+                    mTimestamp = mSegment.getLong();
+                    mPacket.readFrom(mSegment, frameLength);
+                    mPacket.setTimestamp(mTimestamp);
+                    return true;
+                }
+            }
+            openNextSegment();
+        }
+        return false;
+    }
+
+    public long timestamp() {
+        return mTimestamp;
+    }
+
+    public Packet packet() {
+        return mPacket;
+    }
+
+    public int segmentNumber() {
+        return mSegmentNumber;
+    }
+
+    /**
+     * Layout of the current packet, compiled from the recording itself and
+     * recompiled only when the stream's shape changes.
+     */
+    public StreamLayout layout() throws InvalidPacketError {
+        if (mLayout == null || ! mLayout.matches(mPacket)) {
+            mLayout = StreamLayout.fromPacket(mPacket);
+        }
+        return mLayout;
+    }
+
+    /**
+     * Decodes the current packet's values, in stream order, into values.
+     * Returns the number of values written.
+     */
+    public int getSensorValues(int[] values) throws InvalidPacketError {
+        return mPacket.getSensorValues(layout(), values);
+    }
+
+    @Override
+    public void close() {
+        mSegment = null;
+    }
+
+    // General private methods
+
+    private void openNextSegment() throws IOException {
+        mSegment = null;
+        File file = PacketRecorder.segmentFile(mDirectory, mPrefix, mSegmentNumber + 1);
+        if (! file.exists()) {
+            return;
+        }
+        mSegmentNumber++;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            segment.order(ByteOrder.BIG_ENDIAN);
+            if (segment.getInt() != PacketRecorder.MAGIC || segment.getInt() != PacketRecorder.VERSION) {
+                throw new IOException("Not a packet recording segment: " + file);
+            }
+            mSegment = segment;
+        } finally {
+            raf.close();
+        }
+    }
+}
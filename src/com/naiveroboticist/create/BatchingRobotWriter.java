@@ -0,0 +1,200 @@
+package com.naiveroboticist.create;
+
+import java.io.IOException;
+
+import com.naiveroboticist.interfaces.IFlushableRobotWriter;
+import com.naiveroboticist.interfaces.IRobotWriter;
+
+/**
+ * IRobotWriter decorator that collects the commands issued during a control
+ * tick and sends them to the robot as a single write on flush(). While
+ * collecting it
+ * <ul>
+ * <li>drops SAFE (or FULL) when the same tick has already put the robot
+ * in that mode, and</li>
+ * <li>coalesces DRIVE commands, so only the latest velocity and radius of
+ * the tick go out, in the place of the first one.</li>
+ * </ul>
+ * The mode is tracked from the commands written and forgotten on every
+ * flush(), since between ticks the robot may change mode on its own (e.g.
+ * a wheel drop or cliff puts the Create back into passive mode), so each
+ * tick's first SAFE always goes out. Commands other than mode changes and
+ * DRIVE aren't interpreted and also make it forget the mode.
+ */
+public class BatchingRobotWriter implements IFlushableRobotWriter {
+    public enum OIMode {
+        Unknown, Passive, Safe, Full
+    }
+
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int DRIVE_PAYLOAD_SIZE = 4;
+
+    private IRobotWriter mRobotRW;
+    private byte[] mBuffer;
+    private int mLength;
+    // Offset of the pending DRIVE's opcode, or -1 if there isn't one
+    private int mDriveOffset;
+    private OIMode mMode;
+    private long mCommandsRequested;
+    private long mWrites;
+    private long mBytesSaved;
+
+    public BatchingRobotWriter(IRobotWriter robotRW) {
+        this(robotRW, DEFAULT_CAPACITY);
+    }
+
+    public BatchingRobotWriter(IRobotWriter robotRW, int capacity) {
+        mRobotRW = robotRW;
+        mBuffer = new byte[capacity];
+        mLength = 0;
+        mDriveOffset = -1;
+        mMode = OIMode.Unknown;
+    }
+
+    @Override
+    public void sendCommand(byte command) throws IOException {
+        mCommandsRequested++;
+        OIMode mode = modeAfter(command);
+        if (mode != OIMode.Unknown && mode == mMode && mode != OIMode.Passive) {
+            mBytesSaved++;
+            return;
+        }
+        ensureCapacity(1);
+        mBuffer[mLength++] = command;
+        if (mode != OIMode.Unknown) {
+            // Don't move a later DRIVE in front of a mode change
+            mMode = mode;
+            mDriveOffset = -1;
+        }
+    }
+
+    @Override
+    public void sendCommand(byte command, byte[] payload) throws IOException {
+        mCommandsRequested++;
+        if (command == Commands.DRIVE && payload.length == DRIVE_PAYLOAD_SIZE) {
+            appendDrive(payload, 0);
+            return;
+        }
+        ensureCapacity(1 + payload.length);
+        mBuffer[mLength++] = command;
+        System.arraycopy(payload, 0, mBuffer, mLength, payload.length);
+        mLength += payload.length;
+        invalidateMode();
+    }
+
+    @Override
+    public void sendCommand(byte[] buffer) throws IOException {
+        sendCommand(buffer, 0, buffer.length);
+    }
+
+    /**
+     * A lone opcode or an encoded DRIVE is treated as that command. Any
+     * other bytes are passed through as is; since they aren't interpreted,
+     * the tracked mode is forgotten.
+     */
+    @Override
+    public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 1) {
+            sendCommand(buffer[offset]);
+            return;
+        }
+        mCommandsRequested++;
+        if (length == Commands.DRIVE_LENGTH && buffer[offset] == Commands.DRIVE) {
+            appendDrive(buffer, offset + 1);
+            return;
+        }
+        ensureCapacity(length);
+        System.arraycopy(buffer, offset, mBuffer, mLength, length);
+        mLength += length;
+        invalidateMode();
+    }
+
+    /**
+     * Writes everything collected since the last flush in one write, and
+     * forgets the robot's mode.
+     */
+    @Override
+    public void flush() throws IOException {
+        mMode = OIMode.Unknown;
+        mDriveOffset = -1;
+        if (mLength == 0) {
+            return;
+        }
+        int length = mLength;
+        mLength = 0;
+        mWrites++;
+        mRobotRW.sendCommand(mBuffer, 0, length);
+    }
+
+    /**
+     * Number of bytes waiting for the next flush.
+     */
+    public int pending() {
+        return mLength;
+    }
+
+    /**
+     * The mode the commands collected this tick leave the robot in, or
+     * Unknown.
+     */
+    public OIMode mode() {
+        return mMode;
+    }
+
+    public void invalidateMode() {
+        mMode = OIMode.Unknown;
+        mDriveOffset = -1;
+    }
+
+    /**
+     * Writes the underlying writer would have seen without batching minus
+     * the writes actually made.
+     */
+    public long writesSaved() {
+        return mCommandsRequested - mWrites;
+    }
+
+    /**
+     * Bytes of redundant mode and superseded drive commands that were
+     * never sent.
+     */
+    public long bytesSaved() {
+        return mBytesSaved;
+    }
+
+    // General private methods
+
+    private void appendDrive(byte[] payload, int offset) throws IOException {
+        if (mDriveOffset < 0) {
+            ensureCapacity(1 + DRIVE_PAYLOAD_SIZE);
+            mDriveOffset = mLength;
+            mBuffer[mLength] = Commands.DRIVE;
+            mLength += 1 + DRIVE_PAYLOAD_SIZE;
+        } else {
+            mBytesSaved += 1 + DRIVE_PAYLOAD_SIZE;
+        }
+        System.arraycopy(payload, offset, mBuffer, mDriveOffset + 1, DRIVE_PAYLOAD_SIZE);
+    }
+
+    private void ensureCapacity(int numBytes) throws IOException {
+        if (mLength + numBytes > mBuffer.length) {
+            flush();
+            if (numBytes > mBuffer.length) {
+                mBuffer = new byte[numBytes];
+            }
+        }
+    }
+
+    private static OIMode modeAfter(byte command) {
+        switch (command) {
+        case Commands.START:
+            return OIMode.Passive;
+        case Commands.SAFE:
+            return OIMode.Safe;
+        case Commands.FULL:
+            return OIMode.Full;
+        default:
+            return OIMode.Unknown;
+        }
+    }
+}
@@ -3,14 +3,24 @@ package com.naiveroboticist.create;
 import java.io.IOException;
 import java.util.ArrayList;
 
+import com.naiveroboticist.interfaces.IFlushableRobotWriter;
 import com.naiveroboticist.interfaces.IRobotWriter;
 import com.naiveroboticist.utils.ByteMethods;
 
+/**
+ * Encodes Create OI commands and sends them through an IRobotWriter.
+ * Motion commands are encoded into one reused buffer, so the methods that
+ * encode or send are synchronized: a control loop and e.g. a safety stop
+ * on another thread can share an instance without interleaving bytes. The
+ * buffer is only lent to the writer for the duration of the call (see
+ * IRobotWriter.sendCommand(byte[], int, int)).
+ */
 public class Commands {
     // Supported commands
-    private static final byte START   = (byte) 0x80;
-    private static final byte SAFE    = (byte) 0x83;
-    private static final byte DRIVE   = (byte) 0x89;
+    static final byte START   = (byte) 0x80;
+    static final byte SAFE    = (byte) 0x83;
+    static final byte FULL    = (byte) 0x84;
+    static final byte DRIVE   = (byte) 0x89;
     private static final byte LED     = (byte) 0x8b;
     private static final byte SONG    = (byte) 0x8c;
     private static final byte PLAY    = (byte) 0x8d;
@@ -54,12 +64,46 @@ public class Commands {
     public static final int ANALOG_VALUE = 3;
     private static final byte[] STREAM_PAYLOAD = { 0x04, 0x07, 0x13, 0x14, 0x21 };
 
+    // Encoded command lengths, opcode included
+    static final int DRIVE_LENGTH = 5;
+    static final int PWMLSD_LENGTH = 4;
+
     private IRobotWriter mRobotRW;
+    // The writer again, if it holds commands back until flushed
+    private IFlushableRobotWriter mFlushableRW;
     private ArrayList<String> mLogs;
+    // Reused for every motion command so none of them allocate
+    private byte[] mCommandBuffer;
 
     public Commands(IRobotWriter robotRW) {
         mRobotRW = robotRW;
+        mFlushableRW = robotRW instanceof IFlushableRobotWriter ? (IFlushableRobotWriter) robotRW : null;
         mLogs = new ArrayList<String>();
+        mCommandBuffer = new byte[DRIVE_LENGTH];
+    }
+    
+    /**
+     * Encodes a DRIVE command (opcode, velocity and radius words) at offset
+     * and returns the offset just past it.
+     */
+    public static int putDrive(byte[] buffer, int offset, int velocity, int radius) {
+        buffer[offset] = DRIVE;
+        offset = ByteMethods.putWord(buffer, offset + 1, velocity);
+        return ByteMethods.putWord(buffer, offset, radius);
+    }
+    
+    /**
+     * Encodes a PWM Low Side Drivers command at offset and returns the
+     * offset just past it.
+     */
+    public static int putPwmLowSideDrivers(byte[] buffer, int offset, 
+            byte dutyCycle0, byte dutyCycle1, byte dutyCycle2) {
+        buffer[offset] = PWMLSD;
+        // The OI takes the drivers in the order 2, 1, 0
+        buffer[offset + 1] = dutyCycle2;
+        buffer[offset + 2] = dutyCycle1;
+        buffer[offset + 3] = dutyCycle0;
+        return offset + PWMLSD_LENGTH;
     }
     
     public ArrayList<String> getLogs() {
@@ -70,13 +114,24 @@ public class Commands {
         mLogs.clear();
     }
 
-    public void initialize() throws IOException {
+    public synchronized void initialize() throws IOException {
         mRobotRW.sendCommand(START);
         mRobotRW.sendCommand(SAFE);
         mRobotRW.sendCommand(SONG, SONG_PAYLOAD);
         mRobotRW.sendCommand(PLAY, PLAY_PAYLOAD);
         mRobotRW.sendCommand(STREAM, STREAM_PAYLOAD);
         mRobotRW.sendCommand(LED, LED_PAYLOAD);
+        flush();
+    }
+    
+    /**
+     * Sends the commands collected so far when the writer holds them back
+     * (see IFlushableRobotWriter); otherwise they have already been sent.
+     */
+    public synchronized void flush() throws IOException {
+        if (mFlushableRW != null) {
+            mFlushableRW.flush();
+        }
     }
     
 //    public int readAnalogPin() throws IOException, InvalidPacketError {
@@ -112,19 +167,34 @@ public class Commands {
 //        return spr.getPacketValues();
 //    }
     
-    public void pwmLowSideDrivers(byte dutyCycle0, byte dutyCycle1, byte dutyCycle2) throws IOException {
-        byte[] payload = { dutyCycle2, dutyCycle1, dutyCycle2 };
-        mRobotRW.sendCommand(PWMLSD, payload);
+    /**
+     * Starts streaming the given packet ids. Group ids (0-6, 100, 101,
+     * 106, 107) deliver all their member sensors behind a single id byte,
+     * which keeps the frame short; see StreamLayout.frameLength().
+     */
+    public synchronized void stream(byte[] packetIds) throws IOException {
+        byte[] payload = new byte[packetIds.length + 1];
+        payload[0] = (byte) packetIds.length;
+        System.arraycopy(packetIds, 0, payload, 1, packetIds.length);
+        mRobotRW.sendCommand(STREAM, payload);
+    }
+    
+    public void streamGroup(byte group) throws IOException {
+        stream(new byte[] { group });
+    }
+    
+    public synchronized void pwmLowSideDrivers(byte dutyCycle0, byte dutyCycle1, byte dutyCycle2) throws IOException {
+        int length = putPwmLowSideDrivers(mCommandBuffer, 0, dutyCycle0, dutyCycle1, dutyCycle2);
+        mRobotRW.sendCommand(mCommandBuffer, 0, length);
     }
     
-    public void drive(int velocity, int radius) throws IOException {
+    public synchronized void drive(int velocity, int radius) throws IOException {
         mRobotRW.sendCommand(SAFE);
         if (Math.abs(radius) < 0.0001) {
             radius = DRV_FWD_RAD;
         }
-        int[] words = { velocity, radius };
-        byte[] buffer = ByteMethods.wordsToBytes(words); //{ uB(fwd), lB(fwd), uB(rad), lB(rad) };
-        mRobotRW.sendCommand(DRIVE, buffer);
+        int length = putDrive(mCommandBuffer, 0, velocity, radius); //{ DRIVE, uB(fwd), lB(fwd), uB(rad), lB(rad) };
+        mRobotRW.sendCommand(mCommandBuffer, 0, length);
    }
     
     public void stop() throws IOException {
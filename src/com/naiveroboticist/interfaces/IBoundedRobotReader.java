@@ -0,0 +1,17 @@
+package com.naiveroboticist.interfaces;
+
+import java.io.IOException;
+
+/**
+ * A robot reader that can read into part of a buffer. PacketReader uses
+ * this, when available, to size each read to the bytes it expects next
+ * rather than to its whole buffer, so drivers that wait for a full buffer
+ * return as soon as a frame is complete.
+ */
+public interface IBoundedRobotReader extends IRobotReader {
+    /**
+     * Reads at most length bytes into the buffer from offset. Returns the
+     * number of bytes read, or 0 if none arrived within the timeout.
+     */
+    int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException;
+}
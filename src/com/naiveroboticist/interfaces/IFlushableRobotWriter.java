@@ -0,0 +1,15 @@
+package com.naiveroboticist.interfaces;
+
+import java.io.IOException;
+
+/**
+ * A robot writer that may hold commands back, e.g. to send a control
+ * tick's commands in one write. Commands calls flush() at the end of each
+ * batch of commands it issues.
+ */
+public interface IFlushableRobotWriter extends IRobotWriter {
+    /**
+     * Sends any commands still held back.
+     */
+    void flush() throws IOException;
+}
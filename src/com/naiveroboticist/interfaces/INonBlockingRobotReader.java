@@ -0,0 +1,23 @@
+package com.naiveroboticist.interfaces;
+
+import java.io.IOException;
+
+/**
+ * Readiness-based interface to a robot controller, for serial drivers that
+ * report data arrival through events rather than a blocking read. Lets one
+ * thread service many robots.
+ */
+public interface INonBlockingRobotReader {
+    /**
+     * Copies up to length bytes that have already arrived into the buffer
+     * without waiting. Returns the number of bytes copied, 0 if none are
+     * available, or -1 once the source is closed.
+     */
+    int readAvailable(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * The listener to call whenever new bytes arrive. Set once, before any
+     * data is read.
+     */
+    void setReadinessListener(IReadinessListener listener);
+}
@@ -0,0 +1,12 @@
+package com.naiveroboticist.interfaces;
+
+import com.naiveroboticist.sensor.Packet;
+
+/**
+ * Notified on the reader thread of every validated packet, before it is
+ * queued for consumers. Implementations must be quick and must not keep a
+ * reference to the packet after returning.
+ */
+public interface IPacketListener {
+    void packetReceived(Packet packet);
+}
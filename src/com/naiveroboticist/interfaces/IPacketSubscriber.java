@@ -0,0 +1,16 @@
+package com.naiveroboticist.interfaces;
+
+import com.naiveroboticist.sensor.Packet;
+
+/**
+ * Receives packets from a publisher, modelled on
+ * java.util.concurrent.Flow.Subscriber. Packets are shared between all
+ * subscribers, so onNext must not modify the packet or keep a reference to
+ * it after returning.
+ */
+public interface IPacketSubscriber {
+    void onSubscribe(IPacketSubscription subscription);
+    void onNext(Packet packet);
+    void onError(Throwable error);
+    void onComplete();
+}
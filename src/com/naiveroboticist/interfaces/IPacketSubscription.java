@@ -0,0 +1,19 @@
+package com.naiveroboticist.interfaces;
+
+/**
+ * A subscriber's link to a packet publisher, modelled on
+ * java.util.concurrent.Flow.Subscription.
+ */
+public interface IPacketSubscription {
+    /**
+     * Allows n more packets to be delivered. Long.MAX_VALUE means
+     * unbounded; n <= 0 is an error that cancels the subscription.
+     */
+    void request(long n);
+
+    /**
+     * Stops delivery. Packets already buffered for the subscriber are
+     * discarded.
+     */
+    void cancel();
+}
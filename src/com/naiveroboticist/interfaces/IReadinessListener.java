@@ -0,0 +1,10 @@
+package com.naiveroboticist.interfaces;
+
+/**
+ * Told by a non-blocking robot reader that bytes have arrived. Called from
+ * whatever thread the serial driver delivers events on, so it must return
+ * quickly.
+ */
+public interface IReadinessListener {
+    void readyToRead(INonBlockingRobotReader reader);
+}
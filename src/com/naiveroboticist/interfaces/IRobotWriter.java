@@ -11,4 +11,9 @@ public interface IRobotWriter {
     void sendCommand(byte command) throws IOException;
     void sendCommand(byte command, byte[] payload) throws IOException;
     void sendCommand(byte[] buffer) throws IOException;
+    /**
+     * Sends length bytes of the buffer starting at offset. The buffer may be
+     * reused by the caller as soon as this returns.
+     */
+    void sendCommand(byte[] buffer, int offset, int length) throws IOException;
 }
@@ -0,0 +1,9 @@
+package com.naiveroboticist.interfaces;
+
+/**
+ * Called once per sensor value as a packet is decoded, in stream order,
+ * with group packets expanded to their members.
+ */
+public interface ISensorValueVisitor {
+    void sensorValue(byte sensor, int value);
+}
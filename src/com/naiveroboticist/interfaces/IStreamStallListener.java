@@ -0,0 +1,13 @@
+package com.naiveroboticist.interfaces;
+
+import com.naiveroboticist.sensor.PacketReader;
+
+/**
+ * Told on the reader thread when the sensor stream goes quiet for several
+ * frame periods, and when frames arrive again.
+ */
+public interface IStreamStallListener {
+    void streamStalled(PacketReader reader, long silentNanos);
+
+    void streamResumed(PacketReader reader, long stalledNanos);
+}
@@ -0,0 +1,12 @@
+package com.naiveroboticist.interfaces;
+
+import com.naiveroboticist.sensor.WindowAggregator;
+
+/**
+ * Receives each closed window of a WindowAggregator, on the thread feeding
+ * the aggregator. The window is reused for the next one, so copy out
+ * anything to be kept (e.g. with Window.writeTo()) before returning.
+ */
+public interface IWindowListener {
+    void windowClosed(WindowAggregator.Window window);
+}
@@ -0,0 +1,99 @@
+package com.naiveroboticist.sensor;
+
+/**
+ * Numbers frames by their slot in the sensor stream, which the Create sends
+ * at a fixed period, so that slot s arrives at phase + s * period. Every
+ * read that drains the source (returns less than it asked for) has
+ * received every frame that arrived before it returned, so its last frame
+ * gives an upper bound on the phase; the phase estimate is the least of
+ * these, allowed to creep up slowly so it follows a stream whose clock
+ * runs a little slow. On each such read the newest slot that can have
+ * arrived, less the frames actually seen, is the number lost: those slots
+ * are skipped in the numbering and counted as missed, so consumers see a
+ * gap in the sequence wherever a frame was lost on the wire, rejected by
+ * the framer or dropped further down the pipeline.
+ *
+ * Reads that leave a backlog behind say nothing about losses, so frames
+ * read late, in parts, are never mistaken for missing ones. Silences
+ * longer than maxGapNanos are taken to be the stream stopping rather than
+ * lost frames: numbering carries on and the phase is measured afresh.
+ *
+ * Framing thread only.
+ */
+class FrameSequencer {
+    // Upward creep of the phase estimate per slot, as a shift of the period
+    private static final int CREEP_SHIFT = 6;
+
+    private final long mPeriodNanos;
+    private final long mMaxGapNanos;
+    private boolean mStarted;
+    private long mLastReadNanos;
+    private long mSequence;
+    // Whether mPhaseNanos holds an estimate, and the slot it was made at
+    private boolean mAnchored;
+    private long mPhaseNanos;
+    private long mPhaseSlot;
+    private long mMissedFrames;
+
+    FrameSequencer(long periodNanos, long maxGapNanos) {
+        mPeriodNanos = periodNanos;
+        mMaxGapNanos = maxGapNanos;
+        mStarted = false;
+        mLastReadNanos = 0;
+        mSequence = 0;
+        mAnchored = false;
+        mPhaseNanos = 0;
+        mPhaseSlot = 0;
+        mMissedFrames = 0;
+    }
+
+    /**
+     * Sequence number for the next frame, good or bad, taken from the read
+     * that returned at readNanos. pendingFrames is the number of complete
+     * frames from the same read still buffered behind it, and drained
+     * whether that read returned less than was asked for; both only matter
+     * for the first frame of each read.
+     */
+    long nextSequence(long readNanos, int pendingFrames, boolean drained) {
+        if (! mStarted || readNanos != mLastReadNanos) {
+            if (mStarted && readNanos - mLastReadNanos > mMaxGapNanos) {
+                mAnchored = false;
+            }
+            if (drained) {
+                checkForMissedFrames(readNanos, 1 + pendingFrames);
+            }
+            mStarted = true;
+            mLastReadNanos = readNanos;
+        }
+        return ++mSequence;
+    }
+
+    /**
+     * Frames judged missing from the stream so far.
+     */
+    long missedFrames() {
+        return mMissedFrames;
+    }
+
+    // General private methods
+
+    private void checkForMissedFrames(long readNanos, int numFrames) {
+        long lastSlot = mSequence + numFrames;
+        if (mAnchored && readNanos > mPhaseNanos) {
+            long newestSlot = (readNanos - mPhaseNanos) / mPeriodNanos;
+            if (newestSlot > lastSlot) {
+                mSequence += newestSlot - lastSlot;
+                mMissedFrames += newestSlot - lastSlot;
+                lastSlot = newestSlot;
+            }
+        }
+        long phase = readNanos - lastSlot * mPeriodNanos;
+        if (mAnchored) {
+            long creep = (lastSlot - mPhaseSlot) * (mPeriodNanos >> CREEP_SHIFT);
+            phase = Math.min(mPhaseNanos + creep, phase);
+        }
+        mPhaseNanos = phase;
+        mPhaseSlot = lastSlot;
+        mAnchored = true;
+    }
+}
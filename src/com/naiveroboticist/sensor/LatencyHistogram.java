@@ -0,0 +1,130 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of nanosecond latencies in the style of
+ * HdrHistogram: each power of two is split into 16 linear sub-buckets, so a
+ * recorded value is reported to within about 6% over the whole range of a
+ * long. Recording is a couple of atomic increments with no allocation or
+ * locking, cheap enough to leave on in production.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mMax;
+
+    public static class Snapshot {
+        private final long[] mCounts;
+        public final long count;
+        public final long max;
+        public final long p50;
+        public final long p99;
+        public final long p999;
+
+        Snapshot(long[] counts, long max) {
+            mCounts = counts;
+            long total = 0;
+            for (int i=0; i<counts.length; i++) {
+                total += counts[i];
+            }
+            this.count = total;
+            this.max = max;
+            p50 = valueAtPercentile(50.0);
+            p99 = valueAtPercentile(99.0);
+            p999 = valueAtPercentile(99.9);
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, capped
+         * at the largest value recorded, or 0 if nothing was recorded.
+         */
+        public long valueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i=0; i<mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + ", p50=" + p50
+                    + ", p99=" + p99
+                    + ", p999=" + p999
+                    + ", max=" + max;
+        }
+    }
+
+    public LatencyHistogram() {
+        mCounts = new AtomicLongArray(NUM_BUCKETS);
+        mMax = new AtomicLong();
+    }
+
+    /**
+     * Records one latency; negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos));
+        long max;
+        while (nanos > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i=0; i<NUM_BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mMax.get());
+    }
+
+    /**
+     * Clears the histogram. Values recorded while the reset is in progress
+     * may or may not survive it.
+     */
+    public void reset() {
+        for (int i=0; i<NUM_BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+
+    // Values below 16 get a bucket each; above that the top set bit picks
+    // the power of two and the next four bits the sub-bucket.
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + (bucket & SUB_BUCKET_MASK)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,134 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-slot, conflating hand-off of the newest packet from one writer to
+ * one consumer, for control loops that only want the freshest sensor state.
+ *
+ * The exchange owns three packets (a triple buffer): the writer fills its
+ * back packet from writeBuffer() and publish() swaps it with the shared
+ * middle one, and the consumer's poll() swaps the middle one for its front
+ * packet. Each side only ever touches its own packet, so the consumer never
+ * sees one being written, and both sides are a single atomic swap with no
+ * locking. A packet published over one the consumer hasn't taken yet
+ * replaces it and is counted as overwritten.
+ */
+public class LatestPacketExchange {
+    private static final int INDEX_MASK = 3;
+    // Set in mState while the middle packet hasn't been taken
+    private static final int FRESH = 4;
+
+    private final Packet[] mPackets;
+    // Index of the middle packet, plus FRESH
+    private final AtomicInteger mState;
+    private final AtomicLong mOverwritten;
+    private volatile Thread mWaiter;
+    // Writer only
+    private int mBack;
+    // Consumer only
+    private int mFront;
+    private boolean mTaken;
+
+    public LatestPacketExchange(int packetSize) {
+        mPackets = new Packet[] { new Packet(packetSize), new Packet(packetSize), new Packet(packetSize) };
+        mBack = 0;
+        mState = new AtomicInteger(1);
+        mFront = 2;
+        mOverwritten = new AtomicLong();
+        mTaken = false;
+    }
+
+    // Writer thread only
+
+    /**
+     * The packet to fill before the next publish(). It belongs to the
+     * writer until then.
+     */
+    public Packet writeBuffer() {
+        return mPackets[mBack];
+    }
+
+    /**
+     * Makes the write buffer the latest packet.
+     */
+    public void publish() {
+        int state = mState.getAndSet(mBack | FRESH);
+        mBack = state & INDEX_MASK;
+        if ((state & FRESH) != 0) {
+            mOverwritten.lazySet(mOverwritten.get() + 1);
+        }
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // Consumer thread only
+
+    /**
+     * The newest packet published since the last poll() or await(), or
+     * null if there is none. The packet stays valid until the next call.
+     */
+    public Packet poll() {
+        if ((mState.get() & FRESH) == 0) {
+            return null;
+        }
+        mFront = mState.getAndSet(mFront) & INDEX_MASK;
+        mTaken = true;
+        return mPackets[mFront];
+    }
+
+    /**
+     * As poll(), but waits up to timeoutMillis for a newer packet; null on
+     * timeout.
+     */
+    public Packet await(long timeoutMillis) throws InterruptedException {
+        Packet packet = poll();
+        if (packet != null) {
+            return packet;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        mWaiter = Thread.currentThread();
+        try {
+            // Re-check after registering so a publish in between isn't missed
+            while ((packet = poll()) == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, nanos);
+            }
+            return packet;
+        } finally {
+            mWaiter = null;
+        }
+    }
+
+    /**
+     * Packet.sequence() of the packet last returned by poll() or await(),
+     * 0 before the first. Gaps between successive values are packets that
+     * were overwritten here (see overwritten()) plus any lost before they
+     * were published.
+     */
+    public long sequence() {
+        return mTaken ? mPackets[mFront].sequence() : 0;
+    }
+
+    // Any thread
+
+    /**
+     * Number of published packets replaced before the consumer took them.
+     * Counted here rather than worked out from sequence numbers, which
+     * also skip packets lost before the exchange.
+     */
+    public long overwritten() {
+        return mOverwritten.get();
+    }
+}
@@ -0,0 +1,186 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.naiveroboticist.interfaces.IPacketListener;
+
+/**
+ * Dead reckoning from the Distance (19) and Angle (20) sensors. Each packet's
+ * distance and angle, which the robot reports as the change since the last
+ * packet, is integrated into an (x, y, heading) pose in metres and radians,
+ * with x along the starting heading and positive angles counter-clockwise.
+ *
+ * Register it as a packet listener (of a PacketReader or a ReaderHub) to
+ * run inline on the reader thread; an update decodes two values and
+ * allocates nothing. The pose is published under a SequenceLock, as in
+ * SensorValueTable, so getPose() never blocks the reader and always returns
+ * x, y and heading from the same update. reset() and rebase() may be called
+ * from any thread while the stream runs.
+ */
+public class OdometryAccumulator implements IPacketListener {
+    private static final byte DISTANCE = 19;
+    private static final byte ANGLE = 20;
+
+    // Slots of mPose; doubles are held as their raw long bits
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int HEADING = 2;
+    private static final int TIMESTAMP = 3;
+    private static final int UPDATES = 4;
+    private static final int NUM_SLOTS = 5;
+
+    private final AtomicLongArray mPose;
+    private final SequenceLock mLock;
+    // Reader thread only
+    private StreamLayout mLayout;
+    private boolean mHasOdometry;
+
+    /**
+     * A pose as of one update.
+     */
+    public static class Pose {
+        private double mX;
+        private double mY;
+        private double mHeading;
+        private long mTimestamp;
+        private long mUpdates;
+
+        public double x() {
+            return mX;
+        }
+
+        public double y() {
+            return mY;
+        }
+
+        /**
+         * Heading in radians, in (-pi, pi].
+         */
+        public double heading() {
+            return mHeading;
+        }
+
+        /**
+         * Read timestamp (System.nanoTime()) of the packet last integrated,
+         * or 0 if none had one.
+         */
+        public long timestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * Packets integrated since the accumulator was created.
+         */
+        public long updates() {
+            return mUpdates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Pose(x=%.3fm, y=%.3fm, heading=%.1fdeg)", mX, mY, Math.toDegrees(mHeading));
+        }
+    }
+
+    public OdometryAccumulator() {
+        mPose = new AtomicLongArray(NUM_SLOTS);
+        mLock = new SequenceLock();
+        reset();
+    }
+
+    @Override
+    public void packetReceived(Packet packet) {
+        try {
+            StreamLayout layout = StreamLayout.forPacket(mLayout, packet);
+            if (layout != mLayout) {
+                mLayout = layout;
+                mHasOdometry = mLayout.indexOf(DISTANCE) >= 0 && mLayout.indexOf(ANGLE) >= 0;
+            }
+            if (mHasOdometry) {
+                integrate(packet.getSensorValue(mLayout, DISTANCE), packet.getSensorValue(mLayout, ANGLE),
+                        packet.timestamp());
+            }
+        } catch (InvalidPacketError e) {
+            // Not a stream packet we can use
+        }
+    }
+
+    /**
+     * Moves the pose by distanceMillis along the heading while turning
+     * angleDegrees. The arc is approximated by a straight move at the
+     * heading half way through the turn.
+     */
+    public void integrate(int distanceMillis, int angleDegrees, long timestampNanos) {
+        double distance = SensorSchema.toUnits(DISTANCE, distanceMillis);
+        double angle = Math.toRadians(SensorSchema.toUnits(ANGLE, angleDegrees));
+        mLock.beginWrite();
+        try {
+            double heading = getDouble(HEADING);
+            double midHeading = heading + angle / 2;
+            putDouble(X, getDouble(X) + distance * Math.cos(midHeading));
+            putDouble(Y, getDouble(Y) + distance * Math.sin(midHeading));
+            putDouble(HEADING, normalize(heading + angle));
+            mPose.lazySet(TIMESTAMP, timestampNanos);
+            mPose.lazySet(UPDATES, mPose.get(UPDATES) + 1);
+        } finally {
+            mLock.endWrite();
+        }
+    }
+
+    /**
+     * Back to the origin, facing along x.
+     */
+    public void reset() {
+        rebase(0, 0, 0);
+    }
+
+    /**
+     * Moves the pose to (x, y, heading), e.g. after a position fix; later
+     * packets integrate from there.
+     */
+    public void rebase(double x, double y, double heading) {
+        mLock.beginWrite();
+        try {
+            putDouble(X, x);
+            putDouble(Y, y);
+            putDouble(HEADING, normalize(heading));
+        } finally {
+            mLock.endWrite();
+        }
+    }
+
+    public Pose getPose() {
+        return getPose(new Pose());
+    }
+
+    /**
+     * Reads the latest pose into pose, which is returned, so a caller
+     * polling the pose can reuse one instance.
+     */
+    public Pose getPose(Pose pose) {
+        long sequence;
+        do {
+            sequence = mLock.beginRead();
+            pose.mX = getDouble(X);
+            pose.mY = getDouble(Y);
+            pose.mHeading = getDouble(HEADING);
+            pose.mTimestamp = mPose.get(TIMESTAMP);
+            pose.mUpdates = mPose.get(UPDATES);
+        } while (! mLock.endRead(sequence));
+        return pose;
+    }
+
+    // General private methods
+
+    private double getDouble(int slot) {
+        return Double.longBitsToDouble(mPose.get(slot));
+    }
+
+    private void putDouble(int slot, double value) {
+        mPose.lazySet(slot, Double.doubleToRawLongBits(value));
+    }
+
+    private static double normalize(double heading) {
+        double normalized = Math.IEEEremainder(heading, 2 * Math.PI);
+        return normalized == -Math.PI ? Math.PI : normalized;
+    }
+}
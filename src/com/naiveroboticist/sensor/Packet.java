@@ -1,79 +1,156 @@
 package com.naiveroboticist.sensor;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.naiveroboticist.utils.ByteScan;
+
 public class Packet {
     private static final int LEN_IDX = 1;
     private static final byte PACKET_START = 0x13;
 
-    private static final int[] PACKET_PAYLOAD_SIZES = {
-        0, 0, 0, 0, 0, 0, 0, // Not used
-        1, // * Bumps and Wheel Drops -  7 - 1 byte
-        1, // * Wall                     8 - 1 byte
-        1, // * Cliff Left               9 - 1 byte
-        1, // * Cliff Front Left        10 - 1 byte
-        1, // * Cliff Front Right       11 - 1 byte
-        1, // * Cliff Right             12 - 1 byte
-        1, // * Virtual Wall            13 - 1 byte
-        1, // * Low Side Driver UnderC  14 - 1 byte
-        1, // * Unused bytes            15 - 1 byte
-        1, // * Unused bytes            16 - 1 byte
-        1, // * Infrared byte           17 - 1 byte
-        1, // * Buttons                 18 - 1 byte
-        2, // * Distance                19 - 2 bytes (signed)
-        2, // * Angle                   20 - 2 bytes (signed)
-        1, // * Charging State          21 - 1 byte
-        2, // * Voltage                 22 - 2 bytes 
-        2, // * Current                 23 - 2 bytes
-        1, // * Battery Temperature     24 - 1 byte (signed)
-        2, // * Battery Charge          25   2 bytes
-        2, // * Battery Capacity        26 - 2 bytes
-        2, // * Wall Signal             27 - 2 bytes
-        2, // * Cliff Left Signal       28 - 2 bytes
-        2, // * Cliff Left Front Signal 29 - 2 bytes
-        2, // * Cliff Front Right Sign  30 - 2 bytes
-        2, // * Cliff Right Signal      31 - 2 bytes
-        1, // * Cargo Bay Digital Input 32 - 1 byte
-        2, // * Cargo Bay Analog Signal 33 - 2 bytes
-        1, // * Charging Sources Avail  34 - 1 byte
-        1, // * OI Mode                 35 - 1 byte
-        1, // * Song Number             36 - 1 byte
-        1, // * Song Playing            37 - 1 byte
-        1, // * Number of Stream Pkts   38 - 1 byte
-        2, // * Requested Velocity      39 - 2 bytes (signed)
-        2, // * Requested Radius        40 - 2 bytes (signed)
-        2, // * Requested Right Velo    41 - 2 bytes (signed)
-        2 // * Requested Left Velo     42 - 2 bytes (signed)
-    };
+    private static final AtomicIntegerFieldUpdater<Packet> REF_COUNT = 
+            AtomicIntegerFieldUpdater.newUpdater(Packet.class, "mRefCount");
 
     private byte[] mPacketBuffer;
+    // Word-at-a-time view of mPacketBuffer for ByteScan
+    private ByteBuffer mView;
     private int mCurrentPosition;
-
+    private long mSequence;
+    private long mTimestamp;
+    private long mFramedTimestamp;
+    private long mDequeuedTimestamp;
+    // Holders of a packet shared by a PacketPublisher
+    private volatile int mRefCount;
+    
     public Packet(int initialSize) {
         mPacketBuffer = new byte[initialSize];
+        mView = ByteBuffer.wrap(mPacketBuffer).order(ByteOrder.nativeOrder());
         mCurrentPosition = 0;
     }
     
     public void clear() {
         mCurrentPosition = 0;
+        mSequence = 0;
+        mTimestamp = 0;
+        mFramedTimestamp = 0;
+        mDequeuedTimestamp = 0;
+    }
+    
+    /**
+     * The packet's slot in the sensor stream, counting from 1, or 0 if
+     * unknown. Consecutive packets from a reader differ by 1; a larger
+     * step means packets in between were lost or dropped.
+     */
+    public long sequence() {
+        return mSequence;
+    }
+    
+    public void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+    
+    /**
+     * System.nanoTime() at which the read that completed this packet
+     * returned, or 0 if unknown.
+     */
+    public long timestamp() {
+        return mTimestamp;
+    }
+    
+    public void setTimestamp(long timestampNanos) {
+        mTimestamp = timestampNanos;
+    }
+    
+    /**
+     * System.nanoTime() at which the reader finished framing this packet,
+     * or 0 if unknown.
+     */
+    public long framedTimestamp() {
+        return mFramedTimestamp;
+    }
+    
+    public void setFramedTimestamp(long timestampNanos) {
+        mFramedTimestamp = timestampNanos;
+    }
+    
+    /**
+     * System.nanoTime() at which this packet was taken off the reader's
+     * queue, or 0 if unknown.
+     */
+    public long dequeuedTimestamp() {
+        return mDequeuedTimestamp;
+    }
+    
+    public void setDequeuedTimestamp(long timestampNanos) {
+        mDequeuedTimestamp = timestampNanos;
+    }
+    
+    void retain() {
+        REF_COUNT.incrementAndGet(this);
+    }
+    
+    /**
+     * Drops one reference; true if that was the last one.
+     */
+    boolean release() {
+        return REF_COUNT.decrementAndGet(this) == 0;
     }
     
     public int position() {
         return mCurrentPosition;
     }
     
+    /**
+     * Size of the packet's buffer, the longest frame it can hold.
+     */
+    public int capacity() {
+        return mPacketBuffer.length;
+    }
+    
     public void put(byte b) {
         mPacketBuffer[mCurrentPosition++] = b;
     }
     
     public void put(byte[] buffer, int start, int numBytes) {
-        for (int i=start; i<numBytes; i++) {
-            put(buffer[i]);
-        }
+        System.arraycopy(buffer, start, mPacketBuffer, mCurrentPosition, numBytes);
+        mCurrentPosition += numBytes;
     }
     
     public byte get(int index) {
         return mPacketBuffer[index];
     }
     
+    /**
+     * Replaces the packet's bytes, sequence number and timestamps with
+     * those of another.
+     */
+    public void copyFrom(Packet other) {
+        System.arraycopy(other.mPacketBuffer, 0, mPacketBuffer, 0, other.mCurrentPosition);
+        mCurrentPosition = other.mCurrentPosition;
+        mSequence = other.mSequence;
+        mTimestamp = other.mTimestamp;
+        mFramedTimestamp = other.mFramedTimestamp;
+        mDequeuedTimestamp = other.mDequeuedTimestamp;
+    }
+    
+    /**
+     * Copies the bytes read so far into the buffer at its position.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(mPacketBuffer, 0, mCurrentPosition);
+    }
+    
+    /**
+     * Replaces the packet's contents with length bytes from the buffer's
+     * position.
+     */
+    public void readFrom(ByteBuffer buffer, int length) {
+        buffer.get(mPacketBuffer, 0, length);
+        mCurrentPosition = length;
+    }
+    
     public boolean isEmpty() {
         return mCurrentPosition == 0;
     }
@@ -90,19 +167,13 @@ public class Packet {
         if (! isLengthByteRead()) {
             throw new InvalidPacketError("Length byte has not yet been read");
         }
-        return mPacketBuffer[LEN_IDX];
+        return mPacketBuffer[LEN_IDX] & 0xff;
     }
     
     public boolean validChecksum() throws InvalidPacketError {
-        byte sum = 0;
-        
         int packetLength = packetLength() + 3;
         
-        for (int i=0; i<packetLength; i++) {
-            sum += get(i);
-        }
-
-        return (byte)(sum & (byte) 0xff) == 0;
+        return ByteScan.sum(mView, 0, packetLength) == 0;
     }
     
     public String formatPacketBuffer() throws InvalidPacketError {
@@ -119,24 +190,33 @@ public class Packet {
 
 
     public int getSensorValue(byte sensor) throws InvalidPacketError {
-        int lastIndex = mPacketBuffer[LEN_IDX] + 2;
+        int lastIndex = (mPacketBuffer[LEN_IDX] & 0xff) + 2;
         int value = 0;
         int index = LEN_IDX + 1;
         while (index < lastIndex) {
             // Value at index is the sensor
             byte currentSensor = mPacketBuffer[index++];
-            if (currentSensor < 0 || currentSensor >= PACKET_PAYLOAD_SIZES.length) {
+            int numBytes = SensorSchema.width(currentSensor);
+            if (numBytes == 0) {
                 throw new InvalidPacketError("Invalid sensor value: " + currentSensor + ": Packet position = " + index + " Last Index = " + lastIndex);
             }
-            int numBytes = PACKET_PAYLOAD_SIZES[currentSensor];
-            if (numBytes == 1) {
-                value = mPacketBuffer[index++];
-            } else if (numBytes == 2) {
-                value = (mPacketBuffer[index++] << 8) | mPacketBuffer[index++];
-            } else {
-                throw new InvalidPacketError("Invalid payload size: " + numBytes);
+            byte[] members = SensorSchema.members(currentSensor);
+            if (members == null) {
+                value = SensorSchema.decode(currentSensor, mPacketBuffer, index);
+                index += numBytes;
+                if (currentSensor == sensor) {
+                    break;
+                }
+                continue;
             }
-            if (currentSensor == sensor) {
+            // Expand the group's values in member order
+            boolean found = false;
+            for (int i=0; i<members.length && ! found; i++) {
+                value = SensorSchema.decode(members[i], mPacketBuffer, index);
+                index += SensorSchema.width(members[i]);
+                found = members[i] == sensor;
+            }
+            if (found) {
                 break;
             }
         }
@@ -144,8 +224,31 @@ public class Packet {
         return value;
     }
     
+    /**
+     * Constant time lookup of a sensor value using a precompiled layout.
+     */
+    public int getSensorValue(StreamLayout layout, byte sensor) throws InvalidPacketError {
+        return layout.valueOf(mPacketBuffer, 0, sensor);
+    }
+    
+    /**
+     * Single pass decode of every sensor in the layout into values, in
+     * layout order. Returns the number of values written.
+     */
+    public int getSensorValues(StreamLayout layout, int[] values) {
+        return layout.decode(mPacketBuffer, 0, values);
+    }
+    
     public Packet nextPacket() throws InvalidPacketError {
-        Packet pkt = new Packet(mPacketBuffer.length);
+        return nextPacket(new Packet(mPacketBuffer.length));
+    }
+    
+    /**
+     * Same as nextPacket() but fills the supplied (typically recycled)
+     * packet rather than allocating a new one.
+     */
+    public Packet nextPacket(Packet pkt) throws InvalidPacketError {
+        pkt.clear();
         
         int fullPacketLength = packetLength() + 3;
         
@@ -153,20 +256,22 @@ public class Packet {
         if (mCurrentPosition >= fullPacketLength && mPacketBuffer[fullPacketLength] == PACKET_START) {
             // Copy the remainder of the packet buffer to the next packet.
             // Don't want to miss any goodies.
-            pkt.put(mPacketBuffer, fullPacketLength, mCurrentPosition);
+            pkt.put(mPacketBuffer, fullPacketLength, mCurrentPosition - fullPacketLength);
         }        
         
         return pkt;
     }
     
     public static byte calculateChecksum(byte[] buffer, int start, int count) {
-        byte sum = 0;
-        
-        for (int i=0; i<count; i++) {
-            sum += buffer[start + i];
-        }
-        
-        return (byte)(-sum & 0xff);
+        return (byte)(-ByteScan.sum(buffer, start, count) & 0xff);
+    }
+    
+    /**
+     * Same as calculateChecksum(byte[], ...) for a (typically cached) view
+     * of the bytes, which never allocates.
+     */
+    public static byte calculateChecksum(ByteBuffer view, int start, int count) {
+        return (byte)(-ByteScan.sum(view, start, count) & 0xff);
     }
 
 
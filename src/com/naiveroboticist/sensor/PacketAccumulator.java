@@ -1,81 +1,260 @@
 package com.naiveroboticist.sensor;
 
-import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 
-public class PacketAccumulator implements Runnable {
+import com.naiveroboticist.interfaces.IPacketListener;
+
+public class PacketAccumulator implements Runnable, IPacketListener {
+    private static final int BATCH_SIZE = 16;
+    private static final long WAIT_MILLIS = 100;
+    private static final int DEFAULT_FILTER_WINDOW = 8;
+    // Longer gaps are only counted; guessing across them does more harm
+    private static final int MAX_INTERPOLATED_INTERVALS = 8;
+
+    /**
+     * Sum and Value keep a running total or the latest value. The others
+     * filter the sensor over its last filter window samples: the mean, an
+     * exponential moving average (alpha = 1 / window), the minimum, the
+     * maximum, the median, or the rate of change in units per second
+     * (units per sample if packets aren't timestamped).
+     */
     public enum AccumulatorType {
-        Sum, Value
+        Sum, Value, MovingAverage, Ema, Min, Max, Median, RateOfChange
+    }
+    
+    /**
+     * What to do about packets missing from the stream, as shown by gaps
+     * in packet sequence numbers. Flag just counts the missed intervals
+     * (see missedIntervals()). Interpolate also adds each Sum sensor's
+     * value once more per missed interval, for gaps of up to 8 intervals,
+     * on the basis that e.g. the robot kept moving during the gap as it
+     * did just after it. Flag is the default: gaps in the stream are
+     * estimated from read timing, so a gap can occasionally be reported
+     * for frames that weren't lost, and Interpolate would then over-count.
+     * With a conflating reader, packets overwritten before they were taken
+     * show up as gaps too.
+     */
+    public enum GapPolicy {
+        Flag, Interpolate
     }
     
     private PacketReader mPacketReader; 
-    private Map<Byte,Integer> mAccumulatedValues;
-    private Map<Byte,AccumulatorType> mAccumulation;
-    private boolean mContinueAccumulating = true;
+    private SensorValueTable mAccumulatedValues;
+    private byte[] mSensors;
+    private AccumulatorType[] mTypes;
+    private SensorFilter[] mFilters;
+    private StreamLayout mLayout;
+    private int[] mLayoutIndexes;
+    private int[] mValues;
+    private volatile GapPolicy mGapPolicy;
+    private long mLastSequence;
+    private volatile long mMissedIntervals;
+    private volatile long mLastPacketTimestamp;
+    private volatile boolean mContinueAccumulating = true;
+
+    /**
+     * An accumulator fed directly as a packet listener (e.g. by a
+     * ReaderHub) rather than by running it against a PacketReader.
+     */
+    public PacketAccumulator(Map<Byte,AccumulatorType> accumulation) {
+        this(null, accumulation);
+    }
 
     public PacketAccumulator(PacketReader packetReader, Map<Byte,AccumulatorType> accumulation) {
+        this(packetReader, accumulation, DEFAULT_FILTER_WINDOW);
+    }
+
+    /**
+     * @param filterWindow samples each filtering accumulator looks back over
+     */
+    public PacketAccumulator(PacketReader packetReader, Map<Byte,AccumulatorType> accumulation, int filterWindow) {
         mPacketReader = packetReader;
-        mAccumulation = accumulation;
-        mAccumulatedValues = new TreeMap<Byte,Integer>();
+        mAccumulatedValues = new SensorValueTable();
+        mSensors = new byte[accumulation.size()];
+        mTypes = new AccumulatorType[accumulation.size()];
+        mFilters = new SensorFilter[accumulation.size()];
+        int i = 0;
+        for (Map.Entry<Byte,AccumulatorType> entry : accumulation.entrySet()) {
+            mSensors[i] = entry.getKey().byteValue();
+            mTypes[i] = entry.getValue();
+            if (SensorFilter.isFilter(mTypes[i])) {
+                mFilters[i] = new SensorFilter(mTypes[i], filterWindow);
+            }
+            i++;
+        }
+        mGapPolicy = GapPolicy.Flag;
+        mLastSequence = 0;
+        mMissedIntervals = 0;
         mContinueAccumulating = true;
     }
 
     @Override
     public void run() {
-        while (mContinueAccumulating) {
-            if (mPacketReader.numPackets() > 0) {
-                performAccumulation(mPacketReader.removePacket());
+        Packet[] batch = new Packet[BATCH_SIZE];
+        try {
+            while (mContinueAccumulating && ! Thread.currentThread().isInterrupted()) {
+                if (mPacketReader.isConflating()) {
+                    accumulateLatest();
+                    continue;
+                }
+                // Park until the reader hands something over rather than
+                // polling the queue.
+                int count = mPacketReader.drainPackets(batch, WAIT_MILLIS);
+                PacketLatency latency = mPacketReader.getLatency();
+                for (int i=0; i<count; i++) {
+                    performAccumulation(batch[i]);
+                    latency.accumulated(batch[i], System.nanoTime());
+                    mPacketReader.releasePacket(batch[i]);
+                    batch[i] = null;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     
-    // Synchronized api to continue accumulator
-    public synchronized void stopAccumulating() {
+    /**
+     * Asks run() to return after the current batch; interrupting the
+     * accumulating thread stops it at once.
+     */
+    public void stopAccumulating() {
         mContinueAccumulating = false;
     }
     
-    // Synchronized api for accumulators
+    // Lock-free api for accumulators. Readers never block the
+    // accumulating thread.
     
-    public synchronized void incrementSensorValue(Byte sensor, int additionalValue) {
-        int currentValue = 0;
-        if (mAccumulatedValues.containsKey(sensor)) {
-            currentValue = mAccumulatedValues.get(sensor).intValue();
-        }
-        mAccumulatedValues.put(sensor, new Integer(currentValue + additionalValue));
+    public void incrementSensorValue(byte sensor, int additionalValue) {
+        mAccumulatedValues.beginWrite();
+        mAccumulatedValues.add(sensor, additionalValue);
+        mAccumulatedValues.endWrite();
     }
     
-    public synchronized void setSensorValue(Byte sensor, int newValue) {
-        mAccumulatedValues.put(sensor, new Integer(newValue));
+    public void setSensorValue(byte sensor, int newValue) {
+        mAccumulatedValues.beginWrite();
+        mAccumulatedValues.set(sensor, newValue);
+        mAccumulatedValues.endWrite();
     }
     
-    public synchronized int getSensorValue(Byte sensor) {
-        int currentValue = 0;
-        if (mAccumulatedValues.containsKey(sensor)) {
-            currentValue = mAccumulatedValues.get(sensor).intValue(); 
-        }
-        return currentValue;
+    public int getSensorValue(byte sensor) {
+        return mAccumulatedValues.get(sensor);
+    }
+    
+    /**
+     * Consistent read of several sensors, e.g. distance and angle, such
+     * that all values were accumulated from the same packet. Returns the
+     * number of values read.
+     */
+    public int getSensorValues(byte[] sensors, int[] values) {
+        return mAccumulatedValues.snapshot(sensors, values);
+    }
+    
+    public void setGapPolicy(GapPolicy policy) {
+        mGapPolicy = policy;
+    }
+    
+    /**
+     * Number of stream intervals whose packets never reached this
+     * accumulator, whether lost on the wire, rejected by the framer or
+     * dropped by the queue. Sum values have under-counted over these
+     * unless the gap policy is Interpolate.
+     */
+    public long missedIntervals() {
+        return mMissedIntervals;
+    }
+    
+    /**
+     * Read timestamp (System.nanoTime()) of the latest packet accumulated,
+     * or 0 if none had one. The age of the current values is
+     * System.nanoTime() minus this.
+     */
+    public long lastPacketTimestamp() {
+        return mLastPacketTimestamp;
+    }
+    
+    @Override
+    public void packetReceived(Packet packet) {
+        performAccumulation(packet);
     }
     
     public void performAccumulation(Packet packet) {
-        Iterator<Byte> it = mAccumulation.keySet().iterator();
-        while (it.hasNext()) {
-            Byte sensor = it.next();
-            try {
-                int value = packet.getSensorValue(sensor.byteValue());
-                AccumulatorType at = mAccumulation.get(sensor);
-                switch (at) {
+        try {
+            StreamLayout layout = StreamLayout.forPacket(mLayout, packet);
+            if (layout != mLayout) {
+                compileLayout(layout);
+            }
+        } catch (InvalidPacketError e) {
+            // Really should do something with this...
+            return;
+        }
+        
+        // Sums stand in for the missed packets too when interpolating
+        int repeats = 1;
+        int missed = missedIntervals(packet);
+        if (missed > 0 && missed <= MAX_INTERPOLATED_INTERVALS && mGapPolicy == GapPolicy.Interpolate) {
+            repeats += missed;
+        }
+        
+        // Decode the whole packet once, then apply each accumulator as
+        // one write so readers see the packet's values together.
+        packet.getSensorValues(mLayout, mValues);
+        mAccumulatedValues.beginWrite();
+        try {
+            for (int i=0; i<mSensors.length; i++) {
+                int index = mLayoutIndexes[i];
+                if (index < 0) {
+                    continue; // Sensor isn't in this stream
+                }
+                switch (mTypes[i]) {
                 case Sum: // Sum up the values
-                    incrementSensorValue(sensor, value);
+                    mAccumulatedValues.add(mSensors[i], mValues[index] * repeats);
                     break;
                 case Value: // Just set the value
-                    setSensorValue(sensor, value);
+                    mAccumulatedValues.set(mSensors[i], mValues[index]);
+                    break;
+                default: // Filtered
+                    mAccumulatedValues.set(mSensors[i], mFilters[i].update(mValues[index], packet.timestamp()));
                     break;
                 }
-            } catch (InvalidPacketError e) {
-                // Really should do something with this...
             }
+        } finally {
+            mAccumulatedValues.endWrite();
         }
+        mLastPacketTimestamp = packet.timestamp();
+    }
+    
+    // A conflating reader only hands over its newest packet, which stays
+    // the exchange's and isn't released
+    private void accumulateLatest() throws InterruptedException {
+        Packet packet = mPacketReader.awaitLatest(WAIT_MILLIS);
+        if (packet != null) {
+            performAccumulation(packet);
+            mPacketReader.getLatency().accumulated(packet, System.nanoTime());
+        }
+    }
+
+    // Packets without a sequence number (0) can't show a gap. A number
+    // going backwards means a new stream, so it just restarts the count.
+    private int missedIntervals(Packet packet) {
+        long sequence = packet.sequence();
+        if (sequence == 0) {
+            return 0;
+        }
+        long missed = mLastSequence != 0 ? sequence - mLastSequence - 1 : 0;
+        mLastSequence = sequence;
+        if (missed <= 0) {
+            return 0;
+        }
+        mMissedIntervals += missed;
+        return (int) Math.min(missed, Integer.MAX_VALUE);
+    }
+    
+    // The stream layout only changes if the STREAM request does, so this
+    // runs once per session in practice.
+    private void compileLayout(StreamLayout layout) {
+        mLayout = layout;
+        mValues = new int[layout.numSensors()];
+        mLayoutIndexes = layout.indexesOf(mSensors);
     }
 
 }
@@ -0,0 +1,189 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, blocking hand-off of packets from the reader thread to a
+ * consumer. When the consumer falls behind the configured back-pressure
+ * policy decides whether the producer waits or which packet is discarded.
+ */
+public class PacketChannel {
+    public enum BackPressurePolicy {
+        Block, DropOldest, DropNewest
+    }
+
+    private final Packet[] mPackets;
+    private final BackPressurePolicy mPolicy;
+    private final ReentrantLock mLock;
+    private final Condition mNotEmpty;
+    private final Condition mNotFull;
+    private int mHead;
+    private int mCount;
+    private long mDropped;
+
+    public PacketChannel(int capacity, BackPressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mPackets = new Packet[capacity];
+        mPolicy = policy;
+        mLock = new ReentrantLock();
+        mNotEmpty = mLock.newCondition();
+        mNotFull = mLock.newCondition();
+        mHead = 0;
+        mCount = 0;
+        mDropped = 0;
+    }
+
+    public int capacity() {
+        return mPackets.length;
+    }
+
+    public BackPressurePolicy policy() {
+        return mPolicy;
+    }
+
+    /**
+     * Offers a packet to the channel. Returns null if the packet was queued
+     * without loss, otherwise the packet that was discarded to honor the
+     * policy (the oldest queued packet, or the offered one itself). With the
+     * Block policy the offered packet is returned if no room was made within
+     * the timeout.
+     */
+    public Packet offer(Packet packet, long timeoutMillis) throws InterruptedException {
+        Packet discarded = null;
+        mLock.lockInterruptibly();
+        try {
+            if (mCount == mPackets.length) {
+                switch (mPolicy) {
+                case Block:
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                    while (mCount == mPackets.length) {
+                        if (nanos <= 0) {
+                            return packet;
+                        }
+                        nanos = mNotFull.awaitNanos(nanos);
+                    }
+                    break;
+                case DropOldest:
+                    discarded = dequeue();
+                    mDropped++;
+                    break;
+                case DropNewest:
+                    mDropped++;
+                    return packet;
+                }
+            }
+            enqueue(packet);
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+        return discarded;
+    }
+
+    /**
+     * Non-blocking removal; null if the channel is empty.
+     */
+    public Packet poll() {
+        mLock.lock();
+        try {
+            if (mCount == 0) {
+                return null;
+            }
+            Packet packet = dequeue();
+            mNotFull.signal();
+            return packet;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMillis for a packet; null on timeout.
+     */
+    public Packet take(long timeoutMillis) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            Packet packet = dequeue();
+            mNotFull.signal();
+            return packet;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMillis for at least one packet, then moves as many
+     * queued packets as fit into batch. Returns the number moved.
+     */
+    public int drainTo(Packet[] batch, long timeoutMillis) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            int count = 0;
+            while (mCount > 0 && count < batch.length) {
+                batch[count++] = dequeue();
+            }
+            mNotFull.signalAll();
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long dropped() {
+        mLock.lock();
+        try {
+            return mDropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // General private methods; callers hold the lock
+
+    private void enqueue(Packet packet) {
+        int tail = mHead + mCount;
+        if (tail >= mPackets.length) {
+            tail -= mPackets.length;
+        }
+        mPackets[tail] = packet;
+        mCount++;
+    }
+
+    private Packet dequeue() {
+        Packet packet = mPackets[mHead];
+        mPackets[mHead] = null;
+        mHead++;
+        if (mHead == mPackets.length) {
+            mHead = 0;
+        }
+        mCount--;
+        return packet;
+    }
+}
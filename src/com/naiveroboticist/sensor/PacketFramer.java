@@ -0,0 +1,191 @@
+package com.naiveroboticist.sensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.naiveroboticist.utils.ByteScan;
+
+/**
+ * Incremental framer for the Create's sensor stream. Read chunks of any size
+ * are appended to a circular buffer with consume(); nextFrame() then hands
+ * out each complete, checksum-valid frame in turn. Frames split across reads
+ * or several frames in one read are handled without re-scanning, and after a
+ * bad frame the framer resyncs on the next START byte instead of dropping
+ * everything it has buffered.
+ */
+public class PacketFramer {
+    public enum FrameStatus {
+        Frame, NeedMore, BadLength, BadChecksum
+    }
+
+    private static final byte PACKET_START = 0x13;
+    private static final int LEN_IDX = 1;
+    // START, LENGTH and CHECKSUM bytes around the payload
+    private static final int FRAME_OVERHEAD = 3;
+    static final int MAX_FRAME_LENGTH = 255 + FRAME_OVERHEAD;
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final byte[] mRing;
+    // Word-at-a-time view of mRing for ByteScan
+    private final ByteBuffer mRingView;
+    private final int mMask;
+    private final int mExpectedLength;
+    private long mHead;
+    private long mTail;
+    private int mFrameLength;
+    private long mSkippedBytes;
+
+    public PacketFramer() {
+        this(0);
+    }
+
+    /**
+     * @param expectedLength the LENGTH byte every frame must carry, or 0 to
+     *        accept any non-zero length
+     */
+    public PacketFramer(int expectedLength) {
+        this(DEFAULT_CAPACITY, expectedLength);
+    }
+
+    public PacketFramer(int capacity, int expectedLength) {
+        if (capacity < 2 * MAX_FRAME_LENGTH) {
+            capacity = 2 * MAX_FRAME_LENGTH;
+        }
+        // Round up to a power of two so positions can be masked
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mRing = new byte[size];
+        mRingView = ByteBuffer.wrap(mRing).order(ByteOrder.nativeOrder());
+        mMask = size - 1;
+        mExpectedLength = expectedLength;
+        mHead = 0;
+        mTail = 0;
+        mFrameLength = 0;
+        mSkippedBytes = 0;
+    }
+
+    public void clear() {
+        mHead = mTail;
+        mFrameLength = 0;
+    }
+
+    public int available() {
+        return (int) (mTail - mHead);
+    }
+
+    public int capacity() {
+        return mRing.length;
+    }
+
+    /**
+     * Total number of bytes discarded while looking for a frame start or
+     * resyncing after a bad frame.
+     */
+    public long skippedBytes() {
+        return mSkippedBytes;
+    }
+
+    /**
+     * Appends as much of the buffer as fits. Returns the number of bytes
+     * taken; draining frames with nextFrame() always makes room for at
+     * least one full read.
+     */
+    public int consume(byte[] buffer, int offset, int numBytes) {
+        int count = Math.min(numBytes, mRing.length - available());
+        int tail = (int) (mTail & mMask);
+        int firstPart = Math.min(count, mRing.length - tail);
+        System.arraycopy(buffer, offset, mRing, tail, firstPart);
+        System.arraycopy(buffer, offset + firstPart, mRing, 0, count - firstPart);
+        mTail += count;
+        return count;
+    }
+
+    /**
+     * Looks for the next frame. On Frame the frame is copied to packet and
+     * consumed. On BadChecksum the rejected frame is copied to packet (for
+     * diagnostics) and the framer resyncs past its START byte; BadLength
+     * likewise skips the START byte. NeedMore means no further frame can be
+     * found until more bytes are consumed.
+     */
+    public FrameStatus nextFrame(Packet packet) {
+        FrameStatus status = scan();
+        if (status == FrameStatus.Frame || status == FrameStatus.BadChecksum) {
+            packet.clear();
+            int head = (int) (mHead & mMask);
+            int firstPart = Math.min(mFrameLength, mRing.length - head);
+            packet.put(mRing, head, firstPart);
+            packet.put(mRing, 0, mFrameLength - firstPart);
+            advance(status);
+        }
+        return status;
+    }
+
+    /**
+     * As nextFrame(Packet), but the frame is written to the buffer from
+     * position 0, leaving the position just after the frame.
+     */
+    public FrameStatus nextFrame(ByteBuffer buffer) {
+        FrameStatus status = scan();
+        if (status == FrameStatus.Frame || status == FrameStatus.BadChecksum) {
+            buffer.clear();
+            int head = (int) (mHead & mMask);
+            int firstPart = Math.min(mFrameLength, mRing.length - head);
+            buffer.put(mRing, head, firstPart);
+            buffer.put(mRing, 0, mFrameLength - firstPart);
+            advance(status);
+        }
+        return status;
+    }
+
+    // General private methods
+
+    private FrameStatus scan() {
+        // Skip to the next START byte, a contiguous stretch of the ring at
+        // a time
+        while (mHead < mTail) {
+            int head = (int) (mHead & mMask);
+            int end = head + (int) Math.min(mTail - mHead, mRing.length - head);
+            int start = ByteScan.indexOf(mRingView, head, end, PACKET_START);
+            int skipped = (start < 0 ? end : start) - head;
+            mHead += skipped;
+            mSkippedBytes += skipped;
+            if (start >= 0) {
+                break;
+            }
+        }
+
+        if (available() <= LEN_IDX) {
+            return FrameStatus.NeedMore;
+        }
+
+        int len = at(LEN_IDX) & 0xff;
+        if (len == 0 || (mExpectedLength > 0 && len != mExpectedLength)) {
+            mHead++;
+            mSkippedBytes++;
+            return FrameStatus.BadLength;
+        }
+
+        mFrameLength = len + FRAME_OVERHEAD;
+        if (available() < mFrameLength) {
+            return FrameStatus.NeedMore;
+        }
+
+        int head = (int) (mHead & mMask);
+        int firstPart = Math.min(mFrameLength, mRing.length - head);
+        int sum = ByteScan.sum(mRingView, head, firstPart) + ByteScan.sum(mRingView, 0, mFrameLength - firstPart);
+        return (sum & 0xff) == 0 ? FrameStatus.Frame : FrameStatus.BadChecksum;
+    }
+
+    private void advance(FrameStatus status) {
+        if (status == FrameStatus.Frame) {
+            mHead += mFrameLength;
+        } else {
+            // Resync from the byte after the bad frame's START
+            mHead++;
+            mSkippedBytes++;
+        }
+    }
+
+    private byte at(int offset) {
+        return mRing[(int) ((mHead + offset) & mMask)];
+    }
+}
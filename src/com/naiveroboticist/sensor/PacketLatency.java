@@ -0,0 +1,95 @@
+package com.naiveroboticist.sensor;
+
+/**
+ * Latency of packets through the pipeline, from the read() that completed
+ * them to the accumulator applying them, broken down by stage:
+ *
+ *   read -> framed -> dequeued -> accumulated
+ *
+ * Each stage timestamp is stamped on the packet as it passes, so the only
+ * per-packet cost is a System.nanoTime() and a histogram update per stage.
+ */
+public class PacketLatency {
+    private final LatencyHistogram mReadToFramed = new LatencyHistogram();
+    private final LatencyHistogram mFramedToDequeued = new LatencyHistogram();
+    private final LatencyHistogram mDequeuedToAccumulated = new LatencyHistogram();
+    private final LatencyHistogram mReadToAccumulated = new LatencyHistogram();
+    private volatile boolean mEnabled = true;
+
+    public static class Snapshot {
+        public final LatencyHistogram.Snapshot readToFramed;
+        public final LatencyHistogram.Snapshot framedToDequeued;
+        public final LatencyHistogram.Snapshot dequeuedToAccumulated;
+        public final LatencyHistogram.Snapshot readToAccumulated;
+
+        Snapshot(PacketLatency latency) {
+            readToFramed = latency.mReadToFramed.snapshot();
+            framedToDequeued = latency.mFramedToDequeued.snapshot();
+            dequeuedToAccumulated = latency.mDequeuedToAccumulated.snapshot();
+            readToAccumulated = latency.mReadToAccumulated.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return "readToFramed: " + readToFramed
+                    + "\nframedToDequeued: " + framedToDequeued
+                    + "\ndequeuedToAccumulated: " + dequeuedToAccumulated
+                    + "\nreadToAccumulated: " + readToAccumulated;
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public void reset() {
+        mReadToFramed.reset();
+        mFramedToDequeued.reset();
+        mDequeuedToAccumulated.reset();
+        mReadToAccumulated.reset();
+    }
+
+    // Stage updates. Packets without the previous stage's timestamp (e.g.
+    // ones added by hand) aren't recorded.
+
+    void framed(Packet packet) {
+        if (! mEnabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        packet.setFramedTimestamp(now);
+        if (packet.timestamp() != 0) {
+            mReadToFramed.record(now - packet.timestamp());
+        }
+    }
+
+    void dequeued(Packet packet, long now) {
+        if (! mEnabled) {
+            return;
+        }
+        packet.setDequeuedTimestamp(now);
+        if (packet.framedTimestamp() != 0) {
+            mFramedToDequeued.record(now - packet.framedTimestamp());
+        }
+    }
+
+    void accumulated(Packet packet, long now) {
+        if (! mEnabled) {
+            return;
+        }
+        if (packet.dequeuedTimestamp() != 0) {
+            mDequeuedToAccumulated.record(now - packet.dequeuedTimestamp());
+        }
+        if (packet.timestamp() != 0) {
+            mReadToAccumulated.record(now - packet.timestamp());
+        }
+    }
+}
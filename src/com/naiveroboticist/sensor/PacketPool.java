@@ -0,0 +1,50 @@
+package com.naiveroboticist.sensor;
+
+/**
+ * Free list of recycled packets. Consumers hand packets back with release()
+ * once they are done with them so that steady state streaming doesn't need
+ * to allocate a new packet per frame.
+ */
+public class PacketPool {
+    private final Packet[] mFreePackets;
+    private final int mPacketSize;
+    private int mNumFree;
+    private long mAllocated;
+
+    public PacketPool(int packetSize, int capacity) {
+        mFreePackets = new Packet[capacity];
+        mPacketSize = packetSize;
+        mNumFree = 0;
+        mAllocated = 0;
+    }
+
+    public synchronized Packet acquire() {
+        if (mNumFree > 0) {
+            Packet packet = mFreePackets[--mNumFree];
+            mFreePackets[mNumFree] = null;
+            packet.clear();
+            return packet;
+        }
+        mAllocated++;
+        return new Packet(mPacketSize);
+    }
+
+    public synchronized void release(Packet packet) {
+        // Anything beyond the pool's capacity is left to the collector
+        if (packet != null && mNumFree < mFreePackets.length) {
+            mFreePackets[mNumFree++] = packet;
+        }
+    }
+
+    /**
+     * Number of packets this pool has had to create because none were free.
+     * Should stop growing once the pipeline has warmed up.
+     */
+    public synchronized long allocated() {
+        return mAllocated;
+    }
+
+    public synchronized int available() {
+        return mNumFree;
+    }
+}
@@ -0,0 +1,309 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.naiveroboticist.interfaces.IPacketListener;
+import com.naiveroboticist.interfaces.IPacketSubscriber;
+import com.naiveroboticist.interfaces.IPacketSubscription;
+import com.naiveroboticist.sensor.PacketChannel.BackPressurePolicy;
+
+/**
+ * Fans the packets of a PacketReader out to any number of subscribers, in
+ * the style of java.util.concurrent.Flow.Publisher. Run it (on its own
+ * thread) as the reader's consumer instead of a PacketAccumulator.
+ *
+ * Every subscriber sees the same pooled packet instance: the packet is
+ * reference counted and goes back to the reader's pool once the last
+ * subscriber is done with it, so nothing is copied per subscriber. Each
+ * subscriber has its own bounded buffer and demand, and is called on the
+ * executor. A subscriber that falls behind loses its oldest packets
+ * (counted in dropped()); it never holds up the reader or the other
+ * subscribers.
+ */
+public class PacketPublisher implements Runnable {
+    private static final int BATCH_SIZE = 16;
+    private static final long WAIT_MILLIS = 100;
+    private static final int DEFAULT_BUFFER_CAPACITY = 32;
+
+    private final PacketReader mPacketReader;
+    private final Executor mExecutor;
+    private final int mBufferCapacity;
+    private volatile Subscription[] mSubscriptions;
+    private volatile boolean mCompleted;
+
+    public class Subscription implements IPacketSubscription, Runnable {
+        private final IPacketSubscriber mSubscriber;
+        private final PacketChannel mBuffer;
+        private final AtomicLong mDemand;
+        // Pending drain requests; a drain is scheduled while non-zero
+        private final AtomicInteger mWorkInProgress;
+        private volatile boolean mCancelled;
+        private boolean mCompleteSent;
+
+        Subscription(IPacketSubscriber subscriber, int bufferCapacity) {
+            mSubscriber = subscriber;
+            mBuffer = new PacketChannel(bufferCapacity, BackPressurePolicy.DropOldest);
+            mDemand = new AtomicLong();
+            mWorkInProgress = new AtomicInteger();
+            mCancelled = false;
+            mCompleteSent = false;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                mSubscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            long demand;
+            long newDemand;
+            do {
+                demand = mDemand.get();
+                newDemand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            } while (! mDemand.compareAndSet(demand, newDemand));
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            if (! mCancelled) {
+                mCancelled = true;
+                removeSubscription(this);
+                // The drain hands buffered packets back
+                signal();
+            }
+        }
+
+        /**
+         * Packets discarded because the subscriber's buffer was full.
+         */
+        public long dropped() {
+            return mBuffer.dropped();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        void offer(Packet packet) {
+            packet.retain();
+            try {
+                release(mBuffer.offer(packet, 0));
+            } catch (InterruptedException e) {
+                // Drop-oldest never waits
+                Thread.currentThread().interrupt();
+            }
+            signal();
+        }
+
+        void signal() {
+            if (mWorkInProgress.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        // Delivery, on the executor and never on two threads at once
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (mCancelled) {
+                    Packet packet;
+                    while ((packet = mBuffer.poll()) != null) {
+                        release(packet);
+                    }
+                } else {
+                    deliver();
+                }
+                missed = mWorkInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (mDemand.get() > 0 && ! mCancelled) {
+                Packet packet = mBuffer.poll();
+                if (packet == null) {
+                    break;
+                }
+                if (mDemand.get() != Long.MAX_VALUE) {
+                    mDemand.decrementAndGet();
+                }
+                try {
+                    mSubscriber.onNext(packet);
+                } catch (RuntimeException e) {
+                    cancel();
+                    mSubscriber.onError(e);
+                } finally {
+                    release(packet);
+                }
+            }
+            if (mCompleted && ! mCancelled && ! mCompleteSent && mBuffer.size() == 0) {
+                mCompleteSent = true;
+                removeSubscription(this);
+                mSubscriber.onComplete();
+            }
+        }
+    }
+
+    public PacketPublisher(PacketReader packetReader, Executor executor) {
+        this(packetReader, executor, DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * @param bufferCapacity packets buffered per subscriber before the
+     *        oldest are dropped
+     */
+    public PacketPublisher(PacketReader packetReader, Executor executor, int bufferCapacity) {
+        mPacketReader = packetReader;
+        mExecutor = executor;
+        mBufferCapacity = bufferCapacity;
+        mSubscriptions = new Subscription[0];
+        mCompleted = false;
+    }
+
+    /**
+     * Subscribes; onSubscribe is called before this returns. Packets are
+     * only delivered once the subscriber has requested them.
+     */
+    public Subscription subscribe(IPacketSubscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber, mBufferCapacity);
+        subscriber.onSubscribe(subscription);
+        if (! addSubscription(subscription)) {
+            subscription.mCompleteSent = true;
+            subscriber.onComplete();
+        }
+        return subscription;
+    }
+
+    /**
+     * Subscribes a listener, such as a PacketAccumulator or a
+     * PacketRecorder, with unbounded demand.
+     */
+    public Subscription subscribe(final IPacketListener listener) {
+        return subscribe(new IPacketSubscriber() {
+            @Override
+            public void onSubscribe(IPacketSubscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Packet packet) {
+                listener.packetReceived(packet);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    public int numSubscribers() {
+        return mSubscriptions.length;
+    }
+
+    /**
+     * Publishes the reader's packets until interrupted, then completes
+     * every subscription once its buffer has been delivered.
+     */
+    @Override
+    public void run() {
+        Packet[] batch = new Packet[BATCH_SIZE];
+        try {
+            while (! Thread.currentThread().isInterrupted()) {
+                if (mPacketReader.isConflating()) {
+                    publishLatest();
+                    continue;
+                }
+                int count = mPacketReader.drainPackets(batch, WAIT_MILLIS);
+                for (int i=0; i<count; i++) {
+                    publish(batch[i]);
+                    batch[i] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            complete();
+        }
+    }
+
+    /**
+     * Hands one packet to every current subscriber. The packet must come
+     * from the reader's pool; it is returned there once all subscribers
+     * are done with it.
+     */
+    public void publish(Packet packet) {
+        // Hold a reference of our own so early finishers can't recycle
+        // the packet while it's still being handed out
+        packet.retain();
+        Subscription[] subscriptions = mSubscriptions;
+        for (int i=0; i<subscriptions.length; i++) {
+            subscriptions[i].offer(packet);
+        }
+        release(packet);
+    }
+
+    // General private methods
+
+    // Subscribers hold on to packets past the conflating reader's next
+    // hand-over, so they get a pooled copy of its newest one
+    private void publishLatest() throws InterruptedException {
+        Packet latest = mPacketReader.awaitLatest(WAIT_MILLIS);
+        if (latest != null) {
+            Packet packet = mPacketReader.getPacketPool().acquire();
+            packet.copyFrom(latest);
+            publish(packet);
+        }
+    }
+
+    private void complete() {
+        Subscription[] subscriptions;
+        synchronized (this) {
+            mCompleted = true;
+            subscriptions = mSubscriptions;
+        }
+        for (int i=0; i<subscriptions.length; i++) {
+            subscriptions[i].signal();
+        }
+    }
+
+    private void release(Packet packet) {
+        if (packet != null && packet.release()) {
+            mPacketReader.releasePacket(packet);
+        }
+    }
+
+    // Copy on write, as for PacketReader's listeners
+
+    // False if the publisher has already completed
+    private synchronized boolean addSubscription(Subscription subscription) {
+        if (mCompleted) {
+            return false;
+        }
+        Subscription[] subscriptions = new Subscription[mSubscriptions.length + 1];
+        System.arraycopy(mSubscriptions, 0, subscriptions, 0, mSubscriptions.length);
+        subscriptions[mSubscriptions.length] = subscription;
+        mSubscriptions = subscriptions;
+        return true;
+    }
+
+    private synchronized void removeSubscription(Subscription subscription) {
+        Subscription[] current = mSubscriptions;
+        for (int i=0; i<current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription[] subscriptions = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, subscriptions, 0, i);
+                System.arraycopy(current, i + 1, subscriptions, i, current.length - i - 1);
+                mSubscriptions = subscriptions;
+                return;
+            }
+        }
+    }
+}
@@ -2,23 +2,50 @@ package com.naiveroboticist.sensor;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
+import com.naiveroboticist.interfaces.IBoundedRobotReader;
+import com.naiveroboticist.interfaces.IPacketListener;
 import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.interfaces.IStreamStallListener;
+import com.naiveroboticist.sensor.PacketChannel.BackPressurePolicy;
 
 public class PacketReader implements Runnable {
     private static final int PACKET_SIZE = 512;
     private static final int TIMEOUT_MILLIS = 1000;
-    private static final int MAX_TRIES = 100;
-    private static final byte PACKET_START = 0x13;
+    private static final int DEFAULT_QUEUE_CAPACITY = 128;
+    private static final int READ_BUFFER_SIZE = 100;
+    // Largest read from a bounded reader catching up on a backlog
+    private static final int MAX_READ_SIZE = 512;
+    // START, LENGTH and CHECKSUM bytes around the payload
+    private static final int FRAME_OVERHEAD = 3;
+    private static final int MAX_LOG_MESSAGES = 100;
+    private static final int DEFAULT_DIAGNOSTIC_SAMPLE_RATE = 100;
 
     private IRobotReader mRobotRW;
+    // mRobotRW, if it can read into part of a buffer
+    private IBoundedRobotReader mBoundedReader;
+    private ReadPacer mPacer;
+    private FrameSequencer mSequencer;
+    private int mLastFrameLength;
+    private volatile IStreamStallListener mStallListener;
     private Packet mPacketBuffer;
-    private int mExpectedPacketLength;
-    private Queue<Packet> mPacketQueue;
+    private PacketFramer mFramer;
+    private PacketChannel mPacketQueue;
+    private LatestPacketExchange mLatest;
+    private volatile boolean mConflating;
+    private PacketPool mPacketPool;
+    private byte[] mReadBuffer;
+    private volatile IPacketListener[] mListeners;
+    private long mReadTimestamp;
+    // Whether the last read returned less than it asked for
+    private boolean mReadDrained;
+    private ReaderMetrics mMetrics;
+    private PacketLatency mLatency;
+    private volatile int mDiagnosticSampleRate;
     private ArrayList<String> mLogs;
-    private boolean mContinueReading = true;
+    private volatile boolean mContinueReading = true;
     private boolean mSinglePacketRead = false;
 
     public PacketReader(IRobotReader robotReaderWriter, int packetLength, boolean singlePacketRead) {
@@ -27,10 +54,30 @@ public class PacketReader implements Runnable {
     }
     
     public PacketReader(IRobotReader robotReaderWriter, int packetLength) {
+        this(robotReaderWriter, packetLength, DEFAULT_QUEUE_CAPACITY, BackPressurePolicy.DropOldest);
+    }
+
+    public PacketReader(IRobotReader robotReaderWriter, int packetLength, int queueCapacity, BackPressurePolicy policy) {
         mRobotRW = robotReaderWriter;
-        mPacketBuffer = new Packet(PACKET_SIZE);
-        mExpectedPacketLength = packetLength;
-        mPacketQueue = new LinkedList<Packet>();
+        mBoundedReader = robotReaderWriter instanceof IBoundedRobotReader ? (IBoundedRobotReader) robotReaderWriter : null;
+        // Enough packets for a full queue plus the ones in flight
+        mPacketPool = new PacketPool(PACKET_SIZE, queueCapacity * 2);
+        mPacketBuffer = mPacketPool.acquire();
+        mReadBuffer = new byte[mBoundedReader != null ? MAX_READ_SIZE : READ_BUFFER_SIZE];
+        mPacer = new ReadPacer(packetLength > 0 ? packetLength + FRAME_OVERHEAD : 0, mReadBuffer.length, TIMEOUT_MILLIS);
+        // A silence long enough to count as a stall isn't lost frames
+        mSequencer = new FrameSequencer(ReadPacer.NOMINAL_PERIOD_NANOS, ReadPacer.MIN_STALL_NANOS);
+        mLastFrameLength = 0;
+        mReadDrained = true;
+        mStallListener = null;
+        mFramer = new PacketFramer(packetLength);
+        mPacketQueue = new PacketChannel(queueCapacity, policy);
+        mLatest = new LatestPacketExchange(PACKET_SIZE);
+        mConflating = false;
+        mListeners = new IPacketListener[0];
+        mMetrics = new ReaderMetrics();
+        mLatency = new PacketLatency();
+        mDiagnosticSampleRate = DEFAULT_DIAGNOSTIC_SAMPLE_RATE;
         mLogs = new ArrayList<String>();
         mContinueReading = true;
     }
@@ -38,30 +85,160 @@ public class PacketReader implements Runnable {
     @Override
     public void run() {
         try {
-            while (mContinueReading) {
+            while (mContinueReading && ! Thread.currentThread().isInterrupted()) {
                 try {
-                    readCompletePacket();
-                    addPacket(mPacketBuffer);
-                    mPacketBuffer = mPacketBuffer.nextPacket();
-                    if (mSinglePacketRead) { mContinueReading = false; }
+                    // A stall returns with nothing read; keep trying
+                    if (readAndQueuePackets() > 0 && mSinglePacketRead) { mContinueReading = false; }
                 } catch (InvalidPacketError e) {
                     addMessage("InvalidPacketError: " + e.getLocalizedMessage() + "|" + e.getStackTrace()[0]);
                 }
             }
         } catch (IOException ex) {
             addMessage("IOException: " + ex.getLocalizedMessage() + "|" + ex.getStackTrace()[0]);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Reads from the robot until at least one complete packet has been
+     * framed and hands every framed packet to the packet queue. Returns the
+     * number of packets queued. run() calls this in a loop; it is exposed
+     * for callers that want to drive the reader from their own thread.
+     *
+     * Read timeouts follow the stream's frame period. If nothing is framed
+     * for several periods the stream is reported as stalled (see
+     * setStallListener()) and this returns 0; while the stream stays
+     * stalled it returns 0 again after each further stall interval.
+     */
+    public int readAndQueuePackets() throws IOException, InvalidPacketError, InterruptedException {
+        // Frames left over from the previous read come first
+        int numPackets = queueFramedPackets();
+        long start = System.nanoTime();
+        mPacer.begin(start);
+        while (numPackets == 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long now = System.nanoTime();
+            if (mPacer.isStalled() && now - start >= mPacer.stallNanos()) {
+                return 0;
+            }
+            int numBytes = readChunk(mPacer.readTimeoutMillis(now));
+            mReadTimestamp = System.nanoTime();
+            if (numBytes <= 0) {
+                mMetrics.readTimeout();
+            } else {
+                mMetrics.addBytesRead(numBytes);
+                int offset = 0;
+                while (offset < numBytes) {
+                    offset += mFramer.consume(mReadBuffer, offset, numBytes - offset);
+                    numPackets += queueFramedPackets();
+                }
+            }
+            if (numPackets > 0) {
+                long stalledNanos = mPacer.framesRead(mReadTimestamp, numPackets, mLastFrameLength);
+                mMetrics.setFramePeriodNanos(mPacer.periodNanos());
+                if (stalledNanos > 0) {
+                    IStreamStallListener listener = mStallListener;
+                    if (listener != null) {
+                        listener.streamResumed(this, stalledNanos);
+                    }
+                }
+            } else {
+                long silentNanos = mPacer.checkStall(mReadTimestamp);
+                if (silentNanos > 0) {
+                    mMetrics.stall();
+                    IStreamStallListener listener = mStallListener;
+                    if (listener != null) {
+                        listener.streamStalled(this, silentNanos);
+                    }
+                    return 0;
+                }
+            }
         }
+        return numPackets;
+    }
+    
+    /**
+     * Told when the stream stalls and when it resumes, on the reader
+     * thread.
+     */
+    public void setStallListener(IStreamStallListener listener) {
+        mStallListener = listener;
+    }
+    
+    /**
+     * In conflating mode framed packets go to the latest packet exchange
+     * (see pollLatest() and awaitLatest()) instead of the queue: only the
+     * newest is kept and a packet the consumer hasn't taken yet is
+     * overwritten. Listeners still see every packet. PacketAccumulator and
+     * PacketPublisher check this on each pass and take from the exchange
+     * while it's set.
+     */
+    public void setConflating(boolean conflating) {
+        mConflating = conflating;
+    }
+    
+    public boolean isConflating() {
+        return mConflating;
+    }
+    
+    public ReaderMetrics getMetrics() {
+        return mMetrics;
+    }
+    
+    /**
+     * Per-stage latency of the packets handed out by this reader. Consumers
+     * such as PacketAccumulator record the final stage.
+     */
+    public PacketLatency getLatency() {
+        return mLatency;
     }
     
-    // Synchronized api to continue reading
-    public synchronized void stopReading() {
+    /**
+     * Formats one in every sampleRate bad frames into the message log
+     * (see fullMessages()); 0 turns the diagnostic off. Bad frames are
+     * always counted in the metrics.
+     */
+    public void setDiagnosticSampleRate(int sampleRate) {
+        mDiagnosticSampleRate = sampleRate;
+    }
+    
+    /**
+     * Asks run() to return after the current read. Interrupting the
+     * reading thread (e.g. through PipelineRunner.stop()) does the same
+     * and also cuts short a wait for queue space.
+     */
+    public void stopReading() {
         mContinueReading = false;
     }
 
+    // Listeners see every packet on the reader thread. The array is
+    // replaced rather than modified so the reader never has to lock.
+    
+    public synchronized void addPacketListener(IPacketListener listener) {
+        IPacketListener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+    
+    public synchronized void removePacketListener(IPacketListener listener) {
+        for (int i=0; i<mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                IPacketListener[] listeners = new IPacketListener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
     // The synchronized interface for access to the logs
     
     public synchronized void addMessage(String message) {
-        if (mLogs.size() < 100) {
+        if (mLogs.size() < MAX_LOG_MESSAGES) {
             mLogs.add(message);
         }
     }
@@ -84,92 +261,199 @@ public class PacketReader implements Runnable {
         mLogs.clear();
     }
     
-    // The synchronized interface for access to the packets that
+    private synchronized boolean isLogFull() {
+        return mLogs.size() >= MAX_LOG_MESSAGES;
+    }
+    
+    // The blocking, bounded interface for access to the packets that
     // have been read
     
-    public synchronized void addPacket(Packet packet) {
-        mPacketQueue.add(packet);
+    /**
+     * Queues a packet without waiting. A packet the queue has no room for
+     * (this one, or under DropOldest the oldest) is counted as a queue
+     * drop, and goes back to the pool if it's big enough for the reader to
+     * frame into.
+     */
+    public void addPacket(Packet packet) {
+        try {
+            Packet discarded = mPacketQueue.offer(packet, 0);
+            if (discarded != null) {
+                mMetrics.queueDrop();
+                if (discarded.capacity() >= PACKET_SIZE) {
+                    mPacketPool.release(discarded);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     
-    public synchronized Packet removePacket() {
-        return mPacketQueue.remove();
+    public Packet removePacket() {
+        Packet packet = mPacketQueue.poll();
+        if (packet == null) {
+            throw new NoSuchElementException();
+        }
+        mLatency.dequeued(packet, System.nanoTime());
+        return packet;
     }
     
-    public synchronized int numPackets() {
-        return mPacketQueue.size();
+    public Packet takePacket(long timeoutMillis) throws InterruptedException {
+        Packet packet = mPacketQueue.take(timeoutMillis);
+        if (packet != null) {
+            mLatency.dequeued(packet, System.nanoTime());
+        }
+        return packet;
     }
     
-    // General private methods
-
-    private void readCompletePacket() throws IOException, InvalidPacketError {
-        int tries = 0;
-        mPacketBuffer.clear();
-        byte[] buffer = new byte[100];
-        
-        boolean doneReading = false;
-        while (! doneReading) {
-            tries++;
-            if (tries > MAX_TRIES) {
-                throw new InvalidPacketError("Over " + MAX_TRIES + " to read packet. Dude, something's wrong.");
+    public int drainPackets(Packet[] batch, long timeoutMillis) throws InterruptedException {
+        int count = mPacketQueue.drainTo(batch, timeoutMillis);
+        if (count > 0) {
+            long now = System.nanoTime();
+            for (int i=0; i<count; i++) {
+                mLatency.dequeued(batch[i], now);
             }
-            int numBytes = mRobotRW.read(buffer, TIMEOUT_MILLIS);
-            doneReading = readPacket(buffer, numBytes);
         }
+        return count;
     }
     
-    private boolean readPacket(byte[] buffer, int numBytes) throws InvalidPacketError {
-        int packetStart = 0;
-        
-        if (numBytes == 0) {
-            return false; // Nothing to do
-        }
-        
-        if (mPacketBuffer.isEmpty()) {
-            packetStart = findPacketStartInBuffer(buffer, numBytes);
+    // The conflating interface: one consumer thread gets the newest packet.
+    // Packets stay owned by the exchange, valid until the consumer's next
+    // call, and must not be released.
+    
+    public Packet pollLatest() {
+        Packet packet = mLatest.poll();
+        if (packet != null) {
+            mLatency.dequeued(packet, System.nanoTime());
         }
- 
-        if (packetStart == -1) {
-            return false; // The start byte wasn't found
+        return packet;
+    }
+    
+    public Packet awaitLatest(long timeoutMillis) throws InterruptedException {
+        Packet packet = mLatest.await(timeoutMillis);
+        if (packet != null) {
+            mLatency.dequeued(packet, System.nanoTime());
         }
+        return packet;
+    }
+    
+    /**
+     * The exchange behind pollLatest(), for the sequence number of the
+     * packet last taken and the count of overwritten packets.
+     */
+    public LatestPacketExchange getLatestExchange() {
+        return mLatest;
+    }
+    
+    public int numPackets() {
+        return mPacketQueue.size();
+    }
+    
+    public long droppedPackets() {
+        return mPacketQueue.dropped();
+    }
+    
+    /**
+     * Hands a packet obtained from removePacket(), takePacket() or
+     * drainPackets() back for reuse. The caller must not touch the packet
+     * afterwards.
+     */
+    public void releasePacket(Packet packet) {
+        mPacketPool.release(packet);
+    }
+    
+    public PacketPool getPacketPool() {
+        return mPacketPool;
+    }
+    
+    // General private methods
 
-        mPacketBuffer.put(buffer, packetStart, numBytes);
-                
-        if (! mPacketBuffer.isLengthByteRead()) {
-            return false;
-        }
-        
-        int len = mPacketBuffer.packetLength();
-        if (len == 0 || len != mExpectedPacketLength) {
-            mPacketBuffer.clear();
-            return false;
+    // A bounded reader is asked for what the framer is expected to need
+    // next; any other reader fills the whole buffer
+    private int readChunk(int timeoutMillis) throws IOException {
+        if (mBoundedReader == null) {
+            int numBytes = mRobotRW.read(mReadBuffer, timeoutMillis);
+            mReadDrained = numBytes < mReadBuffer.length;
+            return numBytes;
         }
-        
-        // +2 due to START byte, LENGTH byte & CHKSUM bytes
-        if (! mPacketBuffer.isCompletePacket()) {
-            return false; // Haven't read the entire packet yet
+        int size = mPacer.readSize(mFramer.available());
+        int numBytes = mBoundedReader.read(mReadBuffer, 0, size, timeoutMillis);
+        mPacer.bytesRead(size, numBytes);
+        mReadDrained = numBytes < size;
+        return numBytes;
+    }
+
+    private void queuePacket(Packet packet) throws InterruptedException {
+        // Under the Block policy keep retrying until there's room, but
+        // give up if we've been asked to stop in the meantime.
+        Packet discarded;
+        while ((discarded = mPacketQueue.offer(packet, TIMEOUT_MILLIS)) == packet) {
+            if (! mContinueReading || mPacketQueue.policy() != BackPressurePolicy.Block) {
+                break;
+            }
         }
-        
-        if (! mPacketBuffer.validChecksum()) {
-            String fpb = mPacketBuffer.formatPacketBuffer();
-            mPacketBuffer.clear();
-            throw new InvalidPacketError("Invalid checksum:" + fpb);
+        if (discarded != null) {
+            mMetrics.queueDrop();
+            mPacketPool.release(discarded);
         }
-                
-        return true;
     }
-    
 
-    private int findPacketStartInBuffer(byte[] buffer, int numBytes) {
-        int packetStart = -1;
-        
-        for (int i=0; i<numBytes; i++) {
-            if (buffer[i] == PACKET_START) {
-                packetStart = i;
+    // Frames still buffered from the same read are assumed to be as long
+    // as this one
+    private long nextSequence(Packet frame) {
+        return mSequencer.nextSequence(mReadTimestamp, mFramer.available() / Math.max(1, frame.position()), mReadDrained);
+    }
+
+    private int queueFramedPackets() throws InvalidPacketError, InterruptedException {
+        int numPackets = 0;
+        while (true) {
+            boolean conflating = mConflating;
+            // Conflated frames are written straight into the exchange
+            Packet packet = conflating ? mLatest.writeBuffer() : mPacketBuffer;
+            switch (mFramer.nextFrame(packet)) {
+            case Frame:
+                mMetrics.frameAccepted();
+                if (! conflating) {
+                    mPacketBuffer = mPacketPool.acquire();
+                }
+                mLastFrameLength = packet.position();
+                packet.setSequence(nextSequence(packet));
+                packet.setTimestamp(mReadTimestamp);
+                mLatency.framed(packet);
+                IPacketListener[] listeners = mListeners;
+                for (int i=0; i<listeners.length; i++) {
+                    listeners[i].packetReceived(packet);
+                }
+                if (conflating) {
+                    mLatest.publish();
+                    mMetrics.setPacketsOverwritten(mLatest.overwritten());
+                } else {
+                    queuePacket(packet);
+                }
+                numPackets++;
+                break;
+            case BadChecksum:
+                mMetrics.checksumFailure();
+                // The rejected frame still had its slot in the stream
+                nextSequence(packet);
+                sampleBadFrame(packet);
                 break;
+            case BadLength:
+                mMetrics.lengthMismatch();
+                break;
+            case NeedMore:
+                mMetrics.setResyncBytesSkipped(mFramer.skippedBytes());
+                mMetrics.setMissedFrames(mSequencer.missedFrames());
+                return numPackets;
             }
         }
-        
-        return packetStart;
+    }
+    
+    // Only pay for formatting on the occasional bad frame
+    private void sampleBadFrame(Packet packet) throws InvalidPacketError {
+        int sampleRate = mDiagnosticSampleRate;
+        if (sampleRate > 0 && (mMetrics.checksumFailures() - 1) % sampleRate == 0 && ! isLogFull()) {
+            addMessage("Invalid checksum:" + packet.formatPacketBuffer());
+        }
     }
     
     @SuppressWarnings("unused")
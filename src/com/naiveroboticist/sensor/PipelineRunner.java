@@ -0,0 +1,143 @@
+package com.naiveroboticist.sensor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the threads that run readers, accumulators and other pipeline
+ * tasks, and stops them together. Tasks are cancelled by interrupting
+ * their threads; PacketReader and PacketAccumulator finish their current
+ * read or batch and return.
+ *
+ * In Virtual mode each task gets a virtual thread, so a blocked
+ * IRobotReader.read() parks without holding a platform thread and many
+ * devices can be monitored cheaply. Virtual threads are looked up
+ * reflectively so the library still runs on older JVMs; there, and where
+ * they are still a disabled preview feature, Virtual mode falls back to
+ * platform threads (see isVirtual()).
+ */
+public class PipelineRunner {
+    public enum ThreadMode {
+        Platform, Virtual
+    }
+
+    // Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), if they
+    // work
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            // On JDK 19 and 20 the methods exist but throw unless preview
+            // features are enabled, so build (without starting) one thread
+            unstarted.invoke(ofVirtual.invoke(null), new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        } catch (Exception e) {
+            ofVirtual = null;
+            unstarted = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    private final String mName;
+    private final boolean mVirtual;
+    private final ArrayList<Thread> mThreads;
+    private boolean mStopped;
+
+    public PipelineRunner(String name, ThreadMode mode) {
+        mName = name;
+        mVirtual = mode == ThreadMode.Virtual && isVirtualThreadsAvailable();
+        mThreads = new ArrayList<Thread>();
+        mStopped = false;
+    }
+
+    public static boolean isVirtualThreadsAvailable() {
+        return UNSTARTED != null;
+    }
+
+    /**
+     * True if tasks really run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return mVirtual;
+    }
+
+    /**
+     * Starts the task on a new thread named after the runner.
+     */
+    public synchronized Thread start(String taskName, Runnable task) {
+        if (mStopped) {
+            throw new IllegalStateException("Runner " + mName + " has been stopped");
+        }
+        Thread thread = newThread(task);
+        thread.setName(mName + "-" + taskName);
+        mThreads.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Interrupts every task and waits until they have all finished or the
+     * timeout has passed. Returns true if they all finished. The runner
+     * can't be reused afterwards.
+     */
+    public boolean stop(long timeoutMillis) throws InterruptedException {
+        Thread[] threads;
+        synchronized (this) {
+            mStopped = true;
+            threads = mThreads.toArray(new Thread[mThreads.size()]);
+            mThreads.clear();
+        }
+        for (int i=0; i<threads.length; i++) {
+            threads[i].interrupt();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean stopped = true;
+        for (int i=0; i<threads.length; i++) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                threads[i].join(remaining);
+            }
+            stopped &= ! threads[i].isAlive();
+        }
+        return stopped;
+    }
+
+    /**
+     * Number of tasks started and not yet finished.
+     */
+    public synchronized int activeCount() {
+        int count = 0;
+        for (Thread thread : mThreads) {
+            if (thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // General private methods
+
+    private Thread newThread(Runnable task) {
+        if (mVirtual) {
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to create a virtual thread", e);
+            }
+        }
+        Thread thread = new Thread(task);
+        // The runner, not the JVM, decides when these stop
+        thread.setDaemon(true);
+        return thread;
+    }
+}
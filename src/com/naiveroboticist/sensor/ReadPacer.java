@@ -0,0 +1,141 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a PacketReader's reads from the stream's observed cadence. The
+ * frame period is tracked as an exponentially weighted moving average of
+ * the time between frames; read timeouts are a couple of periods, and the
+ * stream counts as stalled once nothing has been framed for several
+ * periods. Read sizes start at one frame, less whatever is already
+ * buffered, and double while reads keep coming back full (the reader has
+ * fallen behind) so a backlog is caught up with fewer reads.
+ *
+ * Reader thread only. Times are System.nanoTime() values passed in.
+ */
+class ReadPacer {
+    // The Create streams a packet every 15ms
+    static final long NOMINAL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(15);
+    static final long MIN_STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final int MIN_TIMEOUT_MILLIS = 1;
+    // Moving average weight 1 / 2^PERIOD_SHIFT
+    private static final int PERIOD_SHIFT = 3;
+    private static final int TIMEOUT_PERIODS = 2;
+    private static final int STALL_PERIODS = 8;
+
+    private final int mMaxReadSize;
+    private final int mMaxTimeoutMillis;
+    // Expected frame length, or 0 until one has been seen
+    private int mFrameLength;
+    private int mReadMultiplier;
+    private long mPeriodNanos;
+    private boolean mFramed;
+    private long mLastFrameNanos;
+    // Start of the current silence, once the first read has begun
+    private boolean mBegun;
+    private long mQuietSince;
+    private boolean mStalled;
+
+    /**
+     * @param frameLength bytes per frame, or 0 if not known in advance
+     */
+    ReadPacer(int frameLength, int maxReadSize, int maxTimeoutMillis) {
+        mMaxReadSize = maxReadSize;
+        mMaxTimeoutMillis = maxTimeoutMillis;
+        mFrameLength = frameLength;
+        mReadMultiplier = 1;
+        mPeriodNanos = NOMINAL_PERIOD_NANOS;
+        mFramed = false;
+        mLastFrameNanos = 0;
+        mBegun = false;
+        mQuietSince = 0;
+        mStalled = false;
+    }
+
+    void begin(long now) {
+        if (! mBegun) {
+            mBegun = true;
+            mQuietSince = now;
+        }
+    }
+
+    long periodNanos() {
+        return mPeriodNanos;
+    }
+
+    long stallNanos() {
+        return Math.max(MIN_STALL_NANOS, STALL_PERIODS * mPeriodNanos);
+    }
+
+    boolean isStalled() {
+        return mStalled;
+    }
+
+    /**
+     * Bytes to ask for next, given the bytes of a partial frame already
+     * buffered.
+     */
+    int readSize(int buffered) {
+        if (mFrameLength == 0) {
+            return mMaxReadSize;
+        }
+        int size = mFrameLength * mReadMultiplier - buffered;
+        return Math.max(1, Math.min(mMaxReadSize, size));
+    }
+
+    int readTimeoutMillis(long now) {
+        long timeout = TIMEOUT_PERIODS * mPeriodNanos;
+        if (! mStalled) {
+            // Wake up in time to report a stall
+            timeout = Math.min(timeout, mQuietSince + stallNanos() - now);
+        }
+        long millis = (timeout + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+        return (int) Math.max(MIN_TIMEOUT_MILLIS, Math.min(mMaxTimeoutMillis, millis));
+    }
+
+    void bytesRead(int requested, int numBytes) {
+        if (numBytes >= requested) {
+            if (mFrameLength > 0 && 2 * mReadMultiplier * mFrameLength <= mMaxReadSize) {
+                mReadMultiplier *= 2;
+            }
+        } else {
+            mReadMultiplier = 1;
+        }
+    }
+
+    /**
+     * Notes frames from the read at now. Returns how long the stream had
+     * been stalled if this ends a stall, otherwise 0.
+     */
+    long framesRead(long now, int numFrames, int frameLength) {
+        if (mFrameLength == 0) {
+            mFrameLength = frameLength;
+        }
+        long stalledNanos = 0;
+        if (mStalled) {
+            // The gap says nothing about the period
+            stalledNanos = Math.max(1, now - mQuietSince);
+            mStalled = false;
+        } else if (mFramed) {
+            long sample = (now - mLastFrameNanos) / numFrames;
+            mPeriodNanos += (sample - mPeriodNanos) >> PERIOD_SHIFT;
+        }
+        mFramed = true;
+        mLastFrameNanos = now;
+        mBegun = true;
+        mQuietSince = now;
+        return stalledNanos;
+    }
+
+    /**
+     * Returns how long the stream has been silent if it has just now been
+     * silent long enough to count as stalled, otherwise 0.
+     */
+    long checkStall(long now) {
+        if (! mStalled && mBegun && now - mQuietSince >= stallNanos()) {
+            mStalled = true;
+            return now - mQuietSince;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,272 @@
+package com.naiveroboticist.sensor;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.naiveroboticist.interfaces.INonBlockingRobotReader;
+import com.naiveroboticist.interfaces.IPacketListener;
+import com.naiveroboticist.interfaces.IReadinessListener;
+
+/**
+ * Services the sensor streams of many robots with a small, fixed set of
+ * worker threads (platform or virtual, see PipelineRunner). Each robot
+ * registers a non-blocking reader; when the reader reports that bytes have
+ * arrived the robot is queued, and the next free worker drains it, frames
+ * the bytes with the robot's own framer and hands each packet to the
+ * robot's listener (typically a PacketAccumulator) on the worker thread.
+ *
+ * A robot is only ever serviced by one worker at a time, and idle workers
+ * block on the ready queue, so CPU use follows the data rate rather than
+ * the number of robots.
+ */
+public class ReaderHub {
+    private static final int READ_BUFFER_SIZE = 100;
+    // Reads per robot before it goes to the back of the queue
+    private static final int MAX_READS_PER_TURN = 16;
+
+    private final BlockingQueue<Robot> mReady;
+    private final int mNumWorkers;
+    private final PipelineRunner.ThreadMode mThreadMode;
+    private final AtomicInteger mNumRobots;
+    private final int mMaxRobots;
+    private PipelineRunner mRunner;
+
+    /**
+     * A robot's stream as registered with the hub.
+     */
+    public static class Robot implements IReadinessListener {
+        private final ReaderHub mHub;
+        private final INonBlockingRobotReader mSource;
+        private final PacketFramer mFramer;
+        private final FrameSequencer mSequencer;
+        private final IPacketListener mListener;
+        private final byte[] mReadBuffer;
+        private final Packet mPacket;
+        private final ReaderMetrics mMetrics;
+        // Readiness signals not yet serviced; the robot is queued (or
+        // being serviced) whenever this is non-zero.
+        private final AtomicInteger mSignals;
+        private volatile boolean mClosed;
+
+        Robot(ReaderHub hub, INonBlockingRobotReader source, int packetLength, IPacketListener listener) {
+            mHub = hub;
+            mSource = source;
+            mFramer = new PacketFramer(packetLength);
+            mSequencer = new FrameSequencer(ReadPacer.NOMINAL_PERIOD_NANOS, ReadPacer.MIN_STALL_NANOS);
+            mListener = listener;
+            mReadBuffer = new byte[READ_BUFFER_SIZE];
+            mPacket = new Packet(PacketFramer.MAX_FRAME_LENGTH);
+            mMetrics = new ReaderMetrics();
+            mSignals = new AtomicInteger();
+            mClosed = false;
+        }
+
+        @Override
+        public void readyToRead(INonBlockingRobotReader reader) {
+            if (! mClosed && mSignals.getAndIncrement() == 0) {
+                mHub.schedule(this);
+            }
+        }
+
+        public ReaderMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        /**
+         * True once the source reported end of stream or failed, or the
+         * robot was removed from the hub.
+         */
+        public boolean isClosed() {
+            return mClosed;
+        }
+
+        // Runs on one worker at a time
+        void service() {
+            int signals = mSignals.get();
+            boolean drained = false;
+            try {
+                drained = drain();
+            } catch (IOException e) {
+                close();
+            } catch (RuntimeException e) {
+                // A misbehaving listener mustn't take the worker down
+                close();
+            }
+            if (mClosed) {
+                return;
+            }
+            if (! drained || mSignals.addAndGet(-signals) != 0) {
+                // More to do; give the other robots a turn first
+                mHub.schedule(this);
+            }
+        }
+
+        void close() {
+            if (! mClosed) {
+                mClosed = true;
+                mHub.mNumRobots.decrementAndGet();
+            }
+        }
+
+        // Returns true if the source ran dry within this turn
+        private boolean drain() throws IOException {
+            for (int reads=0; reads<MAX_READS_PER_TURN; reads++) {
+                if (mClosed) {
+                    return true;
+                }
+                int numBytes = mSource.readAvailable(mReadBuffer, 0, mReadBuffer.length);
+                if (numBytes < 0) {
+                    close();
+                    return true;
+                }
+                if (numBytes == 0) {
+                    return true;
+                }
+                mMetrics.addBytesRead(numBytes);
+                long timestamp = System.nanoTime();
+                boolean drained = numBytes < mReadBuffer.length;
+                int offset = 0;
+                while (offset < numBytes) {
+                    offset += mFramer.consume(mReadBuffer, offset, numBytes - offset);
+                    deliverFrames(timestamp, drained);
+                }
+            }
+            return false;
+        }
+
+        private void deliverFrames(long timestamp, boolean drained) {
+            while (true) {
+                switch (mFramer.nextFrame(mPacket)) {
+                case Frame:
+                    mMetrics.frameAccepted();
+                    mPacket.setSequence(nextSequence(timestamp, drained));
+                    mPacket.setTimestamp(timestamp);
+                    mListener.packetReceived(mPacket);
+                    break;
+                case BadChecksum:
+                    mMetrics.checksumFailure();
+                    nextSequence(timestamp, drained);
+                    break;
+                case BadLength:
+                    mMetrics.lengthMismatch();
+                    break;
+                case NeedMore:
+                    mMetrics.setResyncBytesSkipped(mFramer.skippedBytes());
+                    mMetrics.setMissedFrames(mSequencer.missedFrames());
+                    return;
+                }
+            }
+        }
+
+        private long nextSequence(long timestamp, boolean drained) {
+            return mSequencer.nextSequence(timestamp, mFramer.available() / Math.max(1, mPacket.position()), drained);
+        }
+    }
+
+    /**
+     * @param numWorkers threads servicing the robots
+     * @param maxRobots the most robots that may be registered at once
+     */
+    public ReaderHub(int numWorkers, int maxRobots) {
+        this(numWorkers, maxRobots, PipelineRunner.ThreadMode.Platform);
+    }
+
+    public ReaderHub(int numWorkers, int maxRobots, PipelineRunner.ThreadMode threadMode) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("Need at least one worker: " + numWorkers);
+        }
+        // Unbounded, so scheduling on a driver's thread can't fail; each
+        // robot is queued at most once and unregistering takes it out
+        mReady = new LinkedBlockingQueue<Robot>();
+        mNumWorkers = numWorkers;
+        mThreadMode = threadMode;
+        mNumRobots = new AtomicInteger();
+        mMaxRobots = maxRobots;
+        mRunner = null;
+    }
+
+    public synchronized void start() {
+        if (mRunner != null) {
+            return;
+        }
+        mRunner = new PipelineRunner("ReaderHub", mThreadMode);
+        for (int i=0; i<mNumWorkers; i++) {
+            mRunner.start(Integer.toString(i), new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the workers, waiting up to timeoutMillis in all for them to
+     * finish the robots they're servicing. Returns true if they all
+     * stopped. The hub can be started again afterwards.
+     */
+    public synchronized boolean stop(long timeoutMillis) throws InterruptedException {
+        if (mRunner == null) {
+            return true;
+        }
+        boolean stopped = mRunner.stop(timeoutMillis);
+        mRunner = null;
+        return stopped;
+    }
+
+    /**
+     * Starts servicing a robot. Packets are passed to the listener on a
+     * hub worker thread; as with PacketReader listeners it must not keep
+     * the packet after returning.
+     *
+     * @param packetLength the stream's LENGTH byte, or 0 for any
+     */
+    public Robot register(INonBlockingRobotReader source, int packetLength, IPacketListener listener) {
+        if (mNumRobots.incrementAndGet() > mMaxRobots) {
+            mNumRobots.decrementAndGet();
+            throw new IllegalStateException("Hub is full: " + mMaxRobots + " robots");
+        }
+        Robot robot = new Robot(this, source, packetLength, listener);
+        source.setReadinessListener(robot);
+        // Pick up anything that arrived before the listener was set
+        robot.readyToRead(source);
+        return robot;
+    }
+
+    /**
+     * Stops servicing the robot; a turn already in progress completes.
+     */
+    public void unregister(Robot robot) {
+        robot.close();
+        mReady.remove(robot);
+    }
+
+    public int numRobots() {
+        return mNumRobots.get();
+    }
+
+    public int numWorkers() {
+        return mNumWorkers;
+    }
+
+    // General private methods
+
+    private void schedule(Robot robot) {
+        mReady.offer(robot);
+    }
+
+    private void work() {
+        try {
+            while (! Thread.currentThread().isInterrupted()) {
+                Robot robot = mReady.take();
+                if (! robot.isClosed()) {
+                    robot.service();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters kept by a PacketReader. Nearly all are only written by the
+ * reader thread, so updates are plain ordered stores; the queue drop count
+ * can also be bumped from other threads and is incremented atomically. Any
+ * thread may take a snapshot without locking.
+ */
+public class ReaderMetrics {
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mFramesAccepted = new AtomicLong();
+    private final AtomicLong mChecksumFailures = new AtomicLong();
+    private final AtomicLong mLengthMismatches = new AtomicLong();
+    private final AtomicLong mResyncBytesSkipped = new AtomicLong();
+    private final AtomicLong mReadTimeouts = new AtomicLong();
+    private final AtomicLong mStalls = new AtomicLong();
+    private final AtomicLong mFramePeriodNanos = new AtomicLong();
+    private final AtomicLong mMissedFrames = new AtomicLong();
+    private final AtomicLong mQueueDrops = new AtomicLong();
+    private final AtomicLong mPacketsOverwritten = new AtomicLong();
+
+    public static class Snapshot {
+        public final long bytesRead;
+        public final long framesAccepted;
+        public final long checksumFailures;
+        public final long lengthMismatches;
+        public final long resyncBytesSkipped;
+        public final long readTimeouts;
+        public final long stalls;
+        // Moving average of the time between frames, 0 if not tracked
+        public final long framePeriodNanos;
+        // Frames lost per stage: missed in the stream (judged by timing),
+        // rejected by the framer (checksumFailures), discarded by the
+        // queue, and overwritten in conflating mode
+        public final long missedFrames;
+        public final long queueDrops;
+        public final long packetsOverwritten;
+
+        Snapshot(ReaderMetrics metrics) {
+            bytesRead = metrics.mBytesRead.get();
+            framesAccepted = metrics.mFramesAccepted.get();
+            checksumFailures = metrics.mChecksumFailures.get();
+            lengthMismatches = metrics.mLengthMismatches.get();
+            resyncBytesSkipped = metrics.mResyncBytesSkipped.get();
+            readTimeouts = metrics.mReadTimeouts.get();
+            stalls = metrics.mStalls.get();
+            framePeriodNanos = metrics.mFramePeriodNanos.get();
+            missedFrames = metrics.mMissedFrames.get();
+            queueDrops = metrics.mQueueDrops.get();
+            packetsOverwritten = metrics.mPacketsOverwritten.get();
+        }
+
+        /**
+         * Fraction of the stream's frames that never arrived.
+         */
+        public double missedRate() {
+            return rate(missedFrames, missedFrames + checksumFailures + framesAccepted);
+        }
+
+        /**
+         * Fraction of the frames that arrived but failed their checksum.
+         */
+        public double checksumFailureRate() {
+            return rate(checksumFailures, checksumFailures + framesAccepted);
+        }
+
+        /**
+         * Fraction of the accepted frames discarded by the packet queue.
+         */
+        public double queueDropRate() {
+            return rate(queueDrops, framesAccepted);
+        }
+
+        /**
+         * Fraction of the accepted frames overwritten before a conflating
+         * consumer took them.
+         */
+        public double overwrittenRate() {
+            return rate(packetsOverwritten, framesAccepted);
+        }
+
+        private static double rate(long count, long total) {
+            return total == 0 ? 0 : (double) count / total;
+        }
+
+        @Override
+        public String toString() {
+            return "bytesRead=" + bytesRead
+                    + ", framesAccepted=" + framesAccepted
+                    + ", checksumFailures=" + checksumFailures
+                    + ", lengthMismatches=" + lengthMismatches
+                    + ", resyncBytesSkipped=" + resyncBytesSkipped
+                    + ", readTimeouts=" + readTimeouts
+                    + ", stalls=" + stalls
+                    + ", framePeriodNanos=" + framePeriodNanos
+                    + ", missedFrames=" + missedFrames
+                    + ", queueDrops=" + queueDrops
+                    + ", packetsOverwritten=" + packetsOverwritten;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // Reader thread only
+
+    void addBytesRead(int numBytes) {
+        mBytesRead.lazySet(mBytesRead.get() + numBytes);
+    }
+
+    void frameAccepted() {
+        mFramesAccepted.lazySet(mFramesAccepted.get() + 1);
+    }
+
+    void checksumFailure() {
+        mChecksumFailures.lazySet(mChecksumFailures.get() + 1);
+    }
+
+    long checksumFailures() {
+        return mChecksumFailures.get();
+    }
+
+    void lengthMismatch() {
+        mLengthMismatches.lazySet(mLengthMismatches.get() + 1);
+    }
+
+    void setResyncBytesSkipped(long skippedBytes) {
+        mResyncBytesSkipped.lazySet(skippedBytes);
+    }
+
+    void readTimeout() {
+        mReadTimeouts.lazySet(mReadTimeouts.get() + 1);
+    }
+
+    void stall() {
+        mStalls.lazySet(mStalls.get() + 1);
+    }
+
+    void setFramePeriodNanos(long periodNanos) {
+        mFramePeriodNanos.lazySet(periodNanos);
+    }
+
+    void setMissedFrames(long missedFrames) {
+        mMissedFrames.lazySet(missedFrames);
+    }
+
+    void setPacketsOverwritten(long overwritten) {
+        mPacketsOverwritten.lazySet(overwritten);
+    }
+
+    // Any thread: PacketReader.addPacket() drops packets too
+
+    void queueDrop() {
+        mQueueDrops.incrementAndGet();
+    }
+}
@@ -0,0 +1,167 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.TimeUnit;
+
+import com.naiveroboticist.sensor.PacketAccumulator.AccumulatorType;
+
+/**
+ * Sliding-window filter over one sensor's values, kept in primitive rings so
+ * an update never allocates. Moving average, EMA and rate of change are
+ * O(1) per update, min and max amortised O(1) (monotonic queue), and the
+ * median O(window) to keep its sorted copy, with the window a small
+ * constant.
+ *
+ * Only used from the accumulating thread.
+ */
+class SensorFilter {
+    // Fixed point fraction bits for the EMA state
+    private static final int EMA_SHIFT = 16;
+
+    private final AccumulatorType mType;
+    private final int mWindow;
+    // Last mWindow samples, oldest first from mNext - mCount
+    private final int[] mValues;
+    private final long[] mTimestamps;
+    private long mNext;
+    private int mCount;
+    private long mSum;
+    private long mEma;
+    // Min / max: candidate values and their sample numbers, a deque of
+    // mDequeSize entries held in a ring from mDequeHead
+    private final int[] mDequeValues;
+    private final long[] mDequeSamples;
+    private int mDequeHead;
+    private int mDequeSize;
+    // Median: the window's values kept sorted
+    private final int[] mSorted;
+
+    SensorFilter(AccumulatorType type, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        mType = type;
+        mWindow = window;
+        mValues = new int[window];
+        mTimestamps = new long[window];
+        mDequeValues = new int[window];
+        mDequeSamples = new long[window];
+        mSorted = new int[window];
+        reset();
+    }
+
+    static boolean isFilter(AccumulatorType type) {
+        return type != AccumulatorType.Sum && type != AccumulatorType.Value;
+    }
+
+    void reset() {
+        mNext = 0;
+        mCount = 0;
+        mSum = 0;
+        mEma = 0;
+        mDequeHead = 0;
+        mDequeSize = 0;
+    }
+
+    /**
+     * Adds a sample and returns the filter's output.
+     *
+     * @param timestampNanos when the sample was read, or 0 if unknown
+     */
+    int update(int value, long timestampNanos) {
+        boolean full = mCount == mWindow;
+        int slot = (int) (mNext % mWindow);
+        int evicted = mValues[slot];
+        long evictedTimestamp = mTimestamps[slot];
+        // Rate of change compares against the oldest sample still held
+        int oldest = full ? evicted : mValues[(int) ((mNext - mCount) % mWindow)];
+        long oldestTimestamp = full ? evictedTimestamp : mTimestamps[(int) ((mNext - mCount) % mWindow)];
+        int oldestAge = full ? mWindow : mCount;
+
+        mValues[slot] = value;
+        mTimestamps[slot] = timestampNanos;
+        long sample = mNext++;
+        if (! full) {
+            mCount++;
+        }
+
+        switch (mType) {
+        case MovingAverage:
+            mSum += value - (full ? evicted : 0);
+            return (int) (mSum / mCount);
+        case Ema:
+            if (mCount == 1) {
+                mEma = (long) value << EMA_SHIFT;
+            } else {
+                mEma += (((long) value << EMA_SHIFT) - mEma) / mWindow;
+            }
+            return (int) (mEma >> EMA_SHIFT);
+        case Min:
+        case Max:
+            return updateExtreme(value, sample);
+        case Median:
+            return updateMedian(value, full, evicted);
+        case RateOfChange:
+            if (oldestAge == 0) {
+                return 0;
+            }
+            if (timestampNanos != 0 && oldestTimestamp != 0 && timestampNanos > oldestTimestamp) {
+                // Units per second
+                return (int) ((long) (value - oldest) * TimeUnit.SECONDS.toNanos(1) / (timestampNanos - oldestTimestamp));
+            }
+            // No timing; units per sample
+            return (value - oldest) / oldestAge;
+        default:
+            return value;
+        }
+    }
+
+    // General private methods
+
+    private int updateExtreme(int value, long sample) {
+        boolean max = mType == AccumulatorType.Max;
+        // Drop candidates that have left the window
+        if (mDequeSize > 0 && mDequeSamples[mDequeHead] <= sample - mWindow) {
+            mDequeHead = wrap(mDequeHead + 1);
+            mDequeSize--;
+        }
+        // Drop candidates the new value beats; they can never be the answer
+        while (mDequeSize > 0) {
+            int last = mDequeValues[wrap(mDequeHead + mDequeSize - 1)];
+            if (max ? last > value : last < value) {
+                break;
+            }
+            mDequeSize--;
+        }
+        int tail = wrap(mDequeHead + mDequeSize);
+        mDequeValues[tail] = value;
+        mDequeSamples[tail] = sample;
+        mDequeSize++;
+        return mDequeValues[mDequeHead];
+    }
+
+    // Ring indexes stay below 2 * mWindow, so one subtraction wraps them
+    private int wrap(int index) {
+        return index >= mWindow ? index - mWindow : index;
+    }
+
+    private int updateMedian(int value, boolean full, int evicted) {
+        int size = full ? mWindow : mCount - 1;
+        if (full) {
+            // Remove the evicted value, closing the gap
+            int i = 0;
+            while (mSorted[i] != evicted) {
+                i++;
+            }
+            System.arraycopy(mSorted, i + 1, mSorted, i, size - i - 1);
+            size--;
+        }
+        int i = size;
+        while (i > 0 && mSorted[i - 1] > value) {
+            mSorted[i] = mSorted[i - 1];
+            i--;
+        }
+        mSorted[i] = value;
+        size++;
+        return mSorted[(size - 1) / 2];
+    }
+}
@@ -2,157 +2,172 @@ package com.naiveroboticist.sensor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.interfaces.ISensorValueVisitor;
+import com.naiveroboticist.sensor.PacketFramer.FrameStatus;
 
 public class SensorPacketReader {
 	private static final int MAX_TRIES = 100;
-	/**
-	 * Sensor packet, payload size values
-	 */
-	private static final int[] PACKET_PAYLOAD_SIZES = {
-		0, 0, 0, 0, 0, 0, 0, // Not used
-		1, // * Bumps and Wheel Drops -  7 - 1 byte
-	    1, // * Wall                     8 - 1 byte
-	    1, // * Cliff Left               9 - 1 byte
-	    1, // * Cliff Front Left        10 - 1 byte
-	    1, // * Cliff Front Right       11 - 1 byte
-	    1, // * Cliff Right             12 - 1 byte
-	    1, // * Virtual Wall            13 - 1 byte
-	    1, // * Low Side Driver UnderC  14 - 1 byte
-	    1, // * Unused bytes            15 - 1 byte
-	    1, // * Unused bytes            16 - 1 byte
-	    1, // * Infrared byte           17 - 1 byte
-	    1, // * Buttons                 18 - 1 byte
-	    2, // * Distance                19 - 2 bytes (signed)
-	    2, // * Angle                   20 - 2 bytes (signed)
-	    1, // * Charging State          21 - 1 byte
-	    2, // * Voltage                 22 - 2 bytes 
-	    2, // * Current                 23 - 2 bytes
-	    1, // * Battery Temperature     24 - 1 byte (signed)
-	    2, // * Battery Charge          25   2 bytes
-	    2, // * Battery Capacity        26 - 2 bytes
-	    2, // * Wall Signal             27 - 2 bytes
-	    2, // * Cliff Left Signal       28 - 2 bytes
-	    2, // * Cliff Left Front Signal 29 - 2 bytes
-	    2, // * Cliff Front Right Sign  30 - 2 bytes
-	    2, // * Cliff Right Signal      31 - 2 bytes
-	    1, // * Cargo Bay Digital Input 32 - 1 byte
-	    2, // * Cargo Bay Analog Signal 33 - 2 bytes
-	    1, // * Charging Sources Avail  34 - 1 byte
-	    1, // * OI Mode                 35 - 1 byte
-	    1, // * Song Number             36 - 1 byte
-	    1, // * Song Playing            37 - 1 byte
-	    1, // * Number of Stream Pkts   38 - 1 byte
-	    2, // * Requested Velocity      39 - 2 bytes (signed)
-	    2, // * Requested Radius        40 - 2 bytes (signed)
-	    2, // * Requested Right Velo    41 - 2 bytes (signed)
-	    2 // * Requested Left Velo     42 - 2 bytes (signed)
-	};
-	
-	private static final byte PACKET_START = 0x13;
+	private static final int READ_BUFFER_SIZE = 100;
 	private static final int LEN_IDX = 1;
+	// Every value takes at least one byte of the (at most 255 byte) payload
+	public static final int MAX_VALUES = 255;
 	
 	private ByteBuffer mPacketBuffer;
+	private PacketFramer mFramer;
+	private int[] mValues;
+	// Reused by readCompletePacket()
+	private byte[] mReadBuffer;
+	// Input the framer had no room for yet, from mPendingStart
+	private byte[] mPending;
+	private int mPendingStart;
+	private int mPendingLength;
 	
 	public SensorPacketReader() {
 		mPacketBuffer = ByteBuffer.allocateDirect(512);
+		mFramer = new PacketFramer();
+		mValues = new int[MAX_VALUES];
+		mReadBuffer = new byte[READ_BUFFER_SIZE];
+		mPending = new byte[0];
+		mPendingStart = 0;
+		mPendingLength = 0;
 	}
 	
 	public void clear() {
 		mPacketBuffer.clear();
+		mFramer.clear();
+		mPendingStart = 0;
+		mPendingLength = 0;
 	}
 	
+	/**
+	 * Feeds a chunk of the serial stream to the framer. Returns true once a
+	 * complete packet is available; any further packets in the chunk are
+	 * kept and returned by subsequent calls (numBytes may be 0).
+	 */
 	public boolean readPacket(byte[] buffer, int numBytes) throws InvalidPacketError {
-		int packetStart = 0;
-		
-		if (numBytes == 0) {
-		    return false; // Nothing to do
-		}
-		
-		if (mPacketBuffer.position() == 0) {
-			packetStart = findPacketStartInBuffer(buffer, numBytes);
+		int offset = 0;
+		if (mPendingLength > 0) {
+			// The chunk goes behind what is still waiting from earlier ones
+			keep(buffer, 0, numBytes);
+			offset = numBytes;
 		}
-		
-		if (packetStart == -1) {
-			return false; // The start byte wasn't found
-		}
-		
-		for (int i=packetStart; i<numBytes; i++) {
-			mPacketBuffer.put(buffer[i]);
-		}
-				
-		if (mPacketBuffer.position() < 2) {
-			return false; // Haven't read the length byte yet
-		}
-		
-		if (mPacketBuffer.get(LEN_IDX) == 0) {
-			mPacketBuffer.clear();
-			return false;
+		while (true) {
+			if (mPendingLength > 0) {
+				int consumed = mFramer.consume(mPending, mPendingStart, mPendingLength);
+				mPendingStart += consumed;
+				mPendingLength -= consumed;
+			} else {
+				offset += mFramer.consume(buffer, offset, numBytes - offset);
+			}
+			FrameStatus status = mFramer.nextFrame(mPacketBuffer);
+			while (status == FrameStatus.BadLength) {
+				status = mFramer.nextFrame(mPacketBuffer);
+			}
+			
+			if (status != FrameStatus.NeedMore) {
+				// Keep whatever is left of the chunk for the next call
+				keep(buffer, offset, numBytes - offset);
+				if (status == FrameStatus.BadChecksum) {
+					mPacketBuffer.clear();
+					throw new InvalidPacketError("Invalid checksum");
+				}
+				return true;
+			}
+			
+			if (mPendingLength == 0 && offset >= numBytes) {
+				return false;
+			}
 		}
-		
-		// +3 due to START byte, LENGTH byte & CHKSUM bytes
-		int packetLength = mPacketBuffer.get(LEN_IDX) + 3;
-		if (mPacketBuffer.position() < packetLength) {
-			return false; // Haven't read the entire packet yet
+	}
+	
+	// Appends input to mPending, which grows only for chunks larger than
+	// the framer's ring
+	private void keep(byte[] buffer, int offset, int numBytes) {
+		if (numBytes <= 0) {
+			return;
 		}
-		
-		if (! validChecksum(packetLength)) {
-			mPacketBuffer.clear();
-			throw new InvalidPacketError("Invalid checksum");
+		if (mPendingStart + mPendingLength + numBytes > mPending.length) {
+			byte[] pending = mPending;
+			if (mPendingLength + numBytes > pending.length) {
+				pending = new byte[Math.max(2 * pending.length, mPendingLength + numBytes)];
+			}
+			System.arraycopy(mPending, mPendingStart, pending, 0, mPendingLength);
+			mPending = pending;
+			mPendingStart = 0;
 		}
-		
-		return true;
+		System.arraycopy(buffer, offset, mPending, mPendingStart + mPendingLength, numBytes);
+		mPendingLength += numBytes;
 	}
 	
 	public String formatPacketBuffer() {
-	    byte[] buff = mPacketBuffer.array();
-	    int packetLength = buff[LEN_IDX] + 3;
+	    // The buffer is direct, so no array() here
+	    int packetLength = (mPacketBuffer.get(LEN_IDX) & 0xff) + 3;
 	    StringBuffer sb = new StringBuffer();
 	    for (int i=0; i<packetLength; i++) {
 	        if (i > 0) {
 	            sb.append(", ");
 	        }
-	        sb.append((int)buff[i]);
+	        sb.append((int) mPacketBuffer.get(i));
 	    }
 	    return sb.toString();
 	}
 	
 	public ArrayList<Integer> getPacketValues() throws InvalidPacketError {
-		ArrayList<Integer> values = new ArrayList<Integer>();
+		int count = getPacketValues(mValues);
 		
-		int lastIndex = mPacketBuffer.get(LEN_IDX) + 2;
-		
-		mPacketBuffer.position(LEN_IDX + 1);
-		// The -1 is for the last checksum
-		while (mPacketBuffer.position() < lastIndex) {
-			int sensorPacket = mPacketBuffer.get();
-			if (sensorPacket < 0 || sensorPacket >= PACKET_PAYLOAD_SIZES.length) {
-			    throw new InvalidPacketError("Invalid sensor value: " + sensorPacket + ": Packet position = " + mPacketBuffer.position() + " Last Index = " + lastIndex);
-			}
-			int numBytes = PACKET_PAYLOAD_SIZES[sensorPacket];
-			if (numBytes == 1) {
-				values.add(new Integer(mPacketBuffer.get()));
-			} else if (numBytes == 2) {
-				int value = (mPacketBuffer.get() << 8) | mPacketBuffer.get();
-				values.add(new Integer(value));
-			} else if (numBytes == 0) {
-			    // Nothing to do.
-			} else {
-				throw new InvalidPacketError("Invalid payload size: " + numBytes);
-			}
+		ArrayList<Integer> values = new ArrayList<Integer>(count);
+		for (int i=0; i<count; i++) {
+			values.add(Integer.valueOf(mValues[i]));
 		}
-				
 		return values;
 	}
 	
+	/**
+	 * Decodes the current packet's values, in stream order with groups
+	 * expanded, into values (which should hold MAX_VALUES). Returns the
+	 * number written. Nothing is allocated.
+	 */
+	public int getPacketValues(int[] values) throws InvalidPacketError {
+		return decodeValues(values, null, null);
+	}
+	
+	/**
+	 * As getPacketValues(int[]), but the values are put at the buffer's
+	 * position, which is left just after them.
+	 */
+	public int getPacketValues(IntBuffer values) throws InvalidPacketError {
+		return decodeValues(null, values, null);
+	}
+	
+	/**
+	 * Hands each of the current packet's values, with its sensor id, to the
+	 * visitor. Returns the number of values visited.
+	 */
+	public int visitPacketValues(ISensorValueVisitor visitor) throws InvalidPacketError {
+		return decodeValues(null, null, visitor);
+	}
+	
+	/**
+	 * Single pass decode of the current packet using a precompiled layout.
+	 * Values are written in layout order; returns the number written.
+	 */
+	public int getPacketValues(StreamLayout layout, int[] values) throws InvalidPacketError {
+	    if (! layout.matches(mPacketBuffer, 0)) {
+	        throw new InvalidPacketError("Packet does not match stream layout");
+	    }
+	    return layout.decode(mPacketBuffer, 0, values);
+	}
+	
 	public void readCompletePacket(IRobotReader rrw, int timeoutMillis) throws IOException, InvalidPacketError {
 	    int tries = 0;
-	    mPacketBuffer.clear();
-	    byte[] buffer = new byte[100];
+	    byte[] buffer = mReadBuffer;
 	    
-	    boolean doneReading = false;
+	    // A packet may already be waiting from the previous read
+	    boolean doneReading = readPacket(buffer, 0);
 	    while (! doneReading) {
 	        tries++;
 	        if (tries > MAX_TRIES) {
@@ -162,27 +177,45 @@ public class SensorPacketReader {
 	        doneReading = readPacket(buffer, numBytes);
 	    }
 	}
-		
-	private boolean validChecksum(int packetLength) {
-		byte sum = 0;
-		
-		for (int i=0; i<packetLength; i++) {
-			sum += mPacketBuffer.get(i);
-		}
-		return (byte)(sum & (byte) 0xff) == 0;
-	}
 	
-	private int findPacketStartInBuffer(byte[] buffer, int numBytes) {
-		int packetStart = -1;
+	// General private methods
+	
+	// One walk of the packet for all three outputs; exactly one is non-null
+	private int decodeValues(int[] array, IntBuffer buffer, ISensorValueVisitor visitor) throws InvalidPacketError {
+		int lastIndex = (mPacketBuffer.get(LEN_IDX) & 0xff) + 2;
+		int count = 0;
 		
-		for (int i=0; i<numBytes; i++) {
-			if (buffer[i] == PACKET_START) {
-				packetStart = i;
-				break;
+		int index = LEN_IDX + 1;
+		// The -1 is for the last checksum
+		while (index < lastIndex) {
+			byte sensorPacket = mPacketBuffer.get(index++);
+			int numBytes = SensorSchema.width(sensorPacket);
+			if (numBytes == 0) {
+			    throw new InvalidPacketError("Invalid sensor value: " + sensorPacket + ": Packet position = " + index + " Last Index = " + lastIndex);
+			}
+			byte[] members = SensorSchema.members(sensorPacket);
+			if (members == null) {
+				emit(array, buffer, visitor, count++, sensorPacket, SensorSchema.decode(sensorPacket, mPacketBuffer, index));
+				index += numBytes;
+			} else {
+				// Groups expand to their members' values
+				for (int i=0; i<members.length; i++) {
+					emit(array, buffer, visitor, count++, members[i], SensorSchema.decode(members[i], mPacketBuffer, index));
+					index += SensorSchema.width(members[i]);
+				}
 			}
 		}
 		
-		return packetStart;
+		return count;
+	}
+	
+	private static void emit(int[] array, IntBuffer buffer, ISensorValueVisitor visitor, int index, byte sensor, int value) {
+		if (array != null) {
+			array[index] = value;
+		} else if (buffer != null) {
+			buffer.put(value);
+		} else {
+			visitor.sensorValue(sensor, value);
+		}
 	}
-
 }
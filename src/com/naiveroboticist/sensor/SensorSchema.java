@@ -0,0 +1,198 @@
+package com.naiveroboticist.sensor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The Open Interface sensor packet ids: value width, signedness and the
+ * scale from raw value to SI units, plus the members of the group packets.
+ * All sensor decoding goes through here so there is one table to maintain.
+ *
+ * Lookups take the id as an int or byte and mask it to 0-255, so unknown or
+ * negative ids just come back with width 0 rather than failing.
+ */
+public final class SensorSchema {
+    private static final int NUM_IDS = 256;
+
+    // Per id tables. Sign extension is a shift pair: (raw << s) >> s with
+    // s = 32 - bits for signed values and 0 for unsigned ones.
+    private static final int[] WIDTHS = new int[NUM_IDS];
+    private static final int[] SIGN_SHIFTS = new int[NUM_IDS];
+    private static final double[] SCALES = new double[NUM_IDS];
+    private static final String[] UNITS = new String[NUM_IDS];
+    private static final String[] NAMES = new String[NUM_IDS];
+    private static final byte[][] GROUP_MEMBERS = new byte[NUM_IDS][];
+
+    static {
+        sensor(7, "Bumps and Wheel Drops", 1, false, 1, "");
+        sensor(8, "Wall", 1, false, 1, "");
+        sensor(9, "Cliff Left", 1, false, 1, "");
+        sensor(10, "Cliff Front Left", 1, false, 1, "");
+        sensor(11, "Cliff Front Right", 1, false, 1, "");
+        sensor(12, "Cliff Right", 1, false, 1, "");
+        sensor(13, "Virtual Wall", 1, false, 1, "");
+        sensor(14, "Low Side Driver and Wheel Overcurrents", 1, false, 1, "");
+        sensor(15, "Unused", 1, false, 1, "");
+        sensor(16, "Unused", 1, false, 1, "");
+        sensor(17, "Infrared", 1, false, 1, "");
+        sensor(18, "Buttons", 1, false, 1, "");
+        sensor(19, "Distance", 2, true, 0.001, "m");
+        sensor(20, "Angle", 2, true, 1, "deg");
+        sensor(21, "Charging State", 1, false, 1, "");
+        sensor(22, "Voltage", 2, false, 0.001, "V");
+        sensor(23, "Current", 2, true, 0.001, "A");
+        sensor(24, "Battery Temperature", 1, true, 1, "C");
+        sensor(25, "Battery Charge", 2, false, 0.001, "Ah");
+        sensor(26, "Battery Capacity", 2, false, 0.001, "Ah");
+        sensor(27, "Wall Signal", 2, false, 1, "");
+        sensor(28, "Cliff Left Signal", 2, false, 1, "");
+        sensor(29, "Cliff Front Left Signal", 2, false, 1, "");
+        sensor(30, "Cliff Front Right Signal", 2, false, 1, "");
+        sensor(31, "Cliff Right Signal", 2, false, 1, "");
+        sensor(32, "Cargo Bay Digital Inputs", 1, false, 1, "");
+        sensor(33, "Cargo Bay Analog Signal", 2, false, 1, "");
+        sensor(34, "Charging Sources Available", 1, false, 1, "");
+        sensor(35, "OI Mode", 1, false, 1, "");
+        sensor(36, "Song Number", 1, false, 1, "");
+        sensor(37, "Song Playing", 1, false, 1, "");
+        sensor(38, "Number of Stream Packets", 1, false, 1, "");
+        sensor(39, "Requested Velocity", 2, true, 0.001, "m/s");
+        sensor(40, "Requested Radius", 2, true, 0.001, "m");
+        sensor(41, "Requested Right Velocity", 2, true, 0.001, "m/s");
+        sensor(42, "Requested Left Velocity", 2, true, 0.001, "m/s");
+        // Later Open Interface revisions
+        sensor(43, "Left Encoder Counts", 2, false, 1, "");
+        sensor(44, "Right Encoder Counts", 2, false, 1, "");
+        sensor(45, "Light Bumper", 1, false, 1, "");
+        sensor(46, "Light Bump Left Signal", 2, false, 1, "");
+        sensor(47, "Light Bump Front Left Signal", 2, false, 1, "");
+        sensor(48, "Light Bump Center Left Signal", 2, false, 1, "");
+        sensor(49, "Light Bump Center Right Signal", 2, false, 1, "");
+        sensor(50, "Light Bump Front Right Signal", 2, false, 1, "");
+        sensor(51, "Light Bump Right Signal", 2, false, 1, "");
+        sensor(52, "Infrared Character Left", 1, false, 1, "");
+        sensor(53, "Infrared Character Right", 1, false, 1, "");
+        sensor(54, "Left Motor Current", 2, true, 0.001, "A");
+        sensor(55, "Right Motor Current", 2, true, 0.001, "A");
+        sensor(56, "Main Brush Motor Current", 2, true, 0.001, "A");
+        sensor(57, "Side Brush Motor Current", 2, true, 0.001, "A");
+        sensor(58, "Stasis", 1, false, 1, "");
+
+        group(0, 7, 26);
+        group(1, 7, 16);
+        group(2, 17, 20);
+        group(3, 21, 26);
+        group(4, 27, 34);
+        group(5, 35, 42);
+        group(6, 7, 42);
+        group(100, 7, 58);
+        group(101, 43, 58);
+        group(106, 46, 51);
+        group(107, 54, 58);
+    }
+
+    private SensorSchema() {
+    }
+
+    /**
+     * Number of bytes that follow the id in a stream: the value's width for
+     * a sensor, the sum of its members' widths for a group, or 0 for an id
+     * we don't know.
+     */
+    public static int width(int sensor) {
+        return WIDTHS[sensor & 0xff];
+    }
+
+    public static boolean isKnown(int sensor) {
+        return WIDTHS[sensor & 0xff] != 0;
+    }
+
+    public static boolean isGroup(int sensor) {
+        return GROUP_MEMBERS[sensor & 0xff] != null;
+    }
+
+    public static boolean isSigned(int sensor) {
+        return SIGN_SHIFTS[sensor & 0xff] != 0;
+    }
+
+    /**
+     * Member sensor ids of a group packet in stream order, or null if the
+     * id isn't a group.
+     */
+    public static byte[] groupMembers(int sensor) {
+        byte[] members = GROUP_MEMBERS[sensor & 0xff];
+        return members == null ? null : Arrays.copyOf(members, members.length);
+    }
+
+    // Shared, unmodifiable by convention; for the decoders in this package
+    static byte[] members(int sensor) {
+        return GROUP_MEMBERS[sensor & 0xff];
+    }
+
+    public static String name(int sensor) {
+        return NAMES[sensor & 0xff];
+    }
+
+    /**
+     * SI unit of scale() * raw value, or "" for counts, flags and codes.
+     */
+    public static String units(int sensor) {
+        return UNITS[sensor & 0xff];
+    }
+
+    public static double scale(int sensor) {
+        return SCALES[sensor & 0xff];
+    }
+
+    public static double toUnits(int sensor, int value) {
+        return SCALES[sensor & 0xff] * value;
+    }
+
+    /**
+     * Decodes the value of a (non-group) sensor whose big-endian value bytes
+     * start at pos.
+     */
+    public static int decode(int sensor, byte[] buffer, int pos) {
+        int id = sensor & 0xff;
+        int raw = buffer[pos] & 0xff;
+        if (WIDTHS[id] == 2) {
+            raw = (raw << 8) | (buffer[pos + 1] & 0xff);
+        }
+        int shift = SIGN_SHIFTS[id];
+        return (raw << shift) >> shift;
+    }
+
+    public static int decode(int sensor, ByteBuffer buffer, int pos) {
+        int id = sensor & 0xff;
+        int raw = buffer.get(pos) & 0xff;
+        if (WIDTHS[id] == 2) {
+            raw = (raw << 8) | (buffer.get(pos + 1) & 0xff);
+        }
+        int shift = SIGN_SHIFTS[id];
+        return (raw << shift) >> shift;
+    }
+
+    // Table construction
+
+    private static void sensor(int id, String name, int width, boolean signed, double scale, String units) {
+        WIDTHS[id] = width;
+        SIGN_SHIFTS[id] = signed ? 32 - 8 * width : 0;
+        SCALES[id] = scale;
+        UNITS[id] = units;
+        NAMES[id] = name;
+    }
+
+    private static void group(int id, int firstSensor, int lastSensor) {
+        byte[] members = new byte[lastSensor - firstSensor + 1];
+        int width = 0;
+        for (int i=0; i<members.length; i++) {
+            members[i] = (byte) (firstSensor + i);
+            width += WIDTHS[firstSensor + i];
+        }
+        GROUP_MEMBERS[id] = members;
+        WIDTHS[id] = width;
+        NAMES[id] = "Group " + id;
+        UNITS[id] = "";
+        SCALES[id] = 1;
+    }
+}
@@ -0,0 +1,68 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dense table of sensor values indexed by sensor id. Writers group their
+ * updates between beginWrite() and endWrite() (a SequenceLock), so readers
+ * never block: single values are read directly and snapshot() retries until
+ * it sees a set of values that all came from the same write.
+ */
+public class SensorValueTable {
+    private static final int NUM_SENSOR_IDS = 256;
+
+    private final AtomicIntegerArray mValues;
+    private final SequenceLock mLock;
+
+    public SensorValueTable() {
+        mValues = new AtomicIntegerArray(NUM_SENSOR_IDS);
+        mLock = new SequenceLock();
+    }
+
+    public void beginWrite() {
+        mLock.beginWrite();
+    }
+
+    public void endWrite() {
+        mLock.endWrite();
+    }
+
+    // Only to be called between beginWrite() and endWrite()
+
+    public void add(byte sensor, int additionalValue) {
+        int index = sensor & 0xff;
+        mValues.lazySet(index, mValues.get(index) + additionalValue);
+    }
+
+    public void set(byte sensor, int newValue) {
+        mValues.lazySet(sensor & 0xff, newValue);
+    }
+
+    // Lock-free readers
+
+    public int get(byte sensor) {
+        return mValues.get(sensor & 0xff);
+    }
+
+    /**
+     * Reads the given sensors into values such that all of them come from
+     * the same write. Returns the number of values read.
+     */
+    public int snapshot(byte[] sensors, int[] values) {
+        long sequence;
+        do {
+            sequence = mLock.beginRead();
+            for (int i=0; i<sensors.length; i++) {
+                values[i] = mValues.get(sensors[i] & 0xff);
+            }
+        } while (! mLock.endRead(sequence));
+        return sensors.length;
+    }
+
+    /**
+     * Number of completed writes; changes whenever the table does.
+     */
+    public long version() {
+        return mLock.version();
+    }
+}
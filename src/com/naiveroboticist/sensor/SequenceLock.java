@@ -0,0 +1,70 @@
+package com.naiveroboticist.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence lock for values that are written together and read without
+ * blocking the writer. Writers bracket their updates with beginWrite() and
+ * endWrite(); readers take beginRead(), read, and retry unless
+ * endRead() says no write overlapped:
+ *
+ *     long sequence;
+ *     do {
+ *         sequence = lock.beginRead();
+ *         ...read...
+ *     } while (! lock.endRead(sequence));
+ *
+ * The guarded values must themselves be safe to read while being written
+ * (e.g. atomic arrays); the lock only tells the reader whether what it
+ * read came from the same write.
+ */
+class SequenceLock {
+    // Even when stable, odd while a write is in progress
+    private final AtomicLong mSequence;
+
+    SequenceLock() {
+        mSequence = new AtomicLong(0);
+    }
+
+    void beginWrite() {
+        while (true) {
+            long sequence = mSequence.get();
+            if ((sequence & 1) == 0 && mSequence.compareAndSet(sequence, sequence + 1)) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    void endWrite() {
+        mSequence.incrementAndGet();
+    }
+
+    /**
+     * Waits out any write in progress and returns the sequence to hand to
+     * endRead().
+     */
+    long beginRead() {
+        while (true) {
+            long sequence = mSequence.get();
+            if ((sequence & 1) == 0) {
+                return sequence;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * True if nothing was written since beginRead() returned sequence.
+     */
+    boolean endRead(long sequence) {
+        return mSequence.get() == sequence;
+    }
+
+    /**
+     * Number of completed writes.
+     */
+    long version() {
+        return mSequence.get() >>> 1;
+    }
+}
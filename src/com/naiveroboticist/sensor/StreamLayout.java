@@ -0,0 +1,220 @@
+package com.naiveroboticist.sensor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The fixed layout of a STREAM packet for a given list of requested
+ * sensors. Compiling it once gives the byte offset of every sensor value in
+ * the frame so values can be read directly instead of re-parsing the payload
+ * for every lookup.
+ *
+ * Group packet ids are expanded into their member sensors: the layout's
+ * sensors (and decoded value arrays) list the members in place of the
+ * group, while matching still checks the ids actually on the wire.
+ */
+public class StreamLayout {
+    private static final int LEN_IDX = 1;
+    private static final int NUM_SENSOR_IDS = 256;
+
+    private final byte[] mStreamIds;
+    private final int[] mIdOffsets;
+    private final byte[] mSensors;
+    private final int[] mOffsets;
+    private final int[] mIndexBySensor;
+    private final int mPayloadLength;
+
+    /**
+     * @param streamIds the packet ids as requested in the STREAM command,
+     *        sensors or groups
+     */
+    public StreamLayout(byte[] streamIds) throws InvalidPacketError {
+        mStreamIds = Arrays.copyOf(streamIds, streamIds.length);
+        mIdOffsets = new int[streamIds.length];
+        int numSensors = 0;
+        for (int i=0; i<streamIds.length; i++) {
+            int streamId = streamIds[i];
+            if (! SensorSchema.isKnown(streamId)) {
+                throw new InvalidPacketError("Invalid sensor value: " + streamId);
+            }
+            numSensors += SensorSchema.isGroup(streamId) ? SensorSchema.groupMembers(streamId).length : 1;
+        }
+        mSensors = new byte[numSensors];
+        mOffsets = new int[numSensors];
+        mIndexBySensor = new int[NUM_SENSOR_IDS];
+        Arrays.fill(mIndexBySensor, -1);
+
+        // Offsets are relative to the start of the frame; the first id
+        // follows the START and LENGTH bytes.
+        int offset = LEN_IDX + 1;
+        int index = 0;
+        for (int i=0; i<streamIds.length; i++) {
+            byte streamId = streamIds[i];
+            mIdOffsets[i] = offset++;
+            byte[] members = SensorSchema.isGroup(streamId) ? SensorSchema.groupMembers(streamId) : new byte[] { streamId };
+            for (int j=0; j<members.length; j++) {
+                byte sensor = members[j];
+                mSensors[index] = sensor;
+                mOffsets[index] = offset;
+                if (mIndexBySensor[sensor & 0xff] < 0) {
+                    mIndexBySensor[sensor & 0xff] = index;
+                }
+                offset += SensorSchema.width(sensor);
+                index++;
+            }
+        }
+        mPayloadLength = offset - (LEN_IDX + 1);
+    }
+
+    /**
+     * Compiles the layout from the packet ids found in a complete packet.
+     */
+    public static StreamLayout fromPacket(Packet packet) throws InvalidPacketError {
+        int lastIndex = packet.packetLength() + 2;
+        byte[] sensors = new byte[packet.packetLength()];
+        int numSensors = 0;
+        int index = LEN_IDX + 1;
+        while (index < lastIndex) {
+            byte sensor = packet.get(index);
+            int numBytes = SensorSchema.width(sensor);
+            if (numBytes == 0) {
+                throw new InvalidPacketError("Invalid sensor value: " + sensor + ": Packet position = " + index + " Last Index = " + lastIndex);
+            }
+            sensors[numSensors++] = sensor;
+            index += 1 + numBytes;
+        }
+        if (index != lastIndex) {
+            throw new InvalidPacketError("Sensor values overrun packet length: " + index + " Last Index = " + lastIndex);
+        }
+        return new StreamLayout(Arrays.copyOf(sensors, numSensors));
+    }
+
+    /**
+     * The cached layout if it matches the packet (or the packet's own
+     * layout if not, or if nothing is cached yet), so a consumer that
+     * keeps the result only compiles a layout when the stream changes.
+     */
+    public static StreamLayout forPacket(StreamLayout cached, Packet packet) throws InvalidPacketError {
+        if (cached != null && cached.matches(packet)) {
+            return cached;
+        }
+        return fromPacket(packet);
+    }
+
+    /**
+     * Number of sensor values in the frame, with groups expanded.
+     */
+    public int numSensors() {
+        return mSensors.length;
+    }
+
+    public byte sensorAt(int index) {
+        return mSensors[index];
+    }
+
+    /**
+     * Number of packet ids in the frame, as requested.
+     */
+    public int numStreamIds() {
+        return mStreamIds.length;
+    }
+
+    public byte streamIdAt(int index) {
+        return mStreamIds[index];
+    }
+
+    /**
+     * Serial bytes per update: START, LENGTH, payload and checksum.
+     */
+    public int frameLength() {
+        return mPayloadLength + 3;
+    }
+
+    /**
+     * Position of the sensor in the layout (and in decoded value arrays),
+     * or -1 if the sensor isn't part of the stream.
+     */
+    public int indexOf(byte sensor) {
+        return mIndexBySensor[sensor & 0xff];
+    }
+
+    /**
+     * indexOf() for each of the sensors, in the same order.
+     */
+    public int[] indexesOf(byte[] sensors) {
+        int[] indexes = new int[sensors.length];
+        for (int i=0; i<sensors.length; i++) {
+            indexes[i] = indexOf(sensors[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Offset of the sensor's first value byte from the start of the frame,
+     * or -1 if the sensor isn't part of the stream.
+     */
+    public int offsetOf(byte sensor) {
+        int index = indexOf(sensor);
+        return index < 0 ? -1 : mOffsets[index];
+    }
+
+    /**
+     * The value of the LENGTH byte for packets with this layout.
+     */
+    public int payloadLength() {
+        return mPayloadLength;
+    }
+
+    /**
+     * True if the packet's length and sensor ids are those of this layout.
+     */
+    public boolean matches(Packet packet) {
+        if (! packet.isLengthByteRead() || (packet.get(LEN_IDX) & 0xff) != mPayloadLength) {
+            return false;
+        }
+        for (int i=0; i<mStreamIds.length; i++) {
+            if (packet.get(mIdOffsets[i]) != mStreamIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean matches(ByteBuffer frame, int start) {
+        if ((frame.get(start + LEN_IDX) & 0xff) != mPayloadLength) {
+            return false;
+        }
+        for (int i=0; i<mStreamIds.length; i++) {
+            if (frame.get(start + mIdOffsets[i]) != mStreamIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int valueOf(byte[] frame, int start, byte sensor) throws InvalidPacketError {
+        int index = indexOf(sensor);
+        if (index < 0) {
+            throw new InvalidPacketError("Sensor not in stream layout: " + sensor);
+        }
+        return SensorSchema.decode(mSensors[index], frame, start + mOffsets[index]);
+    }
+
+    /**
+     * Decodes every sensor value of the frame starting at start into values,
+     * in layout order. Returns the number of values written.
+     */
+    public int decode(byte[] frame, int start, int[] values) {
+        for (int i=0; i<mSensors.length; i++) {
+            values[i] = SensorSchema.decode(mSensors[i], frame, start + mOffsets[i]);
+        }
+        return mSensors.length;
+    }
+
+    public int decode(ByteBuffer frame, int start, int[] values) {
+        for (int i=0; i<mSensors.length; i++) {
+            values[i] = SensorSchema.decode(mSensors[i], frame, start + mOffsets[i]);
+        }
+        return mSensors.length;
+    }
+}
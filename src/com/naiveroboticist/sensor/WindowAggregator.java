@@ -0,0 +1,251 @@
+package com.naiveroboticist.sensor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.naiveroboticist.interfaces.IPacketListener;
+import com.naiveroboticist.interfaces.IWindowListener;
+
+/**
+ * Downsamples the sensor stream for telemetry export. Packets are bucketed
+ * by read timestamp into fixed windows (e.g. 100ms or 1s) and, for each
+ * configured sensor, the count, min, max, mean and last value over the
+ * window are kept in primitive arrays. When a packet falls past the end of
+ * the window the window is handed to the listener and a new one begins, so
+ * at the stream's ~15ms period a 1s window replaces some 66 packets with
+ * one record while still showing extremes such as a cliff sensor firing.
+ *
+ * Register it as a packet listener; use one aggregator per window size.
+ * Windows without any packets aren't reported. Not thread safe: feed it
+ * from one thread.
+ */
+public class WindowAggregator implements IPacketListener {
+    private final byte[] mSensors;
+    private final long mWindowNanos;
+    private final IWindowListener mListener;
+    private final Window mWindow;
+    private StreamLayout mLayout;
+    private int[] mLayoutIndexes;
+    private int[] mValues;
+    private boolean mStarted;
+    private long mWindowsClosed;
+
+    /**
+     * One window's aggregates. Sensor statistics are by position in the
+     * aggregator's sensor list.
+     */
+    public static class Window {
+        static final int HEADER_LENGTH = 21;
+        static final int SENSOR_LENGTH = 21;
+
+        private final byte[] mSensors;
+        private final int[] mCounts;
+        private final int[] mMins;
+        private final int[] mMaxes;
+        private final long[] mSums;
+        private final int[] mLasts;
+        private long mStart;
+        private long mEnd;
+        private int mNumPackets;
+
+        Window(byte[] sensors) {
+            mSensors = sensors;
+            mCounts = new int[sensors.length];
+            mMins = new int[sensors.length];
+            mMaxes = new int[sensors.length];
+            mSums = new long[sensors.length];
+            mLasts = new int[sensors.length];
+        }
+
+        /**
+         * Start of the window, in System.nanoTime() terms.
+         */
+        public long start() {
+            return mStart;
+        }
+
+        /**
+         * End of the window (exclusive).
+         */
+        public long end() {
+            return mEnd;
+        }
+
+        public int numPackets() {
+            return mNumPackets;
+        }
+
+        public int numSensors() {
+            return mSensors.length;
+        }
+
+        public byte sensorAt(int index) {
+            return mSensors[index];
+        }
+
+        /**
+         * Number of values seen for the sensor; 0 if no packet in the
+         * window carried it, in which case the other statistics are 0.
+         */
+        public int count(int index) {
+            return mCounts[index];
+        }
+
+        public int min(int index) {
+            return mMins[index];
+        }
+
+        public int max(int index) {
+            return mMaxes[index];
+        }
+
+        public double mean(int index) {
+            return mCounts[index] == 0 ? 0 : (double) mSums[index] / mCounts[index];
+        }
+
+        public int last(int index) {
+            return mLasts[index];
+        }
+
+        /**
+         * Bytes written by writeTo().
+         */
+        public int encodedLength() {
+            return HEADER_LENGTH + SENSOR_LENGTH * mSensors.length;
+        }
+
+        /**
+         * Writes the window as a compact record:
+         * { long start, long end, int packets, byte sensors, then per sensor
+         * { byte id, int count, int min, int max, float mean, int last } }.
+         */
+        public void writeTo(ByteBuffer buffer) {
+            buffer.putLong(mStart);
+            buffer.putLong(mEnd);
+            buffer.putInt(mNumPackets);
+            buffer.put((byte) mSensors.length);
+            for (int i=0; i<mSensors.length; i++) {
+                buffer.put(mSensors[i]);
+                buffer.putInt(mCounts[i]);
+                buffer.putInt(mMins[i]);
+                buffer.putInt(mMaxes[i]);
+                buffer.putFloat((float) mean(i));
+                buffer.putInt(mLasts[i]);
+            }
+        }
+
+        void clear(long start, long windowNanos) {
+            mStart = start;
+            mEnd = start + windowNanos;
+            mNumPackets = 0;
+            Arrays.fill(mCounts, 0);
+            Arrays.fill(mMins, 0);
+            Arrays.fill(mMaxes, 0);
+            Arrays.fill(mSums, 0);
+            Arrays.fill(mLasts, 0);
+        }
+
+        void add(int index, int value) {
+            if (mCounts[index] == 0 || value < mMins[index]) {
+                mMins[index] = value;
+            }
+            if (mCounts[index] == 0 || value > mMaxes[index]) {
+                mMaxes[index] = value;
+            }
+            mCounts[index]++;
+            mSums[index] += value;
+            mLasts[index] = value;
+        }
+    }
+
+    /**
+     * @param sensors the sensors to aggregate; at most 255
+     * @param windowMillis length of each window
+     */
+    public WindowAggregator(byte[] sensors, long windowMillis, IWindowListener listener) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + windowMillis);
+        }
+        if (sensors.length > 255) {
+            throw new IllegalArgumentException("Too many sensors: " + sensors.length);
+        }
+        mSensors = Arrays.copyOf(sensors, sensors.length);
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mListener = listener;
+        mWindow = new Window(mSensors);
+        mStarted = false;
+        mWindowsClosed = 0;
+    }
+
+    /**
+     * Adds the packet to the window covering its read timestamp (or now,
+     * if it has none), first closing the current window if the packet is
+     * past its end.
+     */
+    @Override
+    public void packetReceived(Packet packet) {
+        try {
+            StreamLayout layout = StreamLayout.forPacket(mLayout, packet);
+            if (layout != mLayout) {
+                compileLayout(layout);
+            }
+        } catch (InvalidPacketError e) {
+            return;
+        }
+        long timestamp = packet.timestamp() != 0 ? packet.timestamp() : System.nanoTime();
+        advanceTo(timestamp);
+
+        packet.getSensorValues(mLayout, mValues);
+        for (int i=0; i<mSensors.length; i++) {
+            int index = mLayoutIndexes[i];
+            if (index >= 0) {
+                mWindow.add(i, mValues[index]);
+            }
+        }
+        mWindow.mNumPackets++;
+    }
+
+    /**
+     * Reports the current window now, even though it isn't over, e.g. when
+     * the stream stops. Later packets start a new window.
+     */
+    public void flush() {
+        if (mStarted && mWindow.mNumPackets > 0) {
+            closeWindow();
+        }
+        mStarted = false;
+    }
+
+    public long windowsClosed() {
+        return mWindowsClosed;
+    }
+
+    // General private methods
+
+    private void advanceTo(long timestamp) {
+        if (! mStarted) {
+            mWindow.clear(timestamp, mWindowNanos);
+            mStarted = true;
+        } else if (timestamp - mWindow.mStart >= mWindowNanos) {
+            long start = mWindow.mStart + (timestamp - mWindow.mStart) / mWindowNanos * mWindowNanos;
+            if (mWindow.mNumPackets > 0) {
+                closeWindow();
+            }
+            // Skipped (empty) windows aren't reported
+            mWindow.clear(start, mWindowNanos);
+        }
+        // A timestamp before the window's start just counts towards it
+    }
+
+    private void closeWindow() {
+        mWindowsClosed++;
+        mListener.windowClosed(mWindow);
+    }
+
+    private void compileLayout(StreamLayout layout) {
+        mLayout = layout;
+        mValues = new int[layout.numSensors()];
+        mLayoutIndexes = layout.indexesOf(mSensors);
+    }
+}
@@ -1,5 +1,7 @@
 package com.naiveroboticist.utils;
 
+import java.nio.ByteBuffer;
+
 public class ByteMethods {
 
     public static byte uB(int word) {
@@ -14,26 +16,36 @@ public class ByteMethods {
         byte[] buffer = new byte[words.length * 2];
         
         for (int i=0; i<words.length; i++) {
-            int bufferIdx = i * 2;
-            buffer[bufferIdx] = uB(words[i]);
-            buffer[bufferIdx + 1] = lB(words[i]);
+            putWord(buffer, i * 2, words[i]);
         }
         
         return buffer;
     }
     
+    /**
+     * Writes the word big-endian (upper byte first) at offset and returns
+     * the offset just past it.
+     */
+    public static int putWord(byte[] buffer, int offset, int word) {
+        buffer[offset] = uB(word);
+        buffer[offset + 1] = lB(word);
+        return offset + 2;
+    }
+    
     public static short bytesToWord(int ub, int lb) {
         return (short)(0x0000ffff & ((ub & 0x000000ff)  << 8) | (lb & 0x000000ff));
     }
     
     public static int seek(byte[] buffer, int numBytes, byte marker) {
-        int pos = -1;
-        for (int i=0; i<numBytes && pos < 0; i++) {
-            if (marker == buffer[i]) {
-                pos = i;
-            }
-        }
-        return pos;
+        return ByteScan.indexOf(buffer, 0, numBytes, marker);
+    }
+    
+    /**
+     * Same as seek(byte[], ...) for a (typically cached) view of the bytes,
+     * which never allocates.
+     */
+    public static int seek(ByteBuffer view, int numBytes, byte marker) {
+        return ByteScan.indexOf(view, 0, numBytes, marker);
     }
     
     public static int sensorValueAsWord(byte[] buffer, int numBytes, byte sensor) {
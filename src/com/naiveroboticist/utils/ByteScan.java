@@ -0,0 +1,159 @@
+package com.naiveroboticist.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte-sum checksums and byte searches, eight bytes at a time. Each long
+ * read from the buffer is treated as eight byte lanes (SWAR, "SIMD within
+ * a register"): the sum adds the lanes pairwise into 16-bit lanes, and the
+ * search flags the lanes equal to the marker with a carry-free zero byte
+ * test, so neither needs a branch per byte.
+ *
+ * Views are best in the native byte order, which saves a byte swap per
+ * long; the results don't depend on the order. The byte[] overloads wrap
+ * a new view on each call long enough to use the SWAR loops, so code that
+ * mustn't allocate keeps a view of its buffer and passes that instead
+ * (as Packet and PacketFramer do).
+ *
+ * The implementation is chosen once, at class load: set the system
+ * property naiveroboticist.bytescan=scalar to fall back to the plain byte
+ * loops, e.g. on JVMs where ByteBuffer.getLong() on a heap buffer isn't
+ * intrinsified and the SWAR loops end up slower.
+ */
+public final class ByteScan {
+    public static final String SCAN_PROPERTY = "naiveroboticist.bytescan";
+
+    private static final boolean SWAR = ! "scalar".equals(System.getProperty(SCAN_PROPERTY));
+    // Below this it isn't worth wrapping a byte[] in a view
+    private static final int MIN_WRAP_LENGTH = 32;
+
+    private static final long LOW_BYTES = 0x00ff00ff00ff00ffL;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LANE_ONES = 0x0001000100010001L;
+
+    private ByteScan() {
+    }
+
+    /**
+     * True if the SWAR loops are in use, false for the scalar fallback.
+     */
+    public static boolean isSwar() {
+        return SWAR;
+    }
+
+    /**
+     * Sum of count bytes from start, modulo 256. A frame whose bytes sum
+     * to 0 has a valid checksum.
+     */
+    public static int sum(ByteBuffer buffer, int start, int count) {
+        return SWAR ? swarSum(buffer, start, count) : scalarSum(buffer, start, count);
+    }
+
+    /**
+     * As sum(ByteBuffer, ...), but allocates a view of the array when count
+     * is long enough to be worth one.
+     */
+    public static int sum(byte[] buffer, int start, int count) {
+        if (SWAR && count >= MIN_WRAP_LENGTH) {
+            return swarSum(ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder()), start, count);
+        }
+        return scalarSum(buffer, start, count);
+    }
+
+    /**
+     * Index of the first occurrence of marker in [start, end), or -1.
+     */
+    public static int indexOf(ByteBuffer buffer, int start, int end, byte marker) {
+        return SWAR ? swarIndexOf(buffer, start, end, marker) : scalarIndexOf(buffer, start, end, marker);
+    }
+
+    /**
+     * As indexOf(ByteBuffer, ...), but allocates a view of the array when
+     * the range is long enough to be worth one.
+     */
+    public static int indexOf(byte[] buffer, int start, int end, byte marker) {
+        if (SWAR && end - start >= MIN_WRAP_LENGTH) {
+            return swarIndexOf(ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder()), start, end, marker);
+        }
+        return scalarIndexOf(buffer, start, end, marker);
+    }
+
+    // Both implementations, for the tests and benchmarks
+
+    static int swarSum(ByteBuffer buffer, int start, int count) {
+        int i = start;
+        int end = start + count;
+        // Four 16-bit lanes, each kept below 256 * 3 so none carries
+        long lanes = 0;
+        while (end - i >= 8) {
+            long word = buffer.getLong(i);
+            lanes = (lanes + (word & LOW_BYTES) + ((word >>> 8) & LOW_BYTES)) & LOW_BYTES;
+            i += 8;
+        }
+        // Add the lanes up in the top 16 bits
+        int sum = (int) ((lanes * LANE_ONES) >>> 48);
+        while (i < end) {
+            sum += buffer.get(i++);
+        }
+        return sum & 0xff;
+    }
+
+    static int scalarSum(ByteBuffer buffer, int start, int count) {
+        int sum = 0;
+        for (int i=start; i<start + count; i++) {
+            sum += buffer.get(i);
+        }
+        return sum & 0xff;
+    }
+
+    static int scalarSum(byte[] buffer, int start, int count) {
+        int sum = 0;
+        for (int i=start; i<start + count; i++) {
+            sum += buffer[i];
+        }
+        return sum & 0xff;
+    }
+
+    static int swarIndexOf(ByteBuffer buffer, int start, int end, byte marker) {
+        long pattern = (marker & 0xffL) * ONES;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int i = start;
+        while (end - i >= 8) {
+            long word = buffer.getLong(i) ^ pattern;
+            // High bit set in exactly the lanes that are now zero
+            long found = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+            if (found != 0) {
+                int lane = bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found);
+                return i + (lane >>> 3);
+            }
+            i += 8;
+        }
+        while (i < end) {
+            if (buffer.get(i) == marker) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    static int scalarIndexOf(ByteBuffer buffer, int start, int end, byte marker) {
+        for (int i=start; i<end; i++) {
+            if (buffer.get(i) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int scalarIndexOf(byte[] buffer, int start, int end, byte marker) {
+        for (int i=start; i<end; i++) {
+            if (buffer[i] == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
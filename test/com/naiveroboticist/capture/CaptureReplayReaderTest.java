@@ -0,0 +1,127 @@
+package com.naiveroboticist.capture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.capture.CaptureReplayReader.ReplayMode;
+import com.naiveroboticist.sensor.PacketReader;
+
+public class CaptureReplayReaderTest {
+    private static final byte[] FRAME = { 
+            0x13,
+            0x0b, 0x07, 0x00, 0x13, 
+            0x00, 
+            0x00, 0x14, 0x00, 0x00, 0x21, 
+            0x00, 0x3e, 85 };
+    private static final int NUM_FRAMES = 100;
+    
+    private File mCapture;
+    private CaptureReplayReader mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCapture = File.createTempFile("capture", ".raw");
+        FileOutputStream out = new FileOutputStream(mCapture);
+        try {
+            for (int i=0; i<NUM_FRAMES; i++) {
+                out.write(FRAME);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mCut != null) {
+            mCut.close();
+        }
+        mCapture.delete();
+    }
+
+    @Test
+    public void testReadsInChunks() throws IOException {
+        mCut = new CaptureReplayReader(mCapture, 5);
+        byte[] buffer = new byte[100];
+        
+        assertEquals(5, mCut.read(buffer, 0));
+        for (int i=0; i<5; i++) {
+            assertEquals(FRAME[i], buffer[i]);
+        }
+        assertEquals(5, mCut.position());
+    }
+
+    @Test
+    public void testBoundedReadAtOffset() throws IOException {
+        mCut = new CaptureReplayReader(mCapture, 1000);
+        byte[] buffer = new byte[100];
+        
+        assertEquals(3, mCut.read(buffer, 10, 3, 0));
+        assertEquals(0, buffer[9]);
+        for (int i=0; i<3; i++) {
+            assertEquals(FRAME[i], buffer[10 + i]);
+        }
+        assertEquals(0, buffer[13]);
+        assertEquals(3, mCut.position());
+    }
+
+    @Test
+    public void testReadsToEnd() throws IOException {
+        mCut = new CaptureReplayReader(mCapture, 1000);
+        byte[] buffer = new byte[64];
+        
+        long total = 0;
+        while (! mCut.isFinished()) {
+            total += mCut.read(buffer, 0);
+        }
+        assertEquals(FRAME.length * NUM_FRAMES, total);
+        assertEquals(0, mCut.read(buffer, 0));
+        
+        mCut.rewind();
+        assertFalse(mCut.isFinished());
+    }
+
+    @Test
+    public void testReplayThroughPacketReader() throws Exception {
+        mCut = new CaptureReplayReader(mCapture, 3);
+        PacketReader reader = new PacketReader(mCut, 11);
+        
+        int numPackets = 0;
+        while (! mCut.isFinished()) {
+            numPackets += reader.readAndQueuePackets();
+        }
+        assertEquals(NUM_FRAMES, numPackets);
+    }
+
+    @Test
+    public void testScaledTiming() throws IOException {
+        // 1400 bytes at 57600 baud is ~243ms; ten times faster is ~24ms
+        mCut = new CaptureReplayReader(mCapture, 64, ReplayMode.Scaled, 10.0);
+        byte[] buffer = new byte[64];
+        
+        long start = System.nanoTime();
+        while (! mCut.isFinished()) {
+            mCut.read(buffer, 1000);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Replay too fast: " + elapsedMillis, elapsedMillis >= 20);
+        assertTrue("Replay too slow: " + elapsedMillis, elapsedMillis < 200);
+    }
+
+    @Test
+    public void testTimeoutReturnsWhatHasArrived() throws IOException {
+        mCut = new CaptureReplayReader(mCapture, 1000, ReplayMode.OriginalTiming, 1.0);
+        byte[] buffer = new byte[1000];
+        
+        // ~57 bytes arrive in 10ms at 57600 baud
+        int numBytes = mCut.read(buffer, 10);
+        assertTrue("Read " + numBytes, numBytes > 20 && numBytes < 200);
+    }
+}
@@ -0,0 +1,118 @@
+package com.naiveroboticist.capture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.sensor.Packet;
+import com.naiveroboticist.utils.AllocationAssert;
+
+public class PacketRecorderTest {
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("recording", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testRecordAndReadBack() throws Exception {
+        PacketRecorder recorder = new PacketRecorder(mDirectory, "robot", 1024);
+        Packet packet = new Packet(512);
+        for (int i=0; i<200; i++) {
+            // Keep to a pace the helper thread can keep up with
+            while (! recorder.isNextSegmentReady()) {
+                Thread.sleep(1);
+            }
+            fillPacket(packet, i);
+            recorder.packetReceived(packet);
+        }
+        recorder.close();
+        
+        assertEquals(200, recorder.recorded());
+        assertEquals(0, recorder.dropped());
+        assertTrue(recorder.segmentNumber() > 0);
+        assertFalse(PacketRecorder.segmentFile(mDirectory, "robot", recorder.segmentNumber() + 1).exists());
+        
+        RecordingReader reader = new RecordingReader(mDirectory, "robot");
+        int[] values = new int[2];
+        int count = 0;
+        while (reader.next()) {
+            assertEquals(1000L + count, reader.timestamp());
+            assertEquals(2, reader.getSensorValues(values));
+            assertEquals(count % 100, values[0]);
+            assertEquals(count / 2, values[1]);
+            count++;
+        }
+        reader.close();
+        assertEquals(200, count);
+    }
+
+    @Test
+    public void testRolloverDoesNotWait() throws Exception {
+        PacketRecorder recorder = new PacketRecorder(mDirectory, "robot", 1024);
+        Packet packet = new Packet(512);
+        // Far faster than segments can be created, so some are dropped
+        for (int i=0; i<2000; i++) {
+            fillPacket(packet, i);
+            recorder.packetReceived(packet);
+        }
+        recorder.close();
+        
+        assertEquals(2000, recorder.recorded() + recorder.dropped());
+        RecordingReader reader = new RecordingReader(mDirectory, "robot");
+        long count = 0;
+        long lastTimestamp = 0;
+        while (reader.next()) {
+            assertTrue(reader.timestamp() > lastTimestamp);
+            lastTimestamp = reader.timestamp();
+            count++;
+        }
+        reader.close();
+        assertEquals(recorder.recorded(), count);
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() throws Exception {
+        final PacketRecorder recorder = new PacketRecorder(mDirectory, "robot", 1 << 20);
+        final Packet packet = new Packet(512);
+        fillPacket(packet, 1);
+        AllocationAssert.Action recordOne = new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                recorder.packetReceived(packet);
+            }
+        };
+        for (int i=0; i<1000; i++) {
+            recordOne.run();
+        }
+        
+        AllocationAssert.assertNoAllocation(recordOne, 10000);
+        recorder.close();
+        
+        assertEquals(0, recorder.segmentNumber());
+    }
+
+    // Frame with a Wall (8) value and a Distance (19) value
+    private void fillPacket(Packet packet, int i) {
+        byte[] buffer = { 0x13, 5, 0x08, (byte) (i % 100), 0x13, 0, (byte) (i / 2), 0 };
+        buffer[7] = Packet.calculateChecksum(buffer, 0, 7);
+        packet.clear();
+        packet.put(buffer, 0, buffer.length);
+        packet.setTimestamp(1000L + i);
+    }
+}
@@ -0,0 +1,175 @@
+package com.naiveroboticist.create;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.interfaces.IRobotWriter;
+
+public class BatchingRobotWriterTest {
+    
+    static class RecordingRobotWriter implements IRobotWriter {
+        ArrayList<byte[]> mWrites = new ArrayList<byte[]>();
+
+        @Override
+        public void sendCommand(byte command) throws IOException {
+            sendCommand(new byte[] { command });
+        }
+
+        @Override
+        public void sendCommand(byte command, byte[] payload) throws IOException {
+            byte[] buffer = new byte[payload.length + 1];
+            buffer[0] = command;
+            System.arraycopy(payload, 0, buffer, 1, payload.length);
+            sendCommand(buffer);
+        }
+
+        @Override
+        public void sendCommand(byte[] buffer) throws IOException {
+            sendCommand(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+            mWrites.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+    }
+    
+    private RecordingRobotWriter mRobot;
+    private BatchingRobotWriter mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mRobot = new RecordingRobotWriter();
+        mCut = new BatchingRobotWriter(mRobot);
+    }
+
+    @Test
+    public void testNothingSentUntilFlush() throws Exception {
+        mCut.sendCommand(Commands.START);
+        mCut.sendCommand(Commands.SAFE);
+        assertEquals(0, mRobot.mWrites.size());
+        assertEquals(2, mCut.pending());
+        
+        mCut.flush();
+        assertEquals(1, mRobot.mWrites.size());
+        assertArrayEquals(new byte[] { Commands.START, Commands.SAFE }, mRobot.mWrites.get(0));
+        assertEquals(0, mCut.pending());
+        assertEquals(1, mCut.writesSaved());
+    }
+
+    @Test
+    public void testFlushWithNothingPending() throws Exception {
+        mCut.flush();
+        assertEquals(0, mRobot.mWrites.size());
+    }
+
+    @Test
+    public void testRedundantSafeSuppressed() throws Exception {
+        mCut.sendCommand(Commands.SAFE);
+        mCut.sendCommand(Commands.SAFE);
+        assertEquals(BatchingRobotWriter.OIMode.Safe, mCut.mode());
+        mCut.flush();
+        
+        assertArrayEquals(new byte[] { Commands.SAFE }, mRobot.mWrites.get(0));
+        assertEquals(1, mCut.bytesSaved());
+    }
+
+    @Test
+    public void testEveryTickResendsSafe() throws Exception {
+        // The robot may have dropped back to passive mode between ticks
+        Commands commands = new Commands(mCut);
+        commands.drive(100, 0);
+        commands.flush();
+        assertEquals(BatchingRobotWriter.OIMode.Unknown, mCut.mode());
+        commands.drive(200, 0);
+        commands.flush();
+        
+        assertEquals(2, mRobot.mWrites.size());
+        assertArrayEquals(new byte[] { Commands.SAFE, Commands.DRIVE, 0x00, (byte) 200, 0x7f, (byte) 0xff }, 
+                mRobot.mWrites.get(1));
+        assertEquals(0, mCut.bytesSaved());
+    }
+
+    @Test
+    public void testInvalidateModeResendsSafe() throws Exception {
+        mCut.sendCommand(Commands.SAFE);
+        mCut.invalidateMode();
+        mCut.sendCommand(Commands.SAFE);
+        mCut.flush();
+        
+        assertArrayEquals(new byte[] { Commands.SAFE, Commands.SAFE }, mRobot.mWrites.get(0));
+        assertEquals(0, mCut.bytesSaved());
+    }
+
+    @Test
+    public void testDrivesCoalesced() throws Exception {
+        Commands commands = new Commands(mCut);
+        commands.drive(100, 0);
+        commands.rotate(50);
+        commands.stop();
+        commands.flush();
+        
+        assertEquals(1, mRobot.mWrites.size());
+        assertArrayEquals(new byte[] { Commands.SAFE, Commands.DRIVE, 0x00, 0x00, 0x7f, (byte) 0xff }, 
+                mRobot.mWrites.get(0));
+        // Two SAFEs and two DRIVEs never sent
+        assertEquals(2 + 2 * 5, mCut.bytesSaved());
+        assertEquals(5, mCut.writesSaved());
+    }
+
+    @Test
+    public void testDriveNotMovedBeforeModeChange() throws Exception {
+        mCut.sendCommand(Commands.SAFE);
+        mCut.sendCommand(Commands.DRIVE, new byte[] { 0x00, 0x64, 0x7f, (byte) 0xff });
+        mCut.sendCommand(Commands.START);
+        mCut.sendCommand(Commands.SAFE);
+        mCut.sendCommand(Commands.DRIVE, new byte[] { 0x00, 0x32, 0x7f, (byte) 0xff });
+        mCut.flush();
+        
+        assertEquals(13, mRobot.mWrites.get(0).length);
+        assertEquals(0, mCut.bytesSaved());
+    }
+
+    @Test
+    public void testRawCommandInvalidatesMode() throws Exception {
+        mCut.sendCommand(Commands.SAFE);
+        mCut.sendCommand(new byte[] { (byte) 0x8b, 0x08, 0x00, (byte) 0xff });
+        assertEquals(BatchingRobotWriter.OIMode.Unknown, mCut.mode());
+        mCut.sendCommand(Commands.SAFE);
+        assertEquals(6, mCut.pending());
+    }
+
+    @Test
+    public void testPayloadCommandInvalidatesMode() throws Exception {
+        mCut.sendCommand(Commands.SAFE);
+        mCut.sendCommand((byte) 0x8b, new byte[] { 0x08, 0x00, (byte) 0xff });
+        assertEquals(BatchingRobotWriter.OIMode.Unknown, mCut.mode());
+        mCut.sendCommand(Commands.SAFE);
+        assertEquals(6, mCut.pending());
+    }
+
+    @Test
+    public void testInitializeIsOneWrite() throws Exception {
+        Commands commands = new Commands(mCut);
+        commands.initialize();
+        
+        assertEquals(1, mRobot.mWrites.size());
+        assertEquals(5, mCut.writesSaved());
+    }
+
+    @Test
+    public void testFlushesWhenFull() throws Exception {
+        mCut = new BatchingRobotWriter(mRobot, 8);
+        mCut.sendCommand((byte) 0x8d, new byte[] { 0x00, 0x01, 0x02, 0x03 });
+        mCut.sendCommand((byte) 0x8d, new byte[] { 0x00, 0x01, 0x02, 0x03 });
+        
+        assertEquals(1, mRobot.mWrites.size());
+        assertEquals(5, mCut.pending());
+    }
+}
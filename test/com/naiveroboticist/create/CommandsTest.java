@@ -0,0 +1,155 @@
+package com.naiveroboticist.create;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.create.BatchingRobotWriterTest.RecordingRobotWriter;
+import com.naiveroboticist.interfaces.IFlushableRobotWriter;
+import com.naiveroboticist.interfaces.IRobotWriter;
+import com.naiveroboticist.utils.AllocationAssert;
+
+public class CommandsTest {
+    private RecordingRobotWriter mRobot;
+    private Commands mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mRobot = new RecordingRobotWriter();
+        mCut = new Commands(mRobot);
+    }
+
+    @Test
+    public void testDrive() throws Exception {
+        mCut.drive(-200, 500);
+        
+        assertEquals(2, mRobot.mWrites.size());
+        assertArrayEquals(new byte[] { Commands.SAFE }, mRobot.mWrites.get(0));
+        assertArrayEquals(new byte[] { Commands.DRIVE, (byte) 0xff, 0x38, 0x01, (byte) 0xf4 }, 
+                mRobot.mWrites.get(1));
+    }
+
+    @Test
+    public void testDriveStraight() throws Exception {
+        mCut.drive(100, 0);
+        
+        assertArrayEquals(new byte[] { Commands.DRIVE, 0x00, 0x64, 0x7f, (byte) 0xff }, 
+                mRobot.mWrites.get(1));
+    }
+
+    @Test
+    public void testPwmLowSideDrivers() throws Exception {
+        mCut.pwmLowSideDrivers((byte) 10, (byte) 20, (byte) 30);
+        
+        assertArrayEquals(new byte[] { (byte) 0x90, 30, 20, 10 }, mRobot.mWrites.get(0));
+    }
+
+    @Test
+    public void testFlushGoesToFlushableWriter() throws Exception {
+        final int[] flushes = new int[1];
+        class FlushCountingWriter extends RecordingRobotWriter implements IFlushableRobotWriter {
+            @Override
+            public void flush() throws IOException {
+                flushes[0]++;
+            }
+        }
+        mCut.flush();
+        mCut = new Commands(new FlushCountingWriter());
+        mCut.flush();
+        
+        assertEquals(1, flushes[0]);
+    }
+
+    @Test
+    public void testCommandsFromTwoThreadsDontInterleave() throws Exception {
+        Thread[] threads = new Thread[2];
+        for (int t=0; t<threads.length; t++) {
+            final int velocity = t == 0 ? 0x0101 : 0x0202;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0; i<5000; i++) {
+                            mCut.drive(velocity, velocity);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t=0; t<threads.length; t++) {
+            threads[t].join();
+        }
+        
+        assertEquals(2 * 2 * 5000, mRobot.mWrites.size());
+        for (int i=0; i<mRobot.mWrites.size(); i += 2) {
+            assertArrayEquals(new byte[] { Commands.SAFE }, mRobot.mWrites.get(i));
+            byte[] drive = mRobot.mWrites.get(i + 1);
+            assertEquals(Commands.DRIVE, drive[0]);
+            for (int b=2; b<drive.length; b++) {
+                assertEquals(drive[1], drive[b]);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamGroup() throws Exception {
+        mCut.streamGroup((byte) 2);
+        mCut.stream(new byte[] { 2, 33 });
+        
+        assertArrayEquals(new byte[] { (byte) 0x94, 1, 2 }, mRobot.mWrites.get(0));
+        assertArrayEquals(new byte[] { (byte) 0x94, 2, 2, 33 }, mRobot.mWrites.get(1));
+    }
+
+    @Test
+    public void testPutDriveAtOffset() {
+        byte[] buffer = new byte[8];
+        int offset = Commands.putDrive(buffer, 2, 1111, 1);
+        
+        assertEquals(2 + Commands.DRIVE_LENGTH, offset);
+        assertArrayEquals(new byte[] { 0, 0, Commands.DRIVE, 4, 87, 0, 1, 0 }, buffer);
+    }
+
+    @Test
+    public void testDriveDoesNotAllocate() throws Exception {
+        IRobotWriter robot = new IRobotWriter() {
+            @Override
+            public void sendCommand(byte command) throws IOException {
+            }
+
+            @Override
+            public void sendCommand(byte command, byte[] payload) throws IOException {
+            }
+
+            @Override
+            public void sendCommand(byte[] buffer) throws IOException {
+            }
+
+            @Override
+            public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+            }
+        };
+        BatchingRobotWriter batching = new BatchingRobotWriter(robot);
+        mCut = new Commands(batching);
+        AllocationAssert.Action sendOne = new AllocationAssert.Action() {
+            private int mCommand = 0;
+            @Override
+            public void run() throws Exception {
+                mCut.drive(mCommand & 0x1ff, 0);
+                mCut.pwmLowSideDrivers((byte) 0, (byte) 0, (byte) mCommand);
+                mCut.flush();
+                mCommand++;
+            }
+        };
+        for (int i=0; i<20000; i++) {
+            sendOne.run();
+        }
+        
+        AllocationAssert.assertNoAllocation(sendOne, 10000);
+    }
+}
@@ -0,0 +1,98 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameSequencerTest {
+    private static final long MILLIS = 1000000L;
+    private static final long PERIOD = 15 * MILLIS;
+    private static final long T0 = 5000 * MILLIS;
+
+    private FrameSequencer mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new FrameSequencer(PERIOD, 100 * MILLIS);
+    }
+
+    @Test
+    public void testSteadyStream() {
+        for (int i=0; i<10; i++) {
+            assertEquals(i + 1, mCut.nextSequence(T0 + i * PERIOD, 0, true));
+        }
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testJitterIsNotAGap() {
+        assertEquals(1, mCut.nextSequence(T0, 0, true));
+        assertEquals(2, mCut.nextSequence(T0 + 23 * MILLIS, 0, true));
+        assertEquals(3, mCut.nextSequence(T0 + 30 * MILLIS, 0, true));
+        assertEquals(4, mCut.nextSequence(T0 + 45 * MILLIS, 0, true));
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testMissedFramesSkipped() {
+        mCut.nextSequence(T0, 0, true);
+        // Two frames never arrived
+        assertEquals(4, mCut.nextSequence(T0 + 3 * PERIOD, 0, true));
+        assertEquals(2, mCut.missedFrames());
+        assertEquals(5, mCut.nextSequence(T0 + 4 * PERIOD, 0, true));
+    }
+
+    @Test
+    public void testReadsStayingLateAreNotGaps() {
+        mCut.nextSequence(T0, 0, true);
+        for (int i=1; i<20; i++) {
+            assertEquals(i + 1, mCut.nextSequence(T0 + i * PERIOD + 8 * MILLIS, 0, true));
+        }
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testStreamClockDrift() {
+        // A stream running 0.5% slow, then 0.5% fast
+        long now = T0;
+        for (int i=0; i<2000; i++) {
+            now += i < 1000 ? PERIOD + PERIOD / 200 : PERIOD - PERIOD / 200;
+            mCut.nextSequence(now, 0, true);
+        }
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testBufferedFramesFillTheInterval() {
+        mCut.nextSequence(T0, 0, true);
+        // A late read bringing three frames at once
+        assertEquals(2, mCut.nextSequence(T0 + 3 * PERIOD, 2, true));
+        assertEquals(3, mCut.nextSequence(T0 + 3 * PERIOD, 1, true));
+        assertEquals(4, mCut.nextSequence(T0 + 3 * PERIOD, 0, true));
+        assertEquals(5, mCut.nextSequence(T0 + 4 * PERIOD, 0, true));
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testBacklogReadInPartsIsNotAGap() {
+        mCut.nextSequence(T0, 0, true);
+        // A late read that only gets one of the four frames waiting...
+        assertEquals(2, mCut.nextSequence(T0 + 4 * PERIOD, 0, false));
+        // ...and the rest straight after
+        assertEquals(3, mCut.nextSequence(T0 + 4 * PERIOD + MILLIS, 2, true));
+        assertEquals(4, mCut.nextSequence(T0 + 4 * PERIOD + MILLIS, 1, true));
+        assertEquals(5, mCut.nextSequence(T0 + 4 * PERIOD + MILLIS, 0, true));
+        assertEquals(6, mCut.nextSequence(T0 + 5 * PERIOD, 0, true));
+        assertEquals(7, mCut.nextSequence(T0 + 6 * PERIOD, 0, true));
+        assertEquals(0, mCut.missedFrames());
+    }
+
+    @Test
+    public void testStallIsNotMissedFrames() {
+        mCut.nextSequence(T0, 0, true);
+        assertEquals(2, mCut.nextSequence(T0 + 500 * MILLIS, 0, true));
+        assertEquals(3, mCut.nextSequence(T0 + 515 * MILLIS, 0, true));
+        assertEquals(0, mCut.missedFrames());
+    }
+}
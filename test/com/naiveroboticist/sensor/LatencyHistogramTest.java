@@ -0,0 +1,82 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private LatencyHistogram mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = mCut.snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.p50);
+        assertEquals(0, snapshot.max);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int i=1; i<=10; i++) {
+            mCut.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = mCut.snapshot();
+        assertEquals(10, snapshot.count);
+        assertEquals(5, snapshot.p50);
+        assertEquals(10, snapshot.p99);
+        assertEquals(10, snapshot.max);
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        // 1us..1000us
+        for (int i=1; i<=1000; i++) {
+            mCut.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = mCut.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(1000000, snapshot.max);
+        assertWithin(500000, snapshot.p50);
+        assertWithin(990000, snapshot.p99);
+        assertWithin(999000, snapshot.p999);
+    }
+
+    @Test
+    public void testBucketsCoverWholeRange() {
+        long[] values = { 0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.highestValueIn(bucket) >= value);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.highestValueIn(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testNegativeCountsAsZero() {
+        mCut.record(-5);
+        assertEquals(1, mCut.snapshot().count);
+        assertEquals(0, mCut.snapshot().max);
+    }
+
+    @Test
+    public void testReset() {
+        mCut.record(42);
+        mCut.reset();
+        LatencyHistogram.Snapshot snapshot = mCut.snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.max);
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, 
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,159 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatestPacketExchangeTest {
+    private static final int PACKET_LENGTH = 64;
+
+    private LatestPacketExchange mCut;
+    private long mPublished;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new LatestPacketExchange(PACKET_LENGTH);
+        mPublished = 0;
+    }
+
+    // Every byte of the packet is the low byte of its sequence number
+    private static void fill(Packet packet, long sequence) {
+        packet.clear();
+        packet.setSequence(sequence);
+        for (int i=0; i<PACKET_LENGTH; i++) {
+            packet.put((byte) sequence);
+        }
+    }
+
+    private void publish() {
+        fill(mCut.writeBuffer(), ++mPublished);
+        mCut.publish();
+    }
+
+    @Test
+    public void testPollEmpty() {
+        assertNull(mCut.poll());
+        assertEquals(0, mCut.sequence());
+    }
+
+    @Test
+    public void testPublishAndPoll() {
+        Packet packet = mCut.writeBuffer();
+        fill(packet, 7);
+        mCut.publish();
+
+        Packet latest = mCut.poll();
+        assertSame(packet, latest);
+        assertEquals(7, latest.get(0));
+        assertEquals(7, mCut.sequence());
+
+        // Nothing newer
+        assertNull(mCut.poll());
+        assertEquals(7, mCut.sequence());
+    }
+
+    @Test
+    public void testOlderPacketsOverwritten() {
+        for (int i=1; i<=5; i++) {
+            Packet packet = mCut.writeBuffer();
+            fill(packet, i);
+            mCut.publish();
+        }
+
+        Packet latest = mCut.poll();
+        assertEquals(5, latest.get(0));
+        assertEquals(5, mCut.sequence());
+        assertEquals(4, mCut.overwritten());
+        assertNull(mCut.poll());
+    }
+
+    @Test
+    public void testWriterNeverGetsConsumersPacket() {
+        publish();
+        Packet held = mCut.poll();
+        for (int i=0; i<10; i++) {
+            assertNotSame(held, mCut.writeBuffer());
+            publish();
+        }
+    }
+
+    @Test
+    public void testSequenceIsThePacketsOwn() {
+        // Packets 2 and 3 were lost before the exchange, 5 overwritten in it
+        long[] sequences = { 1, 4, 5, 6 };
+        fill(mCut.writeBuffer(), sequences[0]);
+        mCut.publish();
+        mCut.poll();
+        for (int i=1; i<sequences.length; i++) {
+            fill(mCut.writeBuffer(), sequences[i]);
+            mCut.publish();
+            if (i == 1) {
+                mCut.poll();
+                assertEquals(4, mCut.sequence());
+            }
+        }
+        mCut.poll();
+        assertEquals(6, mCut.sequence());
+        assertEquals(1, mCut.overwritten());
+    }
+
+    @Test
+    public void testAwaitTimesOut() throws InterruptedException {
+        long start = System.nanoTime();
+        assertNull(mCut.await(20));
+        assertTrue(System.nanoTime() - start >= 20000000L);
+    }
+
+    @Test
+    public void testAwaitWokenByPublish() throws InterruptedException {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                publish();
+            }
+        });
+        writer.start();
+
+        assertNotNull(mCut.await(5000));
+        assertEquals(1, mCut.sequence());
+        writer.join();
+    }
+
+    @Test
+    public void testConsumerNeverSeesPartialPacket() throws InterruptedException {
+        final int numPackets = 200000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long sequence=1; sequence<=numPackets; sequence++) {
+                    fill(mCut.writeBuffer(), sequence);
+                    mCut.publish();
+                }
+            }
+        });
+        writer.start();
+
+        long lastSequence = 0;
+        int numTaken = 0;
+        while (lastSequence < numPackets) {
+            Packet packet = mCut.await(1000);
+            assertNotNull(packet);
+            long sequence = mCut.sequence();
+            assertTrue(sequence > lastSequence);
+            for (int i=0; i<PACKET_LENGTH; i++) {
+                assertEquals((byte) sequence, packet.get(i));
+            }
+            lastSequence = sequence;
+            numTaken++;
+        }
+        writer.join();
+
+        assertEquals(numPackets, numTaken + mCut.overwritten());
+    }
+}
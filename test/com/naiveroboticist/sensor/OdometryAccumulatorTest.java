@@ -0,0 +1,170 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.utils.AllocationAssert;
+
+public class OdometryAccumulatorTest {
+    private static final double DELTA = 1e-9;
+
+    private OdometryAccumulator mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new OdometryAccumulator();
+    }
+
+    private static Packet odometryPacket(int distance, int angle, long timestamp) {
+        byte[] packetBuffer = { 0x13,
+                0x08,
+                0x07, 0x00,
+                0x13, (byte) (distance >> 8), (byte) distance,
+                0x14, (byte) (angle >> 8), (byte) angle,
+                0 };
+        packetBuffer[10] = Packet.calculateChecksum(packetBuffer, 0, 10);
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, packetBuffer.length);
+        packet.setTimestamp(timestamp);
+        return packet;
+    }
+
+    @Test
+    public void testStartsAtOrigin() {
+        OdometryAccumulator.Pose pose = mCut.getPose();
+
+        assertEquals(0, pose.x(), DELTA);
+        assertEquals(0, pose.y(), DELTA);
+        assertEquals(0, pose.heading(), DELTA);
+        assertEquals(0, pose.updates());
+    }
+
+    @Test
+    public void testStraightLine() {
+        mCut.packetReceived(odometryPacket(100, 0, 1000L));
+        mCut.packetReceived(odometryPacket(250, 0, 2000L));
+
+        OdometryAccumulator.Pose pose = mCut.getPose();
+        assertEquals(0.35, pose.x(), DELTA);
+        assertEquals(0, pose.y(), DELTA);
+        assertEquals(2000L, pose.timestamp());
+        assertEquals(2, pose.updates());
+    }
+
+    @Test
+    public void testNegativeDistanceAndAngle() {
+        mCut.packetReceived(odometryPacket(0, -90, 0));
+        mCut.packetReceived(odometryPacket(-500, 0, 0));
+
+        OdometryAccumulator.Pose pose = mCut.getPose();
+        assertEquals(-Math.PI / 2, pose.heading(), DELTA);
+        assertEquals(0, pose.x(), DELTA);
+        assertEquals(0.5, pose.y(), DELTA);
+    }
+
+    @Test
+    public void testTurnUsesMidpointHeading() {
+        // Quarter turn left while moving 1m: straight line at 45 degrees
+        mCut.integrate(1000, 90, 0);
+
+        OdometryAccumulator.Pose pose = mCut.getPose();
+        assertEquals(Math.sqrt(0.5), pose.x(), DELTA);
+        assertEquals(Math.sqrt(0.5), pose.y(), DELTA);
+        assertEquals(Math.PI / 2, pose.heading(), DELTA);
+    }
+
+    @Test
+    public void testHeadingWraps() {
+        for (int i=0; i<5; i++) {
+            mCut.integrate(0, 90, 0);
+        }
+
+        assertEquals(Math.PI / 2, mCut.getPose().heading(), DELTA);
+
+        mCut.integrate(0, 90, 0);
+        assertEquals(Math.PI, mCut.getPose().heading(), DELTA);
+    }
+
+    @Test
+    public void testSquareReturnsHome() {
+        for (int i=0; i<4; i++) {
+            mCut.integrate(1000, 0, 0);
+            mCut.integrate(0, 90, 0);
+        }
+
+        OdometryAccumulator.Pose pose = mCut.getPose();
+        assertEquals(0, pose.x(), 1e-6);
+        assertEquals(0, pose.y(), 1e-6);
+        assertEquals(0, pose.heading(), 1e-6);
+    }
+
+    @Test
+    public void testRebaseAndReset() {
+        mCut.integrate(1000, 0, 0);
+        mCut.rebase(5, -2, Math.PI / 2);
+        mCut.integrate(1000, 0, 0);
+
+        OdometryAccumulator.Pose pose = mCut.getPose();
+        assertEquals(5, pose.x(), DELTA);
+        assertEquals(-1, pose.y(), DELTA);
+        assertEquals(2, pose.updates());
+
+        mCut.reset();
+        pose = mCut.getPose(pose);
+        assertEquals(0, pose.x(), DELTA);
+        assertEquals(0, pose.y(), DELTA);
+        assertEquals(0, pose.heading(), DELTA);
+    }
+
+    @Test
+    public void testPacketWithoutOdometryIgnored() {
+        byte[] packetBuffer = { 0x13, 0x02, 0x07, 0x01, 0 };
+        packetBuffer[4] = Packet.calculateChecksum(packetBuffer, 0, 4);
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, packetBuffer.length);
+
+        mCut.packetReceived(packet);
+
+        assertEquals(0, mCut.getPose().updates());
+    }
+
+    @Test
+    public void testSnapshotIsConsistentWhileRebasing() throws Exception {
+        // Rebase to poses where x == y; a torn read would show them apart
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=0; i<100000; i++) {
+                    mCut.rebase(i, i, 0);
+                    mCut.integrate(0, 1, 0);
+                }
+            }
+        });
+        writer.start();
+        OdometryAccumulator.Pose pose = new OdometryAccumulator.Pose();
+        while (writer.isAlive()) {
+            mCut.getPose(pose);
+            assertEquals(pose.x(), pose.y(), DELTA);
+        }
+        writer.join();
+    }
+
+    @Test
+    public void testPacketReceivedDoesNotAllocate() throws Exception {
+        final Packet packet = odometryPacket(10, 1, 0);
+        final OdometryAccumulator.Pose pose = new OdometryAccumulator.Pose();
+        mCut.packetReceived(packet);
+        int numPackets = 10000;
+        AllocationAssert.assertNoAllocation(new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                mCut.packetReceived(packet);
+                mCut.getPose(pose);
+            }
+        }, numPackets);
+
+        assertEquals(numPackets + 1, pose.updates());
+    }
+}
@@ -97,6 +97,24 @@ public class PacketAccumulatorTest {
         assertEquals(16, mCut.getSensorValue(new Byte((byte)0x21)));
     }
 
+    @Test
+    public void testLastPacketTimestamp() {
+        byte[] packetBuffer = { 0x13, 
+                0x0b, 
+                0x07, 0x01,
+                0x13, 0x00, 0x02,
+                0x14, 0x00, 0x01,
+                0x21, 0x00, 0x10, 
+                115 };
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, 14);
+        packet.setTimestamp(12345L);
+        
+        assertEquals(0, mCut.lastPacketTimestamp());
+        mCut.performAccumulation(packet);
+        assertEquals(12345L, mCut.lastPacketTimestamp());
+    }
+
     @Test
     public void testPerformAccumulationNextTime() {
         byte[] packetBuffer1 = { 0x13, 
@@ -126,4 +144,147 @@ public class PacketAccumulatorTest {
         assertEquals(4, mCut.getSensorValue(new Byte((byte)0x14)));
         assertEquals(18, mCut.getSensorValue(new Byte((byte)0x21)));
     }
- }
+
+    @Test
+    public void testGetSensorValues() {
+        byte[] packetBuffer = { 0x13, 
+                0x0b, 
+                0x07, 0x01,
+                0x13, 0x00, 0x02,
+                0x14, 0x00, 0x01,
+                0x21, 0x00, 0x10, 
+                115 };
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, 14);
+        mCut.performAccumulation(packet);
+        
+        byte[] sensors = { 0x13, 0x14 };
+        int[] values = new int[2];
+        assertEquals(2, mCut.getSensorValues(sensors, values));
+        assertEquals(2, values[0]);
+        assertEquals(1, values[1]);
+    }
+ 
+    @Test
+    public void testFilteredAccumulation() {
+        Map<Byte,PacketAccumulator.AccumulatorType> acc = new TreeMap<Byte,PacketAccumulator.AccumulatorType>();
+        acc.put(new Byte((byte)0x13), PacketAccumulator.AccumulatorType.Median);
+        acc.put(new Byte((byte)0x14), PacketAccumulator.AccumulatorType.MovingAverage);
+        acc.put(new Byte((byte)0x21), PacketAccumulator.AccumulatorType.Max);
+        PacketAccumulator filtered = new PacketAccumulator(null, acc, 3);
+
+        int[][] samples = { { 4, 10, 16 }, { 400, 20, 2 }, { 5, 30, 3 } };
+        Packet packet = new Packet(512);
+        for (int[] sample : samples) {
+            byte[] packetBuffer = { 0x13,
+                    0x09,
+                    0x13, 0x00, (byte) sample[0],
+                    0x14, 0x00, (byte) sample[1],
+                    0x21, 0x00, (byte) sample[2],
+                    0 };
+            packetBuffer[11] = Packet.calculateChecksum(packetBuffer, 0, 11);
+            packet.clear();
+            packet.put(packetBuffer, 0, packetBuffer.length);
+            filtered.performAccumulation(packet);
+        }
+
+        byte[] sensors = { 0x13, 0x14, 0x21 };
+        int[] values = new int[3];
+        assertEquals(3, filtered.getSensorValues(sensors, values));
+        assertEquals(5, values[0]);
+        assertEquals(20, values[1]);
+        assertEquals(16, values[2]);
+    }
+
+    // Distance 2, angle 1 at the given slot in the stream
+    private static Packet sequencedPacket(long sequence) {
+        byte[] packetBuffer = { 0x13, 
+                0x0b, 
+                0x07, 0x01,
+                0x13, 0x00, 0x02,
+                0x14, 0x00, 0x01,
+                0x21, 0x00, 0x10, 
+                115 };
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, 14);
+        packet.setSequence(sequence);
+        return packet;
+    }
+
+    @Test
+    public void testRunAccumulatesLatestWhenConflating() throws Exception {
+        PacketReader packetReader = new PacketReader(new IRobotReader() {
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                return 0;
+            }
+        }, 3);
+        packetReader.setConflating(true);
+        Map<Byte,PacketAccumulator.AccumulatorType> acc = new TreeMap<Byte,PacketAccumulator.AccumulatorType>();
+        acc.put(new Byte((byte)0x13), PacketAccumulator.AccumulatorType.Sum);
+        mCut = new PacketAccumulator(packetReader, acc);
+        
+        byte[] frame = { 0x13, 3, 0x13, 0, 2, 0 };
+        frame[5] = Packet.calculateChecksum(frame, 0, 5);
+        LatestPacketExchange latest = packetReader.getLatestExchange();
+        latest.writeBuffer().put(frame, 0, frame.length);
+        latest.publish();
+        
+        Thread accumulator = new Thread(mCut);
+        accumulator.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (mCut.getSensorValue((byte) 0x13) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        accumulator.interrupt();
+        accumulator.join(1000);
+        
+        assertEquals(2, mCut.getSensorValue((byte) 0x13));
+    }
+
+    @Test
+    public void testGapsFlagged() {
+        mCut.performAccumulation(sequencedPacket(1));
+        mCut.performAccumulation(sequencedPacket(2));
+        mCut.performAccumulation(sequencedPacket(5));
+        
+        assertEquals(2, mCut.missedIntervals());
+        assertEquals(6, mCut.getSensorValue((byte) 0x13));
+    }
+
+    @Test
+    public void testGapsInterpolated() {
+        mCut.setGapPolicy(PacketAccumulator.GapPolicy.Interpolate);
+        mCut.performAccumulation(sequencedPacket(1));
+        mCut.performAccumulation(sequencedPacket(4));
+        
+        assertEquals(2, mCut.missedIntervals());
+        // As if packets 2 and 3 had arrived like 4
+        assertEquals(8, mCut.getSensorValue((byte) 0x13));
+        assertEquals(4, mCut.getSensorValue((byte) 0x14));
+        assertEquals(1, mCut.getSensorValue((byte) 0x07));
+    }
+
+    @Test
+    public void testLongGapsOnlyFlagged() {
+        mCut.setGapPolicy(PacketAccumulator.GapPolicy.Interpolate);
+        mCut.performAccumulation(sequencedPacket(1));
+        mCut.performAccumulation(sequencedPacket(100));
+        
+        assertEquals(98, mCut.missedIntervals());
+        assertEquals(4, mCut.getSensorValue((byte) 0x13));
+    }
+
+    @Test
+    public void testUnsequencedAndRestartedStreams() {
+        mCut.setGapPolicy(PacketAccumulator.GapPolicy.Interpolate);
+        mCut.performAccumulation(sequencedPacket(10));
+        mCut.performAccumulation(sequencedPacket(0));
+        mCut.performAccumulation(sequencedPacket(11));
+        // A new reader starts again from 1
+        mCut.performAccumulation(sequencedPacket(1));
+        
+        assertEquals(0, mCut.missedIntervals());
+        assertEquals(8, mCut.getSensorValue((byte) 0x13));
+    }
+}
@@ -0,0 +1,108 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.naiveroboticist.sensor.PacketChannel.BackPressurePolicy;
+
+public class PacketChannelTest {
+
+    @Test
+    public void testTakeTimesOutWhenEmpty() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(2, BackPressurePolicy.Block);
+        assertNull(channel.take(10));
+    }
+
+    @Test
+    public void testTakeReturnsInOrder() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(2, BackPressurePolicy.Block);
+        Packet pkt1 = new Packet(16);
+        Packet pkt2 = new Packet(16);
+        assertNull(channel.offer(pkt1, 0));
+        assertNull(channel.offer(pkt2, 0));
+        
+        assertSame(pkt1, channel.take(10));
+        assertSame(pkt2, channel.take(10));
+        assertEquals(0, channel.size());
+    }
+
+    @Test
+    public void testBlockTimesOutWhenFull() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(1, BackPressurePolicy.Block);
+        Packet pkt1 = new Packet(16);
+        Packet pkt2 = new Packet(16);
+        assertNull(channel.offer(pkt1, 0));
+        
+        assertSame(pkt2, channel.offer(pkt2, 10));
+        assertEquals(1, channel.size());
+        assertEquals(0, channel.dropped());
+    }
+
+    @Test
+    public void testBlockWaitsForConsumer() throws InterruptedException {
+        final PacketChannel channel = new PacketChannel(1, BackPressurePolicy.Block);
+        Packet pkt1 = new Packet(16);
+        Packet pkt2 = new Packet(16);
+        assertNull(channel.offer(pkt1, 0));
+        
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    channel.take(1000);
+                } catch (InterruptedException e) {
+                    // Test will fail below
+                }
+            }
+        }).start();
+        
+        assertNull(channel.offer(pkt2, 1000));
+        assertSame(pkt2, channel.take(10));
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(2, BackPressurePolicy.DropOldest);
+        Packet pkt1 = new Packet(16);
+        Packet pkt2 = new Packet(16);
+        Packet pkt3 = new Packet(16);
+        channel.offer(pkt1, 0);
+        channel.offer(pkt2, 0);
+        
+        assertSame(pkt1, channel.offer(pkt3, 0));
+        assertEquals(1, channel.dropped());
+        assertSame(pkt2, channel.poll());
+        assertSame(pkt3, channel.poll());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(2, BackPressurePolicy.DropNewest);
+        Packet pkt1 = new Packet(16);
+        Packet pkt2 = new Packet(16);
+        Packet pkt3 = new Packet(16);
+        channel.offer(pkt1, 0);
+        channel.offer(pkt2, 0);
+        
+        assertSame(pkt3, channel.offer(pkt3, 0));
+        assertEquals(1, channel.dropped());
+        assertSame(pkt1, channel.poll());
+        assertSame(pkt2, channel.poll());
+        assertNull(channel.poll());
+    }
+
+    @Test
+    public void testDrainTo() throws InterruptedException {
+        PacketChannel channel = new PacketChannel(4, BackPressurePolicy.Block);
+        for (int i=0; i<3; i++) {
+            channel.offer(new Packet(16), 0);
+        }
+        
+        Packet[] batch = new Packet[2];
+        assertEquals(2, channel.drainTo(batch, 10));
+        assertEquals(1, channel.drainTo(batch, 10));
+        assertEquals(0, channel.drainTo(batch, 10));
+    }
+}
@@ -0,0 +1,121 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.sensor.PacketFramer.FrameStatus;
+
+public class PacketFramerTest {
+    private static final byte[] FRAME = { 
+            0x13,
+            0x0b, 0x07, 0x00, 0x13, 
+            0x00, 
+            0x00, 0x14, 0x00, 0x00, 0x21, 
+            0x00, 0x3e, 85 };
+    
+    private PacketFramer mCut;
+    private Packet mPacket;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new PacketFramer(11);
+        mPacket = new Packet(512);
+    }
+
+    @Test
+    public void testSingleFrame() {
+        mCut.consume(FRAME, 0, FRAME.length);
+        
+        assertEquals(FrameStatus.Frame, mCut.nextFrame(mPacket));
+        assertEquals(FRAME.length, mPacket.position());
+        assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+        assertEquals(0, mCut.available());
+    }
+
+    @Test
+    public void testSplitFrame() {
+        for (int i=0; i<FRAME.length - 1; i++) {
+            mCut.consume(FRAME, i, 1);
+            assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+        }
+        mCut.consume(FRAME, FRAME.length - 1, 1);
+        assertEquals(FrameStatus.Frame, mCut.nextFrame(mPacket));
+    }
+
+    @Test
+    public void testCoalescedFrames() {
+        byte[] buffer = new byte[FRAME.length * 3 + 2];
+        buffer[0] = 0x01;
+        buffer[1] = 0x02;
+        for (int i=0; i<3; i++) {
+            System.arraycopy(FRAME, 0, buffer, 2 + i * FRAME.length, FRAME.length);
+        }
+        mCut.consume(buffer, 0, buffer.length);
+        
+        for (int i=0; i<3; i++) {
+            assertEquals(FrameStatus.Frame, mCut.nextFrame(mPacket));
+        }
+        assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+        assertEquals(2, mCut.skippedBytes());
+    }
+
+    @Test
+    public void testResyncAfterBadChecksum() {
+        byte[] buffer = new byte[FRAME.length * 2];
+        System.arraycopy(FRAME, 0, buffer, 0, FRAME.length);
+        System.arraycopy(FRAME, 0, buffer, FRAME.length, FRAME.length);
+        buffer[FRAME.length - 1]++; // Corrupt the first checksum
+        mCut.consume(buffer, 0, buffer.length);
+        
+        assertEquals(FrameStatus.BadChecksum, mCut.nextFrame(mPacket));
+        // 0x13 inside the bad frame's payload is a false start
+        FrameStatus status = mCut.nextFrame(mPacket);
+        while (status == FrameStatus.BadLength || status == FrameStatus.BadChecksum) {
+            status = mCut.nextFrame(mPacket);
+        }
+        assertEquals(FrameStatus.Frame, status);
+        assertEquals(FRAME[FRAME.length - 1], mPacket.get(FRAME.length - 1));
+    }
+
+    @Test
+    public void testUnexpectedLength() {
+        byte[] buffer = { 0x13, 0x02, 0x07, 0x01, 0x00 };
+        buffer[4] = Packet.calculateChecksum(buffer, 0, 4);
+        mCut.consume(buffer, 0, buffer.length);
+        
+        assertEquals(FrameStatus.BadLength, mCut.nextFrame(mPacket));
+        assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+    }
+
+    @Test
+    public void testLongGarbageRun() {
+        byte[] garbage = new byte[100];
+        for (int i=0; i<50; i++) {
+            int offset = 0;
+            while (offset < garbage.length) {
+                offset += mCut.consume(garbage, offset, garbage.length - offset);
+                assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+            }
+        }
+        
+        mCut.consume(FRAME, 0, FRAME.length);
+        assertEquals(FrameStatus.Frame, mCut.nextFrame(mPacket));
+        assertEquals(5000, mCut.skippedBytes());
+    }
+
+    @Test
+    public void testWrapAround() {
+        // Push enough frames through that positions wrap the ring several times
+        for (int i=0; i<500; i++) {
+            mCut.consume(FRAME, 0, 5);
+            assertEquals(FrameStatus.NeedMore, mCut.nextFrame(mPacket));
+            mCut.consume(FRAME, 5, FRAME.length - 5);
+            assertEquals(FrameStatus.Frame, mCut.nextFrame(mPacket));
+            for (int j=0; j<FRAME.length; j++) {
+                assertEquals(FRAME[j], mPacket.get(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PacketPoolTest {
+
+    @Test
+    public void testAcquireAllocatesWhenEmpty() {
+        PacketPool pool = new PacketPool(64, 2);
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertEquals(2, pool.allocated());
+    }
+
+    @Test
+    public void testReleasedPacketIsReusedCleared() {
+        PacketPool pool = new PacketPool(64, 2);
+        Packet pkt = pool.acquire();
+        pkt.put((byte) 0x13);
+        pool.release(pkt);
+        assertEquals(1, pool.available());
+        
+        Packet reused = pool.acquire();
+        assertSame(pkt, reused);
+        assertTrue(reused.isEmpty());
+        assertEquals(1, pool.allocated());
+    }
+
+    @Test
+    public void testReleaseBeyondCapacityIsDiscarded() {
+        PacketPool pool = new PacketPool(64, 1);
+        pool.release(new Packet(64));
+        pool.release(new Packet(64));
+        pool.release(null);
+        assertEquals(1, pool.available());
+    }
+}
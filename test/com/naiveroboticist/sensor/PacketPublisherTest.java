@@ -0,0 +1,267 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.interfaces.IPacketListener;
+import com.naiveroboticist.interfaces.IPacketSubscriber;
+import com.naiveroboticist.interfaces.IPacketSubscription;
+import com.naiveroboticist.interfaces.IRobotReader;
+
+public class PacketPublisherTest {
+    
+    class RecordingSubscriber implements IPacketSubscriber {
+        private final long mInitialRequest;
+        final List<Packet> mPackets = Collections.synchronizedList(new ArrayList<Packet>());
+        final List<Integer> mValues = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch mCompleted = new CountDownLatch(1);
+        volatile Throwable mError;
+        IPacketSubscription mSubscription;
+        
+        RecordingSubscriber(long initialRequest) {
+            mInitialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(IPacketSubscription subscription) {
+            mSubscription = subscription;
+            subscription.request(mInitialRequest);
+        }
+
+        @Override
+        public void onNext(Packet packet) {
+            mPackets.add(packet);
+            try {
+                mValues.add(packet.getSensorValue((byte) 0x13));
+            } catch (InvalidPacketError e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            mError = error;
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted.countDown();
+        }
+    }
+    
+    private PacketReader mReader;
+    private ExecutorService mExecutor;
+    private PacketPublisher mCut;
+    // Pool packets the reader itself holds on to
+    private long mReaderPackets;
+
+    @Before
+    public void setUp() throws Exception {
+        mReader = new PacketReader(new IRobotReader() {
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                return 0;
+            }
+        }, 3);
+        mReaderPackets = mReader.getPacketPool().allocated() - mReader.getPacketPool().available();
+        mExecutor = Executors.newFixedThreadPool(4);
+        mCut = new PacketPublisher(mReader, mExecutor, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testEverySubscriberSeesTheSamePacket() throws Exception {
+        RecordingSubscriber first = new RecordingSubscriber(Long.MAX_VALUE);
+        RecordingSubscriber second = new RecordingSubscriber(Long.MAX_VALUE);
+        mCut.subscribe(first);
+        mCut.subscribe(second);
+        assertEquals(2, mCut.numSubscribers());
+        
+        mCut.publish(packet(7));
+        awaitSize(first.mValues, 1);
+        awaitSize(second.mValues, 1);
+        
+        assertEquals(7, first.mValues.get(0).intValue());
+        assertEquals(7, second.mValues.get(0).intValue());
+        assertSame(first.mPackets.get(0), second.mPackets.get(0));
+        awaitAllReturnedToPool();
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        mCut.subscribe(subscriber);
+        for (int i=1; i<=3; i++) {
+            mCut.publish(packet(i));
+        }
+        awaitSize(subscriber.mValues, 2);
+        Thread.sleep(20);
+        assertEquals(2, subscriber.mValues.size());
+        
+        subscriber.mSubscription.request(1);
+        awaitSize(subscriber.mValues, 3);
+        assertEquals(3, subscriber.mValues.get(2).intValue());
+    }
+
+    @Test
+    public void testSlowSubscriberDropsOldestWithoutStallingOthers() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        RecordingSubscriber slow = new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(Packet packet) {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNext(packet);
+            }
+        };
+        RecordingSubscriber fast = new RecordingSubscriber(Long.MAX_VALUE);
+        PacketPublisher.Subscription slowSubscription = mCut.subscribe(slow);
+        mCut.subscribe(fast);
+        
+        mCut.publish(packet(1));
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int i=2; i<=10; i++) {
+            mCut.publish(packet(i));
+            awaitSize(fast.mValues, i);
+        }
+        
+        unblock.countDown();
+        // The first packet was already being delivered; of the rest only
+        // the newest four fit in the buffer.
+        awaitSize(slow.mValues, 5);
+        assertEquals(Integer.valueOf(1), slow.mValues.get(0));
+        assertEquals(Integer.valueOf(7), slow.mValues.get(1));
+        assertEquals(Integer.valueOf(10), slow.mValues.get(4));
+        assertEquals(5, slowSubscription.dropped());
+        awaitAllReturnedToPool();
+    }
+
+    @Test
+    public void testCancelReturnsBufferedPackets() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        mCut.subscribe(subscriber);
+        for (int i=1; i<=3; i++) {
+            mCut.publish(packet(i));
+        }
+        awaitSize(subscriber.mValues, 1);
+        
+        subscriber.mSubscription.cancel();
+        assertEquals(0, mCut.numSubscribers());
+        awaitAllReturnedToPool();
+    }
+
+    @Test
+    public void testBadRequestIsAnError() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        PacketPublisher.Subscription subscription = mCut.subscribe(subscriber);
+        
+        assertTrue(subscription.isCancelled());
+        assertTrue(subscriber.mError instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testRunPublishesReaderPacketsAndCompletes() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        final List<Packet> heard = Collections.synchronizedList(new ArrayList<Packet>());
+        mCut.subscribe(subscriber);
+        mCut.subscribe(new IPacketListener() {
+            @Override
+            public void packetReceived(Packet packet) {
+                heard.add(packet);
+            }
+        });
+        mReader.addPacket(packet(5));
+        mReader.addPacket(packet(6));
+        
+        Thread publisher = new Thread(mCut);
+        publisher.start();
+        awaitSize(subscriber.mValues, 2);
+        awaitSize(heard, 2);
+        publisher.interrupt();
+        publisher.join(1000);
+        
+        assertTrue(subscriber.mCompleted.await(1, TimeUnit.SECONDS));
+        // The listener's subscription completes on its own executor turn
+        long deadline = System.currentTimeMillis() + 2000;
+        while (mCut.numSubscribers() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, mCut.numSubscribers());
+        
+        // Late subscribers complete straight away
+        RecordingSubscriber late = new RecordingSubscriber(1);
+        mCut.subscribe(late);
+        assertEquals(0, late.mCompleted.getCount());
+    }
+    
+    @Test
+    public void testRunPublishesLatestWhenConflating() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        mCut.subscribe(subscriber);
+        mReader.setConflating(true);
+        LatestPacketExchange latest = mReader.getLatestExchange();
+        Packet source = packet(9);
+        latest.writeBuffer().copyFrom(source);
+        mReader.releasePacket(source);
+        latest.publish();
+        
+        Thread publisher = new Thread(mCut);
+        publisher.start();
+        awaitSize(subscriber.mValues, 1);
+        publisher.interrupt();
+        publisher.join(1000);
+        
+        assertEquals(9, subscriber.mValues.get(0).intValue());
+        // Subscribers get a pooled copy, never the exchange's own packet
+        assertNotSame(latest.writeBuffer(), subscriber.mPackets.get(0));
+        assertTrue(subscriber.mCompleted.await(1, TimeUnit.SECONDS));
+        awaitAllReturnedToPool();
+    }
+    
+    private Packet packet(int distance) throws InvalidPacketError {
+        byte[] frame = { 0x13, 3, 0x13, 0, (byte) distance, 0 };
+        frame[5] = Packet.calculateChecksum(frame, 0, 5);
+        Packet packet = mReader.getPacketPool().acquire();
+        packet.put(frame, 0, frame.length);
+        return packet;
+    }
+    
+    private void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, list.size());
+    }
+    
+    // Every packet taken from the pool has been handed back
+    private void awaitAllReturnedToPool() throws InterruptedException {
+        PacketPool pool = mReader.getPacketPool();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.available() + mReaderPackets < pool.allocated() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(pool.allocated(), pool.available() + mReaderPackets);
+    }
+}
@@ -3,12 +3,18 @@ package com.naiveroboticist.sensor;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.naiveroboticist.interfaces.IBoundedRobotReader;
 import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.interfaces.IStreamStallListener;
+import com.naiveroboticist.sensor.PacketChannel.BackPressurePolicy;
+import com.naiveroboticist.utils.AllocationAssert;
 
 public class PacketReaderTest {
     
@@ -83,6 +89,21 @@ public class PacketReaderTest {
         
     };
 
+    class StreamingRobotReader implements IRobotReader {
+        private byte[] mPacket = { 
+                0x13,
+                0x0b, 0x07, 0x00, 0x13, 
+                0x00, 
+                0x00, 0x14, 0x00, 0x00, 0x21, 
+                0x00, 0x3e, 85 };
+
+        @Override
+        public int read(byte[] buffer, int timeoutMillis) throws IOException {
+            System.arraycopy(mPacket, 0, buffer, 0, mPacket.length);
+            return mPacket.length;
+        }
+    }
+
     private PacketReader mCut;
 
     @Before
@@ -168,4 +189,484 @@ public class PacketReaderTest {
         assertEquals(0, mCut.numPackets());
     }
 
+    @Test
+    public void testTakePacket() throws InterruptedException {
+        mCut = new PacketReader(new TestRobotReader(), 11);
+        new Thread(mCut).start();
+        
+        Packet pkt = mCut.takePacket(1000);
+        mCut.stopReading();
+        
+        assertNotNull(pkt);
+        assertEquals(11, pkt.position() - 3);
+    }
+
+    @Test
+    public void testSteadyStateReadingDoesNotAllocate() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11);
+        AllocationAssert.Action readOne = new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                mCut.readAndQueuePackets();
+                mCut.releasePacket(mCut.removePacket());
+            }
+        };
+        
+        // Warm up so the pool is populated and the JIT has settled
+        for (int i=0; i<20000; i++) {
+            readOne.run();
+        }
+        long poolAllocations = mCut.getPacketPool().allocated();
+        
+        AllocationAssert.assertNoAllocation(readOne, 10000);
+        assertEquals(poolAllocations, mCut.getPacketPool().allocated());
+    }
+
+    @Test
+    public void testMultiplePacketsPerRead() throws Exception {
+        final byte[] frames = new byte[28];
+        new StreamingRobotReader().read(frames, 0);
+        System.arraycopy(frames, 0, frames, 14, 14);
+        mCut = new PacketReader(new IRobotReader() {
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                System.arraycopy(frames, 0, buffer, 0, frames.length);
+                return frames.length;
+            }
+        }, 11);
+        
+        assertEquals(2, mCut.readAndQueuePackets());
+        assertEquals(2, mCut.numPackets());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final byte[] stream = new byte[32];
+        new StreamingRobotReader().read(stream, 0);
+        System.arraycopy(stream, 0, stream, 16, 14);
+        stream[14] = 0x55;  // Garbage between the frames
+        stream[15] = 0x13;  // False start
+        stream[13]++;       // Corrupt the first checksum
+        mCut = new PacketReader(new IRobotReader() {
+            private int mReadNumber = 0;
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                if (mReadNumber++ == 0) {
+                    return 0;
+                }
+                System.arraycopy(stream, 0, buffer, 0, 30);
+                return 30;
+            }
+        }, 11);
+        mCut.setDiagnosticSampleRate(0);
+        
+        assertEquals(1, mCut.readAndQueuePackets());
+        
+        ReaderMetrics.Snapshot metrics = mCut.getMetrics().snapshot();
+        assertEquals(30, metrics.bytesRead);
+        assertEquals(1, metrics.framesAccepted);
+        assertEquals(1, metrics.checksumFailures);
+        assertEquals(1, metrics.readTimeouts);
+        assertEquals(2, metrics.lengthMismatches);
+        assertEquals(16, metrics.resyncBytesSkipped);
+        assertEquals("", mCut.fullMessages());
+    }
+
+    @Test
+    public void testBadFramesAreSampledIntoLog() throws Exception {
+        final byte[] stream = new byte[14];
+        new StreamingRobotReader().read(stream, 0);
+        stream[13]++;
+        final byte[] good = new byte[14];
+        new StreamingRobotReader().read(good, 0);
+        mCut = new PacketReader(new IRobotReader() {
+            private int mReadNumber = 0;
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                byte[] source = mReadNumber++ < 5 ? stream : good;
+                System.arraycopy(source, 0, buffer, 0, source.length);
+                return source.length;
+            }
+        }, 11);
+        mCut.setDiagnosticSampleRate(2);
+        
+        assertEquals(1, mCut.readAndQueuePackets());
+        assertEquals(5, mCut.getMetrics().snapshot().checksumFailures);
+        assertEquals(3, mCut.fullMessages().split("Invalid checksum").length - 1);
+    }
+
+    @Test
+    public void testLatencyStages() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11);
+        mCut.readAndQueuePackets();
+        
+        Packet packet = mCut.removePacket();
+        assertTrue(packet.timestamp() != 0);
+        assertTrue(packet.framedTimestamp() >= packet.timestamp());
+        assertTrue(packet.dequeuedTimestamp() >= packet.framedTimestamp());
+        
+        PacketLatency latency = mCut.getLatency();
+        latency.accumulated(packet, System.nanoTime());
+        PacketLatency.Snapshot snapshot = latency.snapshot();
+        assertEquals(1, snapshot.readToFramed.count);
+        assertEquals(1, snapshot.framedToDequeued.count);
+        assertEquals(1, snapshot.dequeuedToAccumulated.count);
+        assertEquals(1, snapshot.readToAccumulated.count);
+        assertTrue(snapshot.readToAccumulated.max >= snapshot.readToFramed.max);
+        
+        latency.reset();
+        assertEquals(0, latency.snapshot().readToAccumulated.count);
+    }
+
+    @Test
+    public void testLatencyDisabled() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11);
+        mCut.getLatency().setEnabled(false);
+        mCut.readAndQueuePackets();
+        
+        Packet packet = mCut.removePacket();
+        assertEquals(0, packet.framedTimestamp());
+        assertEquals(0, mCut.getLatency().snapshot().readToFramed.count);
+    }
+
+    @Test
+    public void testTakePacketTimesOut() throws InterruptedException {
+        assertNull(mCut.takePacket(10));
+    }
+
+    @Test
+    public void testConflatingKeepsNewestPacket() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11);
+        mCut.setConflating(true);
+        
+        for (int i=0; i<5; i++) {
+            assertEquals(1, mCut.readAndQueuePackets());
+        }
+        
+        assertEquals(0, mCut.numPackets());
+        Packet packet = mCut.pollLatest();
+        assertNotNull(packet);
+        assertEquals(14, packet.position());
+        assertTrue(packet.dequeuedTimestamp() >= packet.framedTimestamp());
+        assertEquals(5, mCut.getLatestExchange().sequence());
+        assertEquals(4, mCut.getLatestExchange().overwritten());
+        assertEquals(4, mCut.getMetrics().snapshot().packetsOverwritten);
+        assertNull(mCut.pollLatest());
+        
+        mCut.readAndQueuePackets();
+        assertNotNull(mCut.awaitLatest(0));
+        assertEquals(6, mCut.getLatestExchange().sequence());
+    }
+
+    @Test
+    public void testConflatingDoesNotAllocate() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11);
+        mCut.setConflating(true);
+        AllocationAssert.Action readOne = new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                mCut.readAndQueuePackets();
+                mCut.pollLatest();
+            }
+        };
+        
+        for (int i=0; i<20000; i++) {
+            readOne.run();
+        }
+        
+        AllocationAssert.assertNoAllocation(readOne, 10000);
+        assertEquals(1, mCut.getPacketPool().allocated());
+    }
+
+    @Test
+    public void testPacketsSequenced() throws Exception {
+        final byte[] bad = new byte[14];
+        new StreamingRobotReader().read(bad, 0);
+        bad[13]++;
+        mCut = new PacketReader(new IRobotReader() {
+            private int mReadNumber = 0;
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                // The second frame fails its checksum
+                if (mReadNumber++ == 1) {
+                    System.arraycopy(bad, 0, buffer, 0, bad.length);
+                    return bad.length;
+                }
+                return new StreamingRobotReader().read(buffer, timeoutMillis);
+            }
+        }, 11);
+        mCut.setDiagnosticSampleRate(0);
+        
+        mCut.readAndQueuePackets();
+        mCut.readAndQueuePackets();
+        
+        Packet first = mCut.removePacket();
+        Packet second = mCut.removePacket();
+        assertEquals(1, first.sequence());
+        // The rejected frame keeps its slot, so the gap shows
+        assertEquals(3, second.sequence());
+        assertTrue(second.timestamp() >= first.timestamp());
+        assertEquals(1.0 / 3, mCut.getMetrics().snapshot().checksumFailureRate(), 1e-9);
+    }
+
+    // Serves a stream of 84 byte frames, one every 15ms from the first
+    // read, as a serial port would: whatever has arrived, up to the buffer
+    class TimedStreamReader implements IRobotReader {
+        private static final long PERIOD_NANOS = 15000000L;
+        private final byte[] mStream;
+        private long mStart;
+        private boolean mStarted;
+        private int mPosition;
+
+        TimedStreamReader(int numFrames) {
+            byte[] frame = new byte[84];
+            frame[0] = 0x13;
+            frame[1] = 81;
+            frame[83] = Packet.calculateChecksum(frame, 0, 83);
+            mStream = new byte[frame.length * numFrames];
+            for (int i=0; i<numFrames; i++) {
+                System.arraycopy(frame, 0, mStream, i * frame.length, frame.length);
+            }
+            mStarted = false;
+            mPosition = 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int timeoutMillis) throws IOException {
+            long now = System.nanoTime();
+            if (! mStarted) {
+                mStarted = true;
+                mStart = now;
+            }
+            long deadline = now + timeoutMillis * 1000000L;
+            while (arrived(now) == mPosition && now < deadline) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+                now = System.nanoTime();
+            }
+            int numBytes = Math.min(buffer.length, arrived(now) - mPosition);
+            System.arraycopy(mStream, mPosition, buffer, 0, numBytes);
+            mPosition += numBytes;
+            return numBytes;
+        }
+
+        private int arrived(long now) {
+            long numFrames = (now - mStart) / PERIOD_NANOS + 1;
+            return (int) Math.min(mStream.length, numFrames * 84);
+        }
+    }
+
+    @Test
+    public void testLateShortReadsAreNotGaps() throws Exception {
+        // More than is read, so the stream doesn't end under the reader
+        mCut = new PacketReader(new TimedStreamReader(100), 81);
+        
+        long lastSequence = 0;
+        int numPackets = 0;
+        int nextPause = 5;
+        while (numPackets < 60) {
+            // Fall behind now and then, so the backlog outgrows a read
+            if (numPackets >= nextPause) {
+                Thread.sleep(60);
+                nextPause += 15;
+            }
+            mCut.readAndQueuePackets();
+            while (mCut.numPackets() > 0) {
+                Packet packet = mCut.removePacket();
+                assertEquals(lastSequence + 1, packet.sequence());
+                lastSequence = packet.sequence();
+                numPackets++;
+                mCut.releasePacket(packet);
+            }
+        }
+        
+        assertEquals(0, mCut.getMetrics().snapshot().missedFrames);
+    }
+
+    @Test
+    public void testQueueDropsCounted() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11, 2, BackPressurePolicy.DropOldest);
+        for (int i=0; i<5; i++) {
+            mCut.readAndQueuePackets();
+        }
+        
+        ReaderMetrics.Snapshot metrics = mCut.getMetrics().snapshot();
+        assertEquals(3, metrics.queueDrops);
+        assertEquals(0.6, metrics.queueDropRate(), 1e-9);
+        assertEquals(0, metrics.missedFrames);
+        assertEquals(0, metrics.missedRate(), 0);
+        // The oldest went, so the survivors show the gap
+        assertEquals(4, mCut.removePacket().sequence());
+    }
+
+    @Test
+    public void testAddPacketDropsWhenFull() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11, 2, BackPressurePolicy.Block);
+        PacketPool pool = mCut.getPacketPool();
+        Packet[] packets = new Packet[3];
+        for (int i=0; i<packets.length; i++) {
+            packets[i] = pool.acquire();
+            mCut.addPacket(packets[i]);
+        }
+        
+        // The queue was full, so the last one went straight back to the pool
+        assertEquals(2, mCut.numPackets());
+        assertEquals(1, mCut.getMetrics().snapshot().queueDrops);
+        assertSame(packets[2], pool.acquire());
+        assertSame(packets[0], mCut.removePacket());
+    }
+
+    @Test
+    public void testAddPacketKeepsSmallPacketsOutOfThePool() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11, 1, BackPressurePolicy.Block);
+        mCut.addPacket(new Packet(16));
+        Packet small = new Packet(16);
+        mCut.addPacket(small);
+        
+        assertEquals(1, mCut.getMetrics().snapshot().queueDrops);
+        // Too short for the framer to fill
+        assertNotSame(small, mCut.getPacketPool().acquire());
+    }
+
+    @Test
+    public void testAddPacketDropsCountedFromAnyThread() throws Exception {
+        mCut = new PacketReader(new StreamingRobotReader(), 11, 1, BackPressurePolicy.Block);
+        mCut.addPacket(new Packet(16));
+        final int dropsPerThread = 20000;
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Packet packet = new Packet(16);
+                    for (int i=0; i<dropsPerThread; i++) {
+                        mCut.addPacket(packet);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t=0; t<threads.length; t++) {
+            threads[t].join();
+        }
+        
+        assertEquals(threads.length * dropsPerThread, mCut.getMetrics().snapshot().queueDrops);
+    }
+
+    @Test
+    public void testSinglePacketReadOutlastsQuietStart() throws Exception {
+        final byte[] frame = new byte[14];
+        new StreamingRobotReader().read(frame, 0);
+        final long start = System.nanoTime();
+        mCut = new PacketReader(new IRobotReader() {
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                // Quiet for long enough to count as a stall
+                if (System.nanoTime() - start > 150000000L) {
+                    System.arraycopy(frame, 0, buffer, 0, frame.length);
+                    return frame.length;
+                }
+                try {
+                    Thread.sleep(timeoutMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+        }, 11, true);
+        
+        mCut.run();
+        
+        assertEquals(1, mCut.getMetrics().snapshot().stalls);
+        assertEquals(1, mCut.numPackets());
+    }
+
+    @Test
+    public void testStallReported() throws Exception {
+        final byte[] frame = new byte[14];
+        new StreamingRobotReader().read(frame, 0);
+        mCut = new PacketReader(new IRobotReader() {
+            private int mReadNumber = 0;
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                // One frame, then quiet for a while, then frames again
+                mReadNumber++;
+                if (mReadNumber == 1 || mReadNumber > 20) {
+                    System.arraycopy(frame, 0, buffer, 0, frame.length);
+                    return frame.length;
+                }
+                try {
+                    Thread.sleep(timeoutMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+        }, 11);
+        final List<String> events = new ArrayList<String>();
+        mCut.setStallListener(new IStreamStallListener() {
+            @Override
+            public void streamStalled(PacketReader reader, long silentNanos) {
+                events.add("stalled");
+            }
+            
+            @Override
+            public void streamResumed(PacketReader reader, long stalledNanos) {
+                events.add("resumed");
+            }
+        });
+        
+        assertEquals(1, mCut.readAndQueuePackets());
+        
+        long start = System.nanoTime();
+        assertEquals(0, mCut.readAndQueuePackets());
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Stalled after " + elapsedMillis, elapsedMillis >= 100 && elapsedMillis < 1000);
+        assertEquals(1, mCut.getMetrics().snapshot().stalls);
+        
+        while (mCut.readAndQueuePackets() == 0) {
+        }
+        assertEquals(1, mCut.getMetrics().snapshot().stalls);
+        assertEquals("[stalled, resumed]", events.toString());
+    }
+
+    @Test
+    public void testBoundedReadSizes() throws Exception {
+        final byte[] stream = new byte[14 * 8];
+        new StreamingRobotReader().read(stream, 0);
+        for (int i=1; i<8; i++) {
+            System.arraycopy(stream, 0, stream, i * 14, 14);
+        }
+        final List<Integer> requests = new ArrayList<Integer>();
+        mCut = new PacketReader(new IBoundedRobotReader() {
+            private int mPosition = 0;
+            @Override
+            public int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException {
+                requests.add(length);
+                // Part of a frame first, then whatever is asked for
+                int numBytes = Math.min(requests.size() == 1 ? 5 : length, stream.length - mPosition);
+                System.arraycopy(stream, mPosition, buffer, offset, numBytes);
+                mPosition += numBytes;
+                return numBytes;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int timeoutMillis) throws IOException {
+                return read(buffer, 0, buffer.length, timeoutMillis);
+            }
+        }, 11);
+        
+        int numPackets = 0;
+        while (numPackets < 8) {
+            numPackets += mCut.readAndQueuePackets();
+        }
+        
+        // A frame, the rest of it, then doubling while reads come back full
+        assertEquals("[14, 9, 28, 56, 112]", requests.toString());
+    }
+
 }
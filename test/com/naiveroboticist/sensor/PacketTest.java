@@ -2,10 +2,15 @@ package com.naiveroboticist.sensor;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.naiveroboticist.utils.AllocationAssert;
+
 public class PacketTest {
     private Packet mCut;
 
@@ -35,6 +40,40 @@ public class PacketTest {
         assertEquals(287, mCut.getSensorValue((byte) 0x21));
     }
     
+    @Test
+    public void testGetSensorValueSignedness() throws InvalidPacketError {
+        byte[] packetBuffer = { 0x13, 
+                0x09, 
+                0x13, (byte) 0xff, 0x38,
+                0x16, (byte) 0xc3, 0x50,
+                0x18, (byte) 0xfb,
+                0 };
+        packetBuffer[10] = Packet.calculateChecksum(packetBuffer, 0, 10);
+        mCut = new Packet(512);
+        mCut.put(packetBuffer, 0, 11);
+        
+        assertEquals(-200, mCut.getSensorValue((byte) 0x13));
+        assertEquals(50000, mCut.getSensorValue((byte) 0x16));
+        assertEquals(-5, mCut.getSensorValue((byte) 0x18));
+    }
+    
+    @Test
+    public void testGetSensorValueSkipsGroup() throws InvalidPacketError {
+        byte[] packetBuffer = new byte[3 + 1 + 6 + 2 + 1];
+        packetBuffer[0] = 0x13;
+        packetBuffer[1] = 10;
+        packetBuffer[2] = 2;     // Group 2: 17, 18, 19, 20
+        packetBuffer[7] = 0x13;  // A distance value that looks like an id
+        packetBuffer[9] = 0x21;
+        packetBuffer[10] = 0x02;
+        packetBuffer[11] = 0x05;
+        packetBuffer[12] = Packet.calculateChecksum(packetBuffer, 0, 12);
+        mCut = new Packet(512);
+        mCut.put(packetBuffer, 0, packetBuffer.length);
+        
+        assertEquals(0x0205, mCut.getSensorValue((byte) 0x21));
+    }
+    
     @Test
     public void testPosition() {
         assertEquals(14, mCut.position());
@@ -54,6 +93,16 @@ public class PacketTest {
         assertEquals((byte)0x99, mCut.get(14));
     }
     
+    @Test
+    public void testPutWithOffset() {
+        byte[] buffer = { 0x01, 0x02, 0x03, 0x04 };
+        mCut.clear();
+        mCut.put(buffer, 2, 2);
+        assertEquals(2, mCut.position());
+        assertEquals((byte)0x03, mCut.get(0));
+        assertEquals((byte)0x04, mCut.get(1));
+    }
+    
     @Test
     public void testEmpty() {
         assertFalse(mCut.isEmpty());
@@ -90,6 +139,23 @@ public class PacketTest {
         assertEquals(11, mCut.packetLength());
     }
     
+    @Test
+    public void testChecksumOfView() throws Exception {
+        byte[] frame = new byte[200];
+        for (int i=0; i<frame.length; i++) {
+            frame[i] = (byte) (i * 7);
+        }
+        final ByteBuffer view = ByteBuffer.wrap(frame).order(ByteOrder.nativeOrder());
+        assertEquals(Packet.calculateChecksum(frame, 3, 190), Packet.calculateChecksum(view, 3, 190));
+        
+        AllocationAssert.assertNoAllocation(new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                Packet.calculateChecksum(view, 0, 200);
+            }
+        }, 10000);
+    }
+
     @Test
     public void testValidChecksum() throws InvalidPacketError {
         assertFalse(mCut.validChecksum());
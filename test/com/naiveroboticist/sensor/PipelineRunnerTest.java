@@ -0,0 +1,106 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.sensor.PacketAccumulator.AccumulatorType;
+import com.naiveroboticist.sensor.PipelineRunner.ThreadMode;
+
+public class PipelineRunnerTest {
+    
+    // A robot that sends a frame every few milliseconds
+    class SlowRobotReader implements IRobotReader {
+        @Override
+        public int read(byte[] buffer, int timeoutMillis) throws IOException {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            byte[] frame = { 0x13, 3, 0x13, 0, 1, 0 };
+            frame[5] = Packet.calculateChecksum(frame, 0, 5);
+            System.arraycopy(frame, 0, buffer, 0, frame.length);
+            return frame.length;
+        }
+    }
+
+    @Test
+    public void testStopsReaderAndAccumulator() throws Exception {
+        runPipeline(ThreadMode.Platform);
+    }
+
+    @Test
+    public void testVirtualModeFallsBack() throws Exception {
+        PipelineRunner runner = runPipeline(ThreadMode.Virtual);
+        assertEquals(PipelineRunner.isVirtualThreadsAvailable(), runner.isVirtual());
+    }
+
+    @Test
+    public void testStopTimesOut() throws Exception {
+        PipelineRunner runner = new PipelineRunner("stubborn", ThreadMode.Platform);
+        final CountDownLatch release = new CountDownLatch(1);
+        runner.start("ignoresInterrupts", new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        if (release.await(10, TimeUnit.SECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        // Carry on regardless
+                    }
+                }
+            }
+        });
+        
+        assertFalse(runner.stop(50));
+        release.countDown();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testNoStartAfterStop() throws Exception {
+        PipelineRunner runner = new PipelineRunner("stopped", ThreadMode.Platform);
+        runner.stop(0);
+        runner.start("late", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+    
+    private PipelineRunner runPipeline(ThreadMode mode) throws Exception {
+        PacketReader reader = new PacketReader(new SlowRobotReader(), 3);
+        HashMap<Byte,AccumulatorType> accumulation = new HashMap<Byte,AccumulatorType>();
+        accumulation.put((byte) 0x13, AccumulatorType.Sum);
+        PacketAccumulator accumulator = new PacketAccumulator(reader, accumulation);
+        
+        PipelineRunner runner = new PipelineRunner("robot", mode);
+        Thread readerThread = runner.start("reader", reader);
+        runner.start("accumulator", accumulator);
+        assertEquals("robot-reader", readerThread.getName());
+        assertEquals(2, runner.activeCount());
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (accumulator.getSensorValue((byte) 0x13) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(accumulator.getSensorValue((byte) 0x13) >= 3);
+        
+        // The accumulator is parked waiting for packets and the reader in
+        // read(); both must notice the interrupt promptly.
+        long start = System.nanoTime();
+        assertTrue(runner.stop(1000));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(readerThread.isAlive());
+        return runner;
+    }
+}
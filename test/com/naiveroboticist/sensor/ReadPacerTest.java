@@ -0,0 +1,110 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadPacerTest {
+    private static final long MILLIS = 1000000L;
+    private static final long T0 = 5000 * MILLIS;
+
+    private ReadPacer mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new ReadPacer(14, 512, 1000);
+        mCut.begin(T0);
+    }
+
+    @Test
+    public void testInitialTimeout() {
+        // Two nominal 15ms periods
+        assertEquals(30, mCut.readTimeoutMillis(T0));
+        assertEquals(15 * MILLIS, mCut.periodNanos());
+    }
+
+    @Test
+    public void testPeriodFollowsStream() {
+        for (int i=0; i<100; i++) {
+            mCut.framesRead(T0 + i * 50 * MILLIS, 1, 14);
+        }
+
+        assertEquals(50 * MILLIS, mCut.periodNanos(), MILLIS);
+        assertEquals(100, mCut.readTimeoutMillis(T0 + 99 * 50 * MILLIS), 2);
+        assertEquals(400 * MILLIS, mCut.stallNanos(), 8 * MILLIS);
+    }
+
+    @Test
+    public void testStallDetectedOnce() {
+        mCut.framesRead(T0, 1, 14);
+
+        assertEquals(0, mCut.checkStall(T0 + 50 * MILLIS));
+        assertFalse(mCut.isStalled());
+        assertEquals(120 * MILLIS, mCut.checkStall(T0 + 120 * MILLIS));
+        assertTrue(mCut.isStalled());
+        assertEquals(0, mCut.checkStall(T0 + 300 * MILLIS));
+
+        assertEquals(400 * MILLIS, mCut.framesRead(T0 + 400 * MILLIS, 1, 14));
+        assertFalse(mCut.isStalled());
+        // The stall doesn't count towards the period
+        assertEquals(15 * MILLIS, mCut.periodNanos());
+    }
+
+    @Test
+    public void testClockStartingAtZero() {
+        // System.nanoTime() may be 0 (or negative) at any point
+        mCut = new ReadPacer(14, 512, 1000);
+        mCut.begin(0);
+        assertEquals(0, mCut.checkStall(50 * MILLIS));
+        assertEquals(120 * MILLIS, mCut.checkStall(120 * MILLIS));
+
+        mCut = new ReadPacer(14, 512, 1000);
+        mCut.begin(-100 * MILLIS);
+        mCut.framesRead(0, 1, 14);
+        mCut.framesRead(31 * MILLIS, 1, 14);
+        assertEquals(17 * MILLIS, mCut.periodNanos());
+    }
+
+    @Test
+    public void testTimeoutEndsAtStallDeadline() {
+        // Eight nominal periods, 120ms, until a stall
+        assertEquals(10, mCut.readTimeoutMillis(T0 + 110 * MILLIS));
+        assertEquals(ReadPacer.MIN_TIMEOUT_MILLIS, mCut.readTimeoutMillis(T0 + 200 * MILLIS));
+    }
+
+    @Test
+    public void testReadSizes() {
+        assertEquals(14, mCut.readSize(0));
+        assertEquals(9, mCut.readSize(5));
+
+        // Full reads mean the reader is behind
+        mCut.bytesRead(14, 14);
+        assertEquals(28, mCut.readSize(0));
+        mCut.bytesRead(28, 28);
+        assertEquals(56, mCut.readSize(0));
+
+        mCut.bytesRead(56, 20);
+        assertEquals(14, mCut.readSize(0));
+    }
+
+    @Test
+    public void testReadSizeCapped() {
+        for (int i=0; i<10; i++) {
+            mCut.bytesRead(mCut.readSize(0), mCut.readSize(0));
+        }
+        assertEquals(448, mCut.readSize(0));
+    }
+
+    @Test
+    public void testUnknownFrameLength() {
+        mCut = new ReadPacer(0, 512, 1000);
+
+        assertEquals(512, mCut.readSize(0));
+        mCut.bytesRead(512, 512);
+        assertEquals(512, mCut.readSize(0));
+
+        mCut.framesRead(T0, 1, 14);
+        assertEquals(14, mCut.readSize(0));
+    }
+}
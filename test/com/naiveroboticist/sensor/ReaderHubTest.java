@@ -0,0 +1,198 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.interfaces.INonBlockingRobotReader;
+import com.naiveroboticist.interfaces.IReadinessListener;
+import com.naiveroboticist.sensor.PacketAccumulator.AccumulatorType;
+
+public class ReaderHubTest {
+    private static final byte DISTANCE = 0x13;
+    private static final int NUM_ROBOTS = 128;
+    private static final int NUM_WORKERS = 2;
+    
+    /**
+     * Stands in for a serial port whose driver calls back when bytes
+     * arrive.
+     */
+    static class SimulatedRobot implements INonBlockingRobotReader {
+        private final byte[] mPending = new byte[4096];
+        private int mLength = 0;
+        private boolean mClosed = false;
+        private volatile IReadinessListener mListener;
+
+        @Override
+        public synchronized int readAvailable(byte[] buffer, int offset, int length) throws IOException {
+            if (mLength == 0) {
+                return mClosed ? -1 : 0;
+            }
+            int count = Math.min(length, mLength);
+            System.arraycopy(mPending, 0, buffer, offset, count);
+            System.arraycopy(mPending, count, mPending, 0, mLength - count);
+            mLength -= count;
+            return count;
+        }
+
+        @Override
+        public void setReadinessListener(IReadinessListener listener) {
+            mListener = listener;
+        }
+        
+        void arrive(byte[] bytes, int offset, int length) {
+            synchronized (this) {
+                System.arraycopy(bytes, offset, mPending, mLength, length);
+                mLength += length;
+            }
+            mListener.readyToRead(this);
+        }
+        
+        void close() {
+            synchronized (this) {
+                mClosed = true;
+            }
+            mListener.readyToRead(this);
+        }
+    }
+    
+    private ReaderHub mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new ReaderHub(NUM_WORKERS, NUM_ROBOTS);
+        mCut.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        assertTrue(mCut.stop(1000));
+    }
+
+    @Test
+    public void testManyRobots() throws Exception {
+        SimulatedRobot[] robots = new SimulatedRobot[NUM_ROBOTS];
+        PacketAccumulator[] accumulators = new PacketAccumulator[NUM_ROBOTS];
+        ReaderHub.Robot[] registrations = new ReaderHub.Robot[NUM_ROBOTS];
+        Map<Byte,AccumulatorType> accumulation = new HashMap<Byte,AccumulatorType>();
+        accumulation.put(DISTANCE, AccumulatorType.Sum);
+        for (int i=0; i<NUM_ROBOTS; i++) {
+            robots[i] = new SimulatedRobot();
+            accumulators[i] = new PacketAccumulator(accumulation);
+            registrations[i] = mCut.register(robots[i], 3, accumulators[i]);
+        }
+        assertEquals(NUM_ROBOTS, mCut.numRobots());
+        
+        // Every robot reports its own index as the distance travelled,
+        // split across two serial events per frame.
+        int numFrames = 50;
+        for (int frame=0; frame<numFrames; frame++) {
+            for (int i=0; i<NUM_ROBOTS; i++) {
+                byte[] bytes = { 0x13, 3, DISTANCE, 0, (byte) i, 0 };
+                bytes[5] = Packet.calculateChecksum(bytes, 0, 5);
+                robots[i].arrive(bytes, 0, 2);
+                robots[i].arrive(bytes, 2, 4);
+            }
+        }
+        for (int i=0; i<NUM_ROBOTS; i++) {
+            robots[i].close();
+        }
+        
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mCut.numRobots() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mCut.numRobots());
+        for (int i=0; i<NUM_ROBOTS; i++) {
+            assertTrue(registrations[i].isClosed());
+            assertEquals(numFrames, registrations[i].getMetrics().snapshot().framesAccepted);
+            assertEquals(numFrames * i, accumulators[i].getSensorValue(DISTANCE));
+        }
+    }
+
+    @Test
+    public void testIdleWorkersDoNotSpin() throws Exception {
+        for (int i=0; i<NUM_ROBOTS; i++) {
+            mCut.register(new SimulatedRobot(), 3, new PacketAccumulator(new HashMap<Byte,AccumulatorType>()));
+        }
+        Thread.sleep(50);
+        
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long[] before = workerCpuTimes(threadBean);
+        Thread.sleep(200);
+        long[] after = workerCpuTimes(threadBean);
+        for (int i=0; i<before.length; i++) {
+            // Well under 1% of the 200ms
+            assertTrue(after[i] - before[i] < 2000000);
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testHubFull() throws Exception {
+        for (int i=0; i<=NUM_ROBOTS; i++) {
+            mCut.register(new SimulatedRobot(), 3, new PacketAccumulator(new HashMap<Byte,AccumulatorType>()));
+        }
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        SimulatedRobot robot = new SimulatedRobot();
+        ReaderHub.Robot registration = mCut.register(robot, 3, new PacketAccumulator(new HashMap<Byte,AccumulatorType>()));
+        mCut.unregister(registration);
+        
+        assertTrue(registration.isClosed());
+        assertEquals(0, mCut.numRobots());
+        byte[] bytes = { 0x13, 3, DISTANCE, 0, 1, 0 };
+        bytes[5] = Packet.calculateChecksum(bytes, 0, 5);
+        robot.arrive(bytes, 0, bytes.length);
+        Thread.sleep(50);
+        assertEquals(0, registration.getMetrics().snapshot().bytesRead);
+    }
+    
+    @Test
+    public void testRegistrationChurnWhileStopped() throws Exception {
+        assertTrue(mCut.stop(1000));
+        byte[] bytes = { 0x13, 3, DISTANCE, 0, 1, 0 };
+        bytes[5] = Packet.calculateChecksum(bytes, 0, 5);
+        // Robots that are queued when they go, many times over the hub's size
+        for (int i=0; i<10 * NUM_ROBOTS; i++) {
+            SimulatedRobot robot = new SimulatedRobot();
+            ReaderHub.Robot registration = mCut.register(robot, 3, new PacketAccumulator(new HashMap<Byte,AccumulatorType>()));
+            robot.arrive(bytes, 0, bytes.length);
+            mCut.unregister(registration);
+        }
+        assertEquals(0, mCut.numRobots());
+        
+        mCut.start();
+        SimulatedRobot robot = new SimulatedRobot();
+        ReaderHub.Robot registration = mCut.register(robot, 3, new PacketAccumulator(new HashMap<Byte,AccumulatorType>()));
+        robot.arrive(bytes, 0, bytes.length);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (registration.getMetrics().snapshot().framesAccepted == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, registration.getMetrics().snapshot().framesAccepted);
+    }
+    
+    private long[] workerCpuTimes(ThreadMXBean threadBean) {
+        long[] times = new long[NUM_WORKERS];
+        int numFound = 0;
+        for (long id : threadBean.getAllThreadIds()) {
+            ThreadInfo info = threadBean.getThreadInfo(id);
+            if (info != null && info.getThreadName().startsWith("ReaderHub-")) {
+                times[numFound++] = threadBean.getThreadCpuTime(id);
+            }
+        }
+        assertEquals(NUM_WORKERS, numFound);
+        return times;
+    }
+}
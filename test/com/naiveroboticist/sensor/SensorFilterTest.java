@@ -0,0 +1,143 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.naiveroboticist.sensor.PacketAccumulator.AccumulatorType;
+import com.naiveroboticist.utils.AllocationAssert;
+
+public class SensorFilterTest {
+
+    private static int[] feed(SensorFilter filter, int[] values) {
+        int[] outputs = new int[values.length];
+        for (int i=0; i<values.length; i++) {
+            outputs[i] = filter.update(values[i], 0);
+        }
+        return outputs;
+    }
+
+    @Test
+    public void testMovingAverage() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.MovingAverage, 3);
+        int[] outputs = feed(filter, new int[] { 3, 6, 9, 12, -30 });
+
+        assertArrayEquals(new int[] { 3, 4, 6, 9, -3 }, outputs);
+    }
+
+    @Test
+    public void testEma() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.Ema, 4);
+        int[] outputs = feed(filter, new int[] { 100, 200, 200, 200 });
+
+        // Seeded with the first value, then a quarter of the way each time
+        assertArrayEquals(new int[] { 100, 125, 143, 157 }, outputs);
+    }
+
+    @Test
+    public void testMin() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.Min, 3);
+        int[] outputs = feed(filter, new int[] { 5, 3, 4, 7, 8, 1, 9, 9, 9 });
+
+        assertArrayEquals(new int[] { 5, 3, 3, 3, 4, 1, 1, 1, 9 }, outputs);
+    }
+
+    @Test
+    public void testMax() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.Max, 3);
+        int[] outputs = feed(filter, new int[] { 5, 3, 4, 2, 2, 6, -1, -1, -1 });
+
+        assertArrayEquals(new int[] { 5, 5, 5, 4, 4, 6, 6, 6, -1 }, outputs);
+    }
+
+    @Test
+    public void testExtremesOverManyWindows() {
+        SensorFilter min = new SensorFilter(AccumulatorType.Min, 5);
+        SensorFilter max = new SensorFilter(AccumulatorType.Max, 5);
+        Random random = new Random(3);
+        int[] values = new int[100000];
+        for (int i=0; i<values.length; i++) {
+            values[i] = random.nextInt(50);
+            int expectedMin = Integer.MAX_VALUE;
+            int expectedMax = Integer.MIN_VALUE;
+            for (int j=Math.max(0, i - 4); j<=i; j++) {
+                expectedMin = Math.min(expectedMin, values[j]);
+                expectedMax = Math.max(expectedMax, values[j]);
+            }
+            assertEquals(expectedMin, min.update(values[i], 0));
+            assertEquals(expectedMax, max.update(values[i], 0));
+        }
+    }
+
+    @Test
+    public void testMedian() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.Median, 3);
+        // A single spike never gets through
+        int[] outputs = feed(filter, new int[] { 10, 10, 500, 11, 12, 12, -400, 13 });
+
+        assertArrayEquals(new int[] { 10, 10, 10, 11, 12, 12, 12, 12 }, outputs);
+    }
+
+    @Test
+    public void testMedianWithRepeatedValues() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.Median, 4);
+        int[] outputs = feed(filter, new int[] { 2, 2, 2, 7, 7, 7, 7 });
+
+        // Lower median for an even count
+        assertArrayEquals(new int[] { 2, 2, 2, 2, 2, 7, 7 }, outputs);
+    }
+
+    @Test
+    public void testRateOfChangePerSample() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.RateOfChange, 2);
+        int[] outputs = feed(filter, new int[] { 0, 10, 20, 50 });
+
+        assertArrayEquals(new int[] { 0, 10, 10, 20 }, outputs);
+    }
+
+    @Test
+    public void testRateOfChangePerSecond() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.RateOfChange, 4);
+        long period = 15000000L; // 15ms
+
+        assertEquals(0, filter.update(100, period));
+        assertEquals(200, filter.update(103, 2 * period));
+        assertEquals(200, filter.update(106, 3 * period));
+    }
+
+    @Test
+    public void testReset() {
+        SensorFilter filter = new SensorFilter(AccumulatorType.MovingAverage, 4);
+        feed(filter, new int[] { 100, 100, 100 });
+        filter.reset();
+
+        assertEquals(4, filter.update(4, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindow() {
+        new SensorFilter(AccumulatorType.Median, 0);
+    }
+
+    @Test
+    public void testUpdateDoesNotAllocate() throws Exception {
+        final SensorFilter[] filters = new SensorFilter[6];
+        AccumulatorType[] types = { AccumulatorType.MovingAverage, AccumulatorType.Ema, AccumulatorType.Min,
+                AccumulatorType.Max, AccumulatorType.Median, AccumulatorType.RateOfChange };
+        for (int i=0; i<types.length; i++) {
+            filters[i] = new SensorFilter(types[i], 8);
+        }
+        AllocationAssert.assertNoAllocation(new AllocationAssert.Action() {
+            private int mUpdate = 0;
+            @Override
+            public void run() throws Exception {
+                for (int i=0; i<filters.length; i++) {
+                    filters[i].update(mUpdate % 37, mUpdate * 15000000L);
+                }
+                mUpdate++;
+            }
+        }, 10000);
+    }
+}
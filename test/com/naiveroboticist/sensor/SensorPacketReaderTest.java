@@ -3,6 +3,7 @@ package com.naiveroboticist.sensor;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import org.junit.After;
@@ -10,6 +11,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.naiveroboticist.interfaces.IRobotReader;
+import com.naiveroboticist.interfaces.ISensorValueVisitor;
+import com.naiveroboticist.utils.AllocationAssert;
 
 public class SensorPacketReaderTest {
 	
@@ -110,6 +113,147 @@ public class SensorPacketReaderTest {
        assertEquals(4628, values.get(2).intValue());
     }
     
+    @Test
+    public void testGetPacketValuesExpandsGroups() throws InvalidPacketError {
+       byte[] buffer = { 
+               0x13, 
+               10,
+               2, 0x05, 0x00, (byte) 0xff, 0x38, 0x00, 0x5a, // Group 2: 17-20
+               33, 0x03, (byte) 0xff,
+               0x00
+               };
+       buffer[12] = calculateChecksum(buffer, 0, 12);
+       
+       assertTrue(spr.readPacket(buffer, buffer.length));
+       
+       ArrayList<Integer> values = spr.getPacketValues();
+       assertEquals(5, values.size());
+       assertEquals(5, values.get(0).intValue());
+       assertEquals(-200, values.get(2).intValue());
+       assertEquals(90, values.get(3).intValue());
+       assertEquals(1023, values.get(4).intValue());
+    }
+    
+    @Test
+    public void testGetPacketValuesWithLayout() throws InvalidPacketError {
+       byte[] buffer = { 
+               0x13, 
+               8,
+               33, 21, 22, 
+               7, 10,
+               42, 18, 20,
+               0x00
+               };
+       buffer[10] = calculateChecksum(buffer, 0, 10);
+       assertTrue(spr.readPacket(buffer, buffer.length));
+       
+       byte[] sensors = { 33, 7, 42 };
+       int[] values = new int[3];
+       assertEquals(3, spr.getPacketValues(new StreamLayout(sensors), values));
+       assertEquals(5398, values[0]);
+       assertEquals(10, values[1]);
+       assertEquals(4628, values[2]);
+    }
+    
+    @Test
+    public void testGetPacketValuesIntoArray() throws InvalidPacketError {
+       assertTrue(spr.readPacket(groupPacket(), groupPacket().length));
+       
+       int[] values = new int[SensorPacketReader.MAX_VALUES];
+       assertEquals(5, spr.getPacketValues(values));
+       assertEquals(5, values[0]);
+       assertEquals(0, values[1]);
+       assertEquals(-200, values[2]);
+       assertEquals(90, values[3]);
+       assertEquals(1023, values[4]);
+    }
+    
+    @Test
+    public void testGetPacketValuesIntoIntBuffer() throws InvalidPacketError {
+       assertTrue(spr.readPacket(groupPacket(), groupPacket().length));
+       
+       IntBuffer values = IntBuffer.allocate(10);
+       values.put(42);
+       assertEquals(5, spr.getPacketValues(values));
+       assertEquals(6, values.position());
+       assertEquals(42, values.get(0));
+       assertEquals(-200, values.get(3));
+       assertEquals(1023, values.get(5));
+    }
+    
+    @Test
+    public void testVisitPacketValues() throws InvalidPacketError {
+       assertTrue(spr.readPacket(groupPacket(), groupPacket().length));
+       
+       final StringBuilder visited = new StringBuilder();
+       int count = spr.visitPacketValues(new ISensorValueVisitor() {
+           @Override
+           public void sensorValue(byte sensor, int value) {
+               visited.append(sensor).append('=').append(value).append(' ');
+           }
+       });
+       assertEquals(5, count);
+       assertEquals("17=5 18=0 19=-200 20=90 33=1023 ", visited.toString());
+    }
+    
+    @Test
+    public void testDecodeDoesNotAllocate() throws Exception {
+       assertTrue(spr.readPacket(groupPacket(), groupPacket().length));
+       final int[] values = new int[SensorPacketReader.MAX_VALUES];
+       final IntBuffer buffer = IntBuffer.allocate(SensorPacketReader.MAX_VALUES);
+       final int[] sum = new int[1];
+       final ISensorValueVisitor visitor = new ISensorValueVisitor() {
+           @Override
+           public void sensorValue(byte sensor, int value) {
+               sum[0] += value;
+           }
+       };
+       int numDecodes = 10000;
+       AllocationAssert.assertNoAllocation(new AllocationAssert.Action() {
+           @Override
+           public void run() throws Exception {
+               spr.getPacketValues(values);
+               buffer.clear();
+               spr.getPacketValues(buffer);
+               spr.visitPacketValues(visitor);
+           }
+       }, numDecodes);
+       
+       assertEquals(numDecodes * 918, sum[0]);
+    }
+    
+    @Test
+    public void testFormatPacketBuffer() throws InvalidPacketError {
+       byte[] buffer = { 0x13, 3, 33, 21, 22, 0x00 };
+       buffer[5] = calculateChecksum(buffer, 0, 5);
+       assertTrue(spr.readPacket(buffer, buffer.length));
+       
+       assertEquals("19, 3, 33, 21, 22, " + buffer[5], spr.formatPacketBuffer());
+    }
+    
+    // Group 2 (ids 17-20) then 33
+    private byte[] groupPacket() {
+       byte[] buffer = { 
+               0x13, 
+               10,
+               2, 0x05, 0x00, (byte) 0xff, 0x38, 0x00, 0x5a,
+               33, 0x03, (byte) 0xff,
+               0x00
+               };
+       buffer[12] = calculateChecksum(buffer, 0, 12);
+       return buffer;
+    }
+    
+    @Test(expected=InvalidPacketError.class)
+    public void testGetPacketValuesWithMismatchedLayout() throws InvalidPacketError {
+       byte[] buffer = { 0x13, 3, 33, 21, 22, 0x00 };
+       buffer[5] = calculateChecksum(buffer, 0, 5);
+       assertTrue(spr.readPacket(buffer, buffer.length));
+       
+       byte[] sensors = { 7 };
+       spr.getPacketValues(new StreamLayout(sensors), new int[1]);
+    }
+    
     class TestRobotReaderWriter implements IRobotReader {
         private int mReadNumber;
         private byte[] mBuffer1;
@@ -200,6 +344,53 @@ public class SensorPacketReaderTest {
 
     }
     
+	@Test
+	public void testReadCompletePacketDoesNotAllocate() throws Exception {
+		final byte[] frame = groupPacket();
+		final IRobotReader rrw = new IRobotReader() {
+			@Override
+			public int read(byte[] buffer, int timeoutMillis) throws IOException {
+				System.arraycopy(frame, 0, buffer, 0, frame.length);
+				return frame.length;
+			}
+		};
+		AllocationAssert.Action readOne = new AllocationAssert.Action() {
+			@Override
+			public void run() throws Exception {
+				spr.readCompletePacket(rrw, 1000);
+			}
+		};
+		for (int i=0; i<20000; i++) {
+			readOne.run();
+		}
+		
+		AllocationAssert.assertNoAllocation(readOne, 10000);
+	}
+	
+	@Test
+	public void testChunkLargerThanFramerKeepsEveryPacket() throws InvalidPacketError {
+		// 300 Bumps and Wheel Drops packets, far more than the framer holds
+		byte[] chunk = new byte[300 * 5];
+		for (int i=0; i<300; i++) {
+			chunk[i * 5] = 0x13;
+			chunk[i * 5 + 1] = 2;
+			chunk[i * 5 + 2] = 0x07;
+			chunk[i * 5 + 3] = (byte) (i & 0x0f);
+			chunk[i * 5 + 4] = Packet.calculateChecksum(chunk, i * 5, 4);
+		}
+		int[] values = new int[SensorPacketReader.MAX_VALUES];
+		
+		assertTrue(spr.readPacket(chunk, chunk.length));
+		int numPackets = 0;
+		do {
+			assertEquals(1, spr.getPacketValues(values));
+			assertEquals(numPackets & 0x0f, values[0]);
+			numPackets++;
+		} while (spr.readPacket(chunk, 0));
+		
+		assertEquals(300, numPackets);
+	}
+	
 	private byte calculateChecksum(byte[] buffer, int start, int count) {
 		int sum = 0;
 		
@@ -0,0 +1,74 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SensorSchemaTest {
+
+    @Test
+    public void testWidths() {
+        assertEquals(1, SensorSchema.width(7));
+        assertEquals(2, SensorSchema.width(19));
+        assertEquals(2, SensorSchema.width(43));
+        assertEquals(1, SensorSchema.width(58));
+        assertEquals(0, SensorSchema.width(59));
+        assertEquals(0, SensorSchema.width((byte) 0x80));
+        assertFalse(SensorSchema.isKnown(-1));
+    }
+
+    @Test
+    public void testGroupWidths() {
+        int[] groups = { 0, 1, 2, 3, 4, 5, 6, 100, 101, 106, 107 };
+        int[] widths = { 26, 10, 6, 10, 14, 12, 52, 80, 28, 12, 9 };
+        for (int i=0; i<groups.length; i++) {
+            assertTrue(SensorSchema.isGroup(groups[i]));
+            assertEquals(widths[i], SensorSchema.width(groups[i]));
+        }
+        assertFalse(SensorSchema.isGroup(19));
+        assertNull(SensorSchema.groupMembers(19));
+        assertArrayEquals(new byte[] { 17, 18, 19, 20 }, SensorSchema.groupMembers(2));
+    }
+
+    @Test
+    public void testSignedWordWithHighLowByte() {
+        // -200 mm is 0xff38; the low byte must not be sign extended
+        byte[] buffer = { (byte) 0xff, 0x38 };
+        assertEquals(-200, SensorSchema.decode(19, buffer, 0));
+        
+        buffer = new byte[] { 0x01, (byte) 0xf4 };
+        assertEquals(500, SensorSchema.decode(20, buffer, 0));
+    }
+
+    @Test
+    public void testUnsignedWord() {
+        // 16.5 V is above what a signed word can hold
+        byte[] buffer = { 0x40, 0x74 };
+        assertEquals(16500, SensorSchema.decode(22, buffer, 0));
+        buffer = new byte[] { (byte) 0x9c, 0x40 };
+        assertEquals(40000, SensorSchema.decode(25, buffer, 0));
+        assertEquals(40.0, SensorSchema.toUnits(25, 40000), 1e-9);
+        assertEquals("Ah", SensorSchema.units(25));
+    }
+
+    @Test
+    public void testBytes() {
+        byte[] buffer = { (byte) 0xf6, (byte) 0xf6 };
+        // Battery temperature is signed, the infrared byte isn't
+        assertEquals(-10, SensorSchema.decode(24, buffer, 0));
+        assertEquals(246, SensorSchema.decode(17, buffer, 0));
+        assertTrue(SensorSchema.isSigned(24));
+        assertFalse(SensorSchema.isSigned(17));
+    }
+
+    @Test
+    public void testDecodeByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(1, (byte) 0xff);
+        buffer.put(2, (byte) 0x38);
+        assertEquals(-200, SensorSchema.decode(19, buffer, 1));
+        assertEquals(65336, SensorSchema.decode(22, buffer, 1));
+    }
+}
@@ -0,0 +1,65 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SensorValueTableTest {
+    private static final byte DISTANCE = 19;
+    private static final byte ANGLE = 20;
+    
+    private SensorValueTable mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new SensorValueTable();
+    }
+
+    @Test
+    public void testUnsetSensorIsZero() {
+        assertEquals(0, mCut.get(DISTANCE));
+        assertEquals(0, mCut.get((byte) 0xff));
+    }
+
+    @Test
+    public void testAddAndSet() {
+        mCut.beginWrite();
+        mCut.add(DISTANCE, 12);
+        mCut.add(DISTANCE, 30);
+        mCut.set(ANGLE, -7);
+        mCut.endWrite();
+        
+        assertEquals(42, mCut.get(DISTANCE));
+        assertEquals(-7, mCut.get(ANGLE));
+        assertEquals(1, mCut.version());
+    }
+
+    @Test
+    public void testSnapshotIsConsistent() throws InterruptedException {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=1; i<=200000; i++) {
+                    mCut.beginWrite();
+                    mCut.set(DISTANCE, i);
+                    mCut.set(ANGLE, -i);
+                    mCut.endWrite();
+                }
+            }
+        });
+        writer.start();
+        
+        byte[] sensors = { DISTANCE, ANGLE };
+        int[] values = new int[2];
+        while (writer.isAlive()) {
+            mCut.snapshot(sensors, values);
+            assertEquals(values[0], -values[1]);
+        }
+        writer.join();
+        
+        mCut.snapshot(sensors, values);
+        assertEquals(200000, values[0]);
+        assertEquals(-200000, values[1]);
+    }
+}
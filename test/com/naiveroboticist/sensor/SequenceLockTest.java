@@ -0,0 +1,62 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SequenceLockTest {
+    private SequenceLock mCut;
+
+    @Before
+    public void setUp() throws Exception {
+        mCut = new SequenceLock();
+    }
+
+    @Test
+    public void testVersionCountsWrites() {
+        assertEquals(0, mCut.version());
+        mCut.beginWrite();
+        mCut.endWrite();
+        mCut.beginWrite();
+        mCut.endWrite();
+        assertEquals(2, mCut.version());
+    }
+
+    @Test
+    public void testReadWithoutWriteIsValid() {
+        long sequence = mCut.beginRead();
+        assertTrue(mCut.endRead(sequence));
+    }
+
+    @Test
+    public void testOverlappingWriteInvalidatesRead() {
+        long sequence = mCut.beginRead();
+        mCut.beginWrite();
+        assertFalse(mCut.endRead(sequence));
+        mCut.endWrite();
+        assertFalse(mCut.endRead(sequence));
+    }
+
+    @Test
+    public void testReadWaitsForWrite() throws InterruptedException {
+        mCut.beginWrite();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mCut.endWrite();
+            }
+        });
+        writer.start();
+
+        long sequence = mCut.beginRead();
+        assertEquals(1, mCut.version());
+        assertTrue(mCut.endRead(sequence));
+        writer.join();
+    }
+}
@@ -0,0 +1,167 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamLayoutTest {
+    private static final byte[] SENSORS = { 0x07, 0x13, 0x14, 0x21 };
+    
+    private StreamLayout mCut;
+    private Packet mPacket;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] packetBuffer = { 0x13, 
+                0x0b, 
+                0x07, 0x00,
+                0x13, 0x23, 0x18,
+                0x14, 0x00, 0x00,
+                0x21, 0x01, 0x1f, 
+                115 };
+        mPacket = new Packet(512);
+        mPacket.put(packetBuffer, 0, 14);
+        mCut = new StreamLayout(SENSORS);
+    }
+
+    @Test
+    public void testOffsets() {
+        assertEquals(11, mCut.payloadLength());
+        assertEquals(4, mCut.numSensors());
+        assertEquals(3, mCut.offsetOf((byte) 0x07));
+        assertEquals(5, mCut.offsetOf((byte) 0x13));
+        assertEquals(8, mCut.offsetOf((byte) 0x14));
+        assertEquals(11, mCut.offsetOf((byte) 0x21));
+        assertEquals(-1, mCut.offsetOf((byte) 0x16));
+    }
+
+    @Test
+    public void testIndexOf() {
+        assertEquals(0, mCut.indexOf((byte) 0x07));
+        assertEquals(3, mCut.indexOf((byte) 0x21));
+        assertEquals(-1, mCut.indexOf((byte) 0x16));
+    }
+
+    @Test(expected=InvalidPacketError.class)
+    public void testInvalidSensor() throws InvalidPacketError {
+        byte[] sensors = { 0x07, 0x3b };
+        new StreamLayout(sensors);
+    }
+
+    @Test
+    public void testGroupExpansion() throws InvalidPacketError {
+        // Group 2 (17-20) and the analog signal
+        byte[] streamIds = { 0x02, 0x21 };
+        mCut = new StreamLayout(streamIds);
+        
+        assertEquals(2, mCut.numStreamIds());
+        assertEquals(5, mCut.numSensors());
+        assertEquals(1 + 6 + 1 + 2, mCut.payloadLength());
+        assertEquals(13, mCut.frameLength());
+        assertEquals(0x14, mCut.sensorAt(3));
+        assertEquals(3, mCut.offsetOf((byte) 0x11));
+        assertEquals(5, mCut.offsetOf((byte) 0x13));
+        assertEquals(7, mCut.offsetOf((byte) 0x14));
+        assertEquals(10, mCut.offsetOf((byte) 0x21));
+        
+        byte[] frame = { 0x13, 10, 
+                0x02, 0x05, 0x00, (byte) 0xff, 0x38, 0x00, 0x5a, 
+                0x21, 0x03, (byte) 0xff, 
+                0 };
+        frame[12] = Packet.calculateChecksum(frame, 0, 12);
+        Packet packet = new Packet(512);
+        packet.put(frame, 0, frame.length);
+        assertTrue(mCut.matches(packet));
+        
+        int[] values = new int[mCut.numSensors()];
+        assertEquals(5, packet.getSensorValues(mCut, values));
+        assertArrayEquals(new int[] { 5, 0, -200, 90, 1023 }, values);
+        assertEquals(-200, packet.getSensorValue((byte) 0x13));
+        assertEquals(90, packet.getSensorValue((byte) 0x14));
+        assertEquals(1023, packet.getSensorValue((byte) 0x21));
+        
+        StreamLayout fromPacket = StreamLayout.fromPacket(packet);
+        assertEquals(5, fromPacket.numSensors());
+        assertEquals(0x02, fromPacket.streamIdAt(0));
+    }
+
+    @Test
+    public void testGroupDoesNotMatchMembers() throws InvalidPacketError {
+        byte[] streamIds = { 0x02 };
+        byte[] members = { 0x11, 0x12, 0x13, 0x14 };
+        byte[] frame = { 0x13, 7, 0x02, 0, 0, 0, 0, 0, 0, 0 };
+        Packet packet = new Packet(512);
+        packet.put(frame, 0, frame.length);
+        
+        assertTrue(new StreamLayout(streamIds).matches(packet));
+        assertFalse(new StreamLayout(members).matches(packet));
+    }
+
+    @Test
+    public void testMatches() throws InvalidPacketError {
+        assertTrue(mCut.matches(mPacket));
+        
+        byte[] sensors = { 0x07, 0x14, 0x13, 0x21 };
+        assertFalse(new StreamLayout(sensors).matches(mPacket));
+    }
+
+    @Test
+    public void testFromPacket() throws InvalidPacketError {
+        StreamLayout layout = StreamLayout.fromPacket(mPacket);
+        assertEquals(4, layout.numSensors());
+        for (int i=0; i<SENSORS.length; i++) {
+            assertEquals(SENSORS[i], layout.sensorAt(i));
+        }
+        assertTrue(layout.matches(mPacket));
+    }
+
+    @Test
+    public void testForPacketKeepsMatchingLayout() throws InvalidPacketError {
+        assertSame(mCut, StreamLayout.forPacket(mCut, mPacket));
+        
+        StreamLayout other = new StreamLayout(new byte[] { 0x07 });
+        StreamLayout compiled = StreamLayout.forPacket(other, mPacket);
+        assertNotSame(other, compiled);
+        assertTrue(compiled.matches(mPacket));
+        assertTrue(StreamLayout.forPacket(null, mPacket).matches(mPacket));
+    }
+
+    @Test
+    public void testIndexesOf() {
+        assertArrayEquals(new int[] { 3, -1, 0 }, mCut.indexesOf(new byte[] { 0x21, 0x16, 0x07 }));
+    }
+
+    @Test
+    public void testDecode() {
+        int[] values = new int[4];
+        assertEquals(4, mPacket.getSensorValues(mCut, values));
+        assertEquals(0, values[0]);
+        assertEquals(8984, values[1]);
+        assertEquals(0, values[2]);
+        assertEquals(287, values[3]);
+    }
+
+    @Test
+    public void testDecodeByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        for (int i=0; i<mPacket.position(); i++) {
+            buffer.put(mPacket.get(i));
+        }
+        
+        int[] values = new int[4];
+        assertTrue(mCut.matches(buffer, 0));
+        assertEquals(4, mCut.decode(buffer, 0, values));
+        assertEquals(8984, values[1]);
+        assertEquals(287, values[3]);
+    }
+
+    @Test
+    public void testGetSensorValueWithLayout() throws InvalidPacketError {
+        for (int i=0; i<SENSORS.length; i++) {
+            assertEquals(mPacket.getSensorValue(SENSORS[i]), mPacket.getSensorValue(mCut, SENSORS[i]));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.naiveroboticist.sensor;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.naiveroboticist.interfaces.IWindowListener;
+
+public class WindowAggregatorTest {
+    private static final long MILLIS = 1000000L;
+    private static final long T0 = 5000 * MILLIS;
+
+    private WindowAggregator mCut;
+    private List<ByteBuffer> mRecords;
+    private List<int[]> mSummaries;
+
+    @Before
+    public void setUp() throws Exception {
+        mRecords = new ArrayList<ByteBuffer>();
+        mSummaries = new ArrayList<int[]>();
+        byte[] sensors = { 0x09, 0x13, 0x1b };
+        mCut = new WindowAggregator(sensors, 100, new IWindowListener() {
+            @Override
+            public void windowClosed(WindowAggregator.Window window) {
+                ByteBuffer record = ByteBuffer.allocate(window.encodedLength());
+                window.writeTo(record);
+                record.flip();
+                mRecords.add(record);
+                // packets, then count / min / max / last of the first two sensors
+                mSummaries.add(new int[] { window.numPackets(),
+                        window.count(0), window.min(0), window.max(0), window.last(0),
+                        window.count(1), window.min(1), window.max(1), window.last(1) });
+            }
+        });
+    }
+
+    // Cliff Left (1 byte) and Distance (2 bytes, signed)
+    private static Packet packet(int cliff, int distance, long timestamp) {
+        byte[] packetBuffer = { 0x13,
+                0x05,
+                0x09, (byte) cliff,
+                0x13, (byte) (distance >> 8), (byte) distance,
+                0 };
+        packetBuffer[7] = Packet.calculateChecksum(packetBuffer, 0, 7);
+        Packet packet = new Packet(512);
+        packet.put(packetBuffer, 0, packetBuffer.length);
+        // Offset, as a zero timestamp means "none"
+        packet.setTimestamp(T0 + timestamp);
+        return packet;
+    }
+
+    @Test
+    public void testWindowClosesOnNextWindowsPacket() {
+        mCut.packetReceived(packet(0, 10, 0));
+        mCut.packetReceived(packet(1, -20, 15 * MILLIS));
+        mCut.packetReceived(packet(0, 30, 99 * MILLIS));
+
+        assertEquals(0, mSummaries.size());
+
+        mCut.packetReceived(packet(0, 5, 100 * MILLIS));
+
+        assertEquals(1, mSummaries.size());
+        assertArrayEquals(new int[] { 3, 3, 0, 1, 0, 3, -20, 30, 30 }, mSummaries.get(0));
+        assertEquals(1, mCut.windowsClosed());
+    }
+
+    @Test
+    public void testExtremesSurviveDownsampling() {
+        // One cliff reading among many
+        for (int i=0; i<66; i++) {
+            mCut.packetReceived(packet(i == 40 ? 1 : 0, 0, i * 15 * MILLIS));
+        }
+        mCut.flush();
+
+        int cliffs = 0;
+        for (int[] summary : mSummaries) {
+            cliffs += summary[3];
+        }
+        assertEquals(1, cliffs);
+        assertEquals(10, mSummaries.size());
+    }
+
+    @Test
+    public void testEmptyWindowsSkipped() {
+        mCut.packetReceived(packet(0, 1, 0));
+        mCut.packetReceived(packet(0, 2, 950 * MILLIS));
+        mCut.packetReceived(packet(0, 3, 1010 * MILLIS));
+
+        assertEquals(2, mSummaries.size());
+        ByteBuffer second = mRecords.get(1);
+        // Windows stay aligned to the first packet
+        assertEquals(T0 + 900 * MILLIS, second.getLong());
+        assertEquals(T0 + 1000 * MILLIS, second.getLong());
+    }
+
+    @Test
+    public void testRecordEncoding() {
+        mCut.packetReceived(packet(1, 4, 0));
+        mCut.packetReceived(packet(0, 7, 50 * MILLIS));
+        mCut.flush();
+
+        ByteBuffer record = mRecords.get(0);
+        assertEquals(WindowAggregator.Window.HEADER_LENGTH + 3 * WindowAggregator.Window.SENSOR_LENGTH,
+                record.remaining());
+        assertEquals(T0, record.getLong());
+        assertEquals(T0 + 100 * MILLIS, record.getLong());
+        assertEquals(2, record.getInt());
+        assertEquals(3, record.get());
+
+        assertEquals(0x09, record.get());
+        record.position(record.position() + 4 * 4 + 4);
+
+        assertEquals(0x13, record.get());
+        assertEquals(2, record.getInt());
+        assertEquals(4, record.getInt());
+        assertEquals(7, record.getInt());
+        assertEquals(5.5f, record.getFloat(), 0);
+        assertEquals(7, record.getInt());
+
+        // Wall Signal isn't in the stream
+        assertEquals(0x1b, record.get());
+        assertEquals(0, record.getInt());
+    }
+
+    @Test
+    public void testFlush() {
+        mCut.flush();
+        assertEquals(0, mSummaries.size());
+
+        mCut.packetReceived(packet(0, 1, 0));
+        mCut.flush();
+        mCut.packetReceived(packet(0, 2, 10 * MILLIS));
+        mCut.flush();
+
+        assertEquals(2, mSummaries.size());
+        assertEquals(1, mSummaries.get(1)[0]);
+        assertEquals(2, mSummaries.get(1)[8]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindow() {
+        new WindowAggregator(new byte[] { 0x09 }, 0, null);
+    }
+}
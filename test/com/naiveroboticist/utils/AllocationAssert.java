@@ -0,0 +1,37 @@
+package com.naiveroboticist.utils;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that code allocates nothing on the heap once warmed up, using the
+ * per-thread allocation counter of the HotSpot ThreadMXBean.
+ */
+public final class AllocationAssert {
+
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private AllocationAssert() {
+    }
+
+    /**
+     * Runs the action the given number of times on the calling thread and
+     * fails if that allocated a byte or more per run. Warm up first so the
+     * JIT and any pools have settled.
+     */
+    public static void assertNoAllocation(Action action, int repetitions) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i=0; i<repetitions; i++) {
+            action.run();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("Bytes allocated per run", 0, allocated / repetitions);
+    }
+}
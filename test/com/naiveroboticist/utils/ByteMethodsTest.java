@@ -2,6 +2,9 @@ package com.naiveroboticist.utils;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -22,6 +25,18 @@ public class ByteMethodsTest {
         assertEquals((byte)87, lb);
     }
 
+    @Test
+    public void testPutWord() {
+        byte[] buffer = new byte[5];
+        int offset = ByteMethods.putWord(buffer, 1, 1111);
+        assertEquals(3, offset);
+        assertArrayEquals(new byte[] { 0, 4, 87, 0, 0 }, buffer);
+        
+        offset = ByteMethods.putWord(buffer, offset, -200);
+        assertEquals(5, offset);
+        assertEquals(-200, ByteMethods.bytesToWord(buffer[3], buffer[4]));
+    }
+
     @Test
     public void testUpperByte() {
         byte ub = ByteMethods.uB(1111);
@@ -63,6 +78,22 @@ public class ByteMethodsTest {
         assertEquals(-1, ByteMethods.seek(buffer, 2, (byte)0x02));
     }
     
+    @Test
+    public void testSeekView() throws Exception {
+        byte[] buffer = new byte[256];
+        buffer[200] = 0x13;
+        final ByteBuffer view = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+        assertEquals(200, ByteMethods.seek(view, buffer.length, (byte)0x13));
+        assertEquals(-1, ByteMethods.seek(view, 200, (byte)0x13));
+        
+        AllocationAssert.assertNoAllocation(new AllocationAssert.Action() {
+            @Override
+            public void run() throws Exception {
+                ByteMethods.seek(view, 256, (byte)0x13);
+            }
+        }, 10000);
+    }
+    
     @Test
     public void testSensorValueAsWordValid() {
         byte[] buffer = { 0x00, 0x01, 0x02, 0x03 };
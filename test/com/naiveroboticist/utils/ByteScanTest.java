@@ -0,0 +1,97 @@
+package com.naiveroboticist.utils;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteScanTest {
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testSumMatchesScalar() {
+        byte[] bytes = randomBytes(1, 1000);
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        for (int start=0; start<9; start++) {
+            for (int count=0; count<bytes.length - start; count += 7) {
+                int expected = ByteScan.scalarSum(bytes, start, count);
+                assertEquals(expected, ByteScan.swarSum(heap, start, count));
+                assertEquals(expected, ByteScan.swarSum(direct, start, count));
+                assertEquals(expected, ByteScan.scalarSum(heap, start, count));
+                assertEquals(expected, ByteScan.sum(bytes, start, count));
+            }
+        }
+    }
+
+    @Test
+    public void testSumOfAllOnes() {
+        // Every lane at its maximum for many words
+        byte[] bytes = new byte[4096];
+        Arrays.fill(bytes, (byte) 0xff);
+
+        assertEquals(ByteScan.scalarSum(bytes, 0, bytes.length), ByteScan.swarSum(ByteBuffer.wrap(bytes), 0, bytes.length));
+        assertEquals(0, ByteScan.sum(bytes, 0, bytes.length));
+        assertEquals(1, ByteScan.sum(bytes, 0, 4095));
+    }
+
+    @Test
+    public void testChecksummedFrameSumsToZero() {
+        byte[] frame = { 0x13, 0x05, 0x13, 0x00, 0x02, 0x14, 0x00, 0 };
+        frame[7] = (byte) -ByteScan.sum(frame, 0, 7);
+
+        assertEquals(0, ByteScan.sum(ByteBuffer.wrap(frame), 0, frame.length));
+    }
+
+    @Test
+    public void testIndexOfMatchesScalar() {
+        byte[] bytes = randomBytes(2, 600);
+        ByteBuffer bigEndian = ByteBuffer.wrap(bytes);
+        ByteBuffer littleEndian = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] markers = { 0x13, 0x00, (byte) 0x80, (byte) 0xff, 0x7f };
+        for (byte marker : markers) {
+            for (int start=0; start<bytes.length; start += 3) {
+                for (int end=start; end<=bytes.length; end += 11) {
+                    int expected = ByteScan.scalarIndexOf(bytes, start, end, marker);
+                    assertEquals(expected, ByteScan.swarIndexOf(bigEndian, start, end, marker));
+                    assertEquals(expected, ByteScan.swarIndexOf(littleEndian, start, end, marker));
+                    assertEquals(expected, ByteScan.indexOf(bytes, start, end, marker));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfEveryLane() {
+        byte[] bytes = new byte[64];
+        for (int i=0; i<bytes.length; i++) {
+            // Neighbours one above and below the marker, which a borrowing
+            // zero byte test could mistake for it
+            Arrays.fill(bytes, (byte) 0x14);
+            if (i > 0) {
+                bytes[i - 1] = 0x12;
+            }
+            bytes[i] = 0x13;
+            assertEquals(i, ByteScan.swarIndexOf(ByteBuffer.wrap(bytes), 0, bytes.length, (byte) 0x13));
+            assertEquals(i, ByteScan.swarIndexOf(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, bytes.length, (byte) 0x13));
+        }
+    }
+
+    @Test
+    public void testIndexOfMissing() {
+        byte[] bytes = new byte[100];
+
+        assertEquals(-1, ByteScan.indexOf(bytes, 0, bytes.length, (byte) 0x13));
+        assertEquals(-1, ByteScan.indexOf(bytes, 10, 10, (byte) 0x00));
+    }
+}